@@ -0,0 +1,459 @@
+package org.matsim.analysis;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.vehicles.Vehicle;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Binary columnar copy of an events file, which can be replayed much faster than parsing the xml.
+ * <p>
+ * Events are stored in blocks, each block contains the columns time, type, number of attributes and the attribute keys and values.
+ * All strings, i.e. types, ids and other values, are interned into one pool at the end of the file. Blocks are memory mapped when replaying.
+ * Common traffic events are constructed directly from the pool indices, with ids resolved once per pool entry. All other events are created
+ * by the same code as when reading xml, so replayed events are identical to the events of the original file.
+ */
+public final class BinaryEvents {
+
+	/**
+	 * File extension of binary events.
+	 */
+	public static final String SUFFIX = ".events.bin";
+
+	private static final Logger log = LogManager.getLogger(BinaryEvents.class);
+
+	private static final int MAGIC = 0x45564e54;
+	private static final int VERSION = 1;
+
+	/**
+	 * Number of events per block.
+	 */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	private BinaryEvents() {
+	}
+
+	/**
+	 * Path of the binary copy belonging to an xml events file.
+	 */
+	public static Path getCachePath(String events) {
+		return Path.of(events.replaceFirst("\\.xml(\\.gz|\\.zst|\\.lz4)?$", "") + SUFFIX);
+	}
+
+	/**
+	 * Read events into the manager, using the binary copy if the path points to one, or if an up-to-date copy exists next to the xml file.
+	 * The manager needs to be initialized by the caller, the same as for {@link EventsUtils#readEvents(EventsManager, String)}.
+	 */
+	public static void readEvents(EventsManager manager, String events) {
+		try {
+			Path cache = events.endsWith(SUFFIX) ? Path.of(events) : getCachePath(events);
+			if (events.endsWith(SUFFIX) || isUpToDate(cache, Path.of(events))) {
+				log.info("Replaying binary events {}", cache);
+				replay(cache, manager);
+			} else
+				EventsUtils.readEvents(manager, events);
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static boolean isUpToDate(Path cache, Path events) throws IOException {
+		return Files.exists(cache) && Files.exists(events) &&
+			Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(events)) >= 0;
+	}
+
+	/**
+	 * Convert an events file to the binary format.
+	 */
+	public static void convert(String events, Path output) throws IOException {
+
+		EventsManager manager = EventsUtils.createEventsManager();
+
+		try (Writer writer = new Writer(output)) {
+			manager.addHandler(writer);
+			manager.initProcessing();
+			EventsUtils.readEvents(manager, events);
+			manager.finishProcessing();
+		}
+	}
+
+	/**
+	 * Replay all events of a binary file.
+	 */
+	public static void replay(Path path, EventsManager manager) throws IOException {
+
+		EventsReaderXMLv1 reader = new EventsReaderXMLv1(manager);
+		Stack<String> context = new Stack<>();
+		context.push("events");
+
+		AttributesImpl atts = new AttributesImpl();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+			ByteBuffer header = ByteBuffer.allocate(16);
+			channel.read(header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("Not a binary events file: " + path);
+
+			ByteBuffer footer = ByteBuffer.allocate(Long.BYTES);
+			channel.read(footer, channel.size() - Long.BYTES);
+			footer.flip();
+			long poolStart = footer.getLong();
+
+			String[] pool = readPool(channel.map(FileChannel.MapMode.READ_ONLY, poolStart, channel.size() - Long.BYTES - poolStart));
+			Decoder decoder = new Decoder(pool);
+
+			long pos = Integer.BYTES * 2;
+			while (pos < poolStart) {
+
+				ByteBuffer size = ByteBuffer.allocate(Integer.BYTES * 2);
+				channel.read(size, pos);
+				size.flip();
+				int n = size.getInt();
+				int m = size.getInt();
+
+				long length = Integer.BYTES * 2 + (long) n * (Double.BYTES + Integer.BYTES + 1) + (long) m * Integer.BYTES * 2;
+				MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+				pos += length;
+
+				int times = Integer.BYTES * 2;
+				int types = times + n * Double.BYTES;
+				int counts = types + n * Integer.BYTES;
+				int keys = counts + n;
+				int values = keys + m * Integer.BYTES;
+
+				int attr = 0;
+				for (int i = 0; i < n; i++) {
+					double time = block.getDouble(times + i * Double.BYTES);
+					int type = block.getInt(types + i * Integer.BYTES);
+					int count = Byte.toUnsignedInt(block.get(counts + i));
+
+					Event event = decoder.decode(time, type, block, keys + attr * Integer.BYTES, values + attr * Integer.BYTES, count);
+					if (event != null) {
+						manager.processEvent(event);
+						attr += count;
+						continue;
+					}
+
+					atts.clear();
+					add(atts, Event.ATTRIBUTE_TIME, Double.toString(time));
+					add(atts, Event.ATTRIBUTE_TYPE, pool[type]);
+
+					for (int j = 0; j < count; j++, attr++) {
+						add(atts, pool[block.getInt(keys + attr * Integer.BYTES)], pool[block.getInt(values + attr * Integer.BYTES)]);
+					}
+
+					reader.startTag("event", atts, context);
+				}
+			}
+		}
+	}
+
+	private static void add(AttributesImpl atts, String key, String value) {
+		atts.addAttribute("", key, key, "CDATA", value);
+	}
+
+	private static String[] readPool(ByteBuffer buffer) {
+		String[] pool = new String[buffer.getInt()];
+		for (int i = 0; i < pool.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			pool[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return pool;
+	}
+
+	/**
+	 * Creates common events directly from the pool indices of their attributes.
+	 */
+	private static final class Decoder {
+
+		private static final byte GENERIC = 0;
+		private static final byte LINK_ENTER = 1;
+		private static final byte LINK_LEAVE = 2;
+		private static final byte VEHICLE_ENTERS_TRAFFIC = 3;
+		private static final byte VEHICLE_LEAVES_TRAFFIC = 4;
+		private static final byte PERSON_ENTERS_VEHICLE = 5;
+		private static final byte PERSON_LEAVES_VEHICLE = 6;
+		private static final byte DEPARTURE = 7;
+		private static final byte ARRIVAL = 8;
+
+		private final String[] pool;
+
+		/**
+		 * Kind of event for each pool entry used as type.
+		 */
+		private final byte[] kinds;
+
+		private final int person;
+		private final int link;
+		private final int vehicle;
+		private final int legMode;
+		private final int routingMode;
+		private final int networkMode;
+		private final int position;
+
+		private final Id<Person>[] persons;
+		private final Id<Link>[] links;
+		private final Id<Vehicle>[] vehicles;
+
+		@SuppressWarnings("unchecked")
+		private Decoder(String[] pool) {
+			this.pool = pool;
+			this.kinds = new byte[pool.length];
+
+			Object2IntMap<String> index = new Object2IntOpenHashMap<>();
+			index.defaultReturnValue(-1);
+			for (int i = 0; i < pool.length; i++) {
+				index.putIfAbsent(pool[i], i);
+				kinds[i] = kind(pool[i]);
+			}
+
+			person = index.getInt(PersonDepartureEvent.ATTRIBUTE_PERSON);
+			link = index.getInt(LinkEnterEvent.ATTRIBUTE_LINK);
+			vehicle = index.getInt(LinkEnterEvent.ATTRIBUTE_VEHICLE);
+			legMode = index.getInt(PersonDepartureEvent.ATTRIBUTE_LEGMODE);
+			routingMode = index.getInt(PersonDepartureEvent.ATTRIBUTE_ROUTING_MODE);
+			networkMode = index.getInt(VehicleEntersTrafficEvent.ATTRIBUTE_NETWORKMODE);
+			position = index.getInt(VehicleEntersTrafficEvent.ATTRIBUTE_POSITION);
+
+			persons = new Id[pool.length];
+			links = new Id[pool.length];
+			vehicles = new Id[pool.length];
+		}
+
+		private static byte kind(String type) {
+			return switch (type) {
+				case LinkEnterEvent.EVENT_TYPE -> LINK_ENTER;
+				case LinkLeaveEvent.EVENT_TYPE -> LINK_LEAVE;
+				case VehicleEntersTrafficEvent.EVENT_TYPE -> VEHICLE_ENTERS_TRAFFIC;
+				case VehicleLeavesTrafficEvent.EVENT_TYPE -> VEHICLE_LEAVES_TRAFFIC;
+				case PersonEntersVehicleEvent.EVENT_TYPE -> PERSON_ENTERS_VEHICLE;
+				case PersonLeavesVehicleEvent.EVENT_TYPE -> PERSON_LEAVES_VEHICLE;
+				case PersonDepartureEvent.EVENT_TYPE -> DEPARTURE;
+				case PersonArrivalEvent.EVENT_TYPE -> ARRIVAL;
+				default -> GENERIC;
+			};
+		}
+
+		/**
+		 * Create the event, or return null if it needs to be created by the xml reader.
+		 * Only events with exactly the attributes written by their own class are decoded.
+		 */
+		private Event decode(double time, int type, ByteBuffer block, int keys, int values, int count) {
+
+			byte kind = kinds[type];
+			if (kind == GENERIC)
+				return null;
+
+			int p = -1;
+			int l = -1;
+			int v = -1;
+			int lm = -1;
+			int rm = -1;
+			int nm = -1;
+			int pos = -1;
+
+			for (int j = 0; j < count; j++) {
+				int key = block.getInt(keys + j * Integer.BYTES);
+				int value = block.getInt(values + j * Integer.BYTES);
+				if (key == person)
+					p = value;
+				else if (key == link)
+					l = value;
+				else if (key == vehicle)
+					v = value;
+				else if (key == legMode)
+					lm = value;
+				else if (key == routingMode)
+					rm = value;
+				else if (key == networkMode)
+					nm = value;
+				else if (key == position)
+					pos = value;
+				else
+					return null;
+			}
+
+			return switch (kind) {
+				case LINK_ENTER -> count == 2 && v >= 0 && l >= 0 ? new LinkEnterEvent(time, vehicle(v), link(l)) : null;
+				case LINK_LEAVE -> count == 2 && v >= 0 && l >= 0 ? new LinkLeaveEvent(time, vehicle(v), link(l)) : null;
+				case VEHICLE_ENTERS_TRAFFIC -> count == 5 && p >= 0 && l >= 0 && v >= 0 && nm >= 0 && pos >= 0 ?
+					new VehicleEntersTrafficEvent(time, person(p), link(l), vehicle(v), pool[nm], Double.parseDouble(pool[pos])) : null;
+				case VEHICLE_LEAVES_TRAFFIC -> count == 5 && p >= 0 && l >= 0 && v >= 0 && nm >= 0 && pos >= 0 ?
+					new VehicleLeavesTrafficEvent(time, person(p), link(l), vehicle(v), pool[nm], Double.parseDouble(pool[pos])) : null;
+				case PERSON_ENTERS_VEHICLE -> count == 2 && p >= 0 && v >= 0 ? new PersonEntersVehicleEvent(time, person(p), vehicle(v)) : null;
+				case PERSON_LEAVES_VEHICLE -> count == 2 && p >= 0 && v >= 0 ? new PersonLeavesVehicleEvent(time, person(p), vehicle(v)) : null;
+				case DEPARTURE -> count == 4 && p >= 0 && l >= 0 && lm >= 0 && rm >= 0 ?
+					new PersonDepartureEvent(time, person(p), link(l), pool[lm], pool[rm]) : null;
+				case ARRIVAL -> count == 3 && p >= 0 && l >= 0 && lm >= 0 ? new PersonArrivalEvent(time, person(p), link(l), pool[lm]) : null;
+				default -> null;
+			};
+		}
+
+		private Id<Person> person(int i) {
+			Id<Person> id = persons[i];
+			if (id == null)
+				persons[i] = id = Id.createPersonId(pool[i]);
+			return id;
+		}
+
+		private Id<Link> link(int i) {
+			Id<Link> id = links[i];
+			if (id == null)
+				links[i] = id = Id.createLinkId(pool[i]);
+			return id;
+		}
+
+		private Id<Vehicle> vehicle(int i) {
+			Id<Vehicle> id = vehicles[i];
+			if (id == null)
+				vehicles[i] = id = Id.createVehicleId(pool[i]);
+			return id;
+		}
+	}
+
+	/**
+	 * Handler writing all events in blocks.
+	 */
+	private static final class Writer implements BasicEventHandler, Closeable {
+
+		private final DataOutputStream out;
+		private final Object2IntMap<String> index = new Object2IntOpenHashMap<>();
+		private final List<String> pool = new ArrayList<>();
+
+		private final double[] times = new double[BLOCK_SIZE];
+		private final int[] types = new int[BLOCK_SIZE];
+		private final byte[] counts = new byte[BLOCK_SIZE];
+		private int[] keys = new int[BLOCK_SIZE * 4];
+		private int[] values = new int[BLOCK_SIZE * 4];
+
+		private int n;
+		private int m;
+		private long written;
+
+		private Writer(Path path) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 20));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			written = Integer.BYTES * 2;
+		}
+
+		private int intern(String s) {
+			int idx = index.getOrDefault(s, -1);
+			if (idx < 0) {
+				idx = pool.size();
+				index.put(s, idx);
+				pool.add(s);
+			}
+			return idx;
+		}
+
+		@Override
+		public void handleEvent(Event event) {
+
+			Map<String, String> attributes = event.getAttributes();
+
+			times[n] = event.getTime();
+			types[n] = intern(event.getEventType());
+
+			int count = 0;
+			for (Map.Entry<String, String> e : attributes.entrySet()) {
+				if (e.getKey().equals(Event.ATTRIBUTE_TIME) || e.getKey().equals(Event.ATTRIBUTE_TYPE) || e.getValue() == null)
+					continue;
+
+				if (m == keys.length) {
+					keys = Arrays.copyOf(keys, m * 2);
+					values = Arrays.copyOf(values, m * 2);
+				}
+
+				keys[m] = intern(e.getKey());
+				values[m] = intern(e.getValue());
+				m++;
+				count++;
+			}
+
+			if (count > 255)
+				throw new IllegalArgumentException("Too many attributes in event: " + event);
+
+			counts[n++] = (byte) count;
+
+			if (n == BLOCK_SIZE) {
+				try {
+					flush();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		private void flush() throws IOException {
+			if (n == 0)
+				return;
+
+			out.writeInt(n);
+			out.writeInt(m);
+			for (int i = 0; i < n; i++) {
+				out.writeDouble(times[i]);
+			}
+			for (int i = 0; i < n; i++) {
+				out.writeInt(types[i]);
+			}
+			out.write(counts, 0, n);
+			for (int i = 0; i < m; i++) {
+				out.writeInt(keys[i]);
+			}
+			for (int i = 0; i < m; i++) {
+				out.writeInt(values[i]);
+			}
+
+			written += Integer.BYTES * 2 + (long) n * (Double.BYTES + Integer.BYTES + 1) + (long) m * Integer.BYTES * 2;
+			n = 0;
+			m = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+
+			long poolStart = written;
+			out.writeInt(pool.size());
+			for (String s : pool) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeLong(poolStart);
+			out.close();
+
+			log.info("Wrote {} distinct strings", pool.size());
+		}
+	}
+}
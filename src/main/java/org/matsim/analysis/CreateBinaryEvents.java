@@ -0,0 +1,39 @@
+package org.matsim.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.application.MATSimAppCommand;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+@CommandLine.Command(
+	name = "binary-events",
+	description = "Convert an events file to the binary format, which is used by analyses reading the same events repeatedly."
+)
+public class CreateBinaryEvents implements MATSimAppCommand {
+
+	private static final Logger log = LogManager.getLogger(CreateBinaryEvents.class);
+
+	@CommandLine.Option(names = "--events", description = "Path to input events", required = true)
+	private String events;
+
+	@CommandLine.Option(names = "--output", description = "Path to output file, defaults to the file next to the events")
+	private Path output;
+
+	public static void main(String[] args) {
+		new CreateBinaryEvents().execute(args);
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		Path out = output != null ? output : BinaryEvents.getCachePath(events);
+
+		BinaryEvents.convert(events, out);
+
+		log.info("Written binary events to {}", out);
+
+		return 0;
+	}
+}
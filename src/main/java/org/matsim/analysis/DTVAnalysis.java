@@ -21,6 +21,7 @@ import tech.tablesaw.io.csv.CsvReadOptions;
 import tech.tablesaw.selection.Selection;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.*;
 
 import static tech.tablesaw.aggregate.AggregateFunctions.count;
@@ -54,21 +55,16 @@ public class DTVAnalysis implements MATSimAppCommand {
 	@Override
 	public Integer call() throws Exception {
 
-		Table dtv;
-		try (BufferedReader reader = IOUtils.getBufferedReader(dtvPath)) {
-			dtv = Table.read().csv(CsvReadOptions.builder(reader)
-				.columnTypesPartial(Map.of("from_link", ColumnType.TEXT, "to_link", ColumnType.TEXT))
-				.build());
-		}
+		Table dtv = readDtv(dtvPath);
 
 		Network network = input.getNetwork();
 
-		//reading events file & create volumes
-		EventsManager eventsManager = EventsUtils.createEventsManager();
-		VolumesAnalyzer volume = new VolumesAnalyzer(3600, 86400, network, true);
+		//reading events file & create volumes, events are handled on a separate thread while parsing
+		EventsManager eventsManager = EventsUtils.createParallelEventsManager();
+		LinkVolumeCounter volume = new LinkVolumeCounter(getLinks(dtv));
 		eventsManager.addHandler(volume);
 		eventsManager.initProcessing();
-		EventsUtils.readEvents(eventsManager, input.getEventsPath());
+		BinaryEvents.readEvents(eventsManager, input.getEventsPath());
 		eventsManager.finishProcessing();
 
 		Table sim = createSimDtvTable(dtv, network, volume);
@@ -104,7 +100,29 @@ public class DTVAnalysis implements MATSimAppCommand {
 		return 0;
 	}
 
-	private Table createSimDtvTable(Table dtv, Network network, VolumesAnalyzer volume) {
+	private static Table readDtv(String dtvPath) throws IOException {
+		try (BufferedReader reader = IOUtils.getBufferedReader(dtvPath)) {
+			return Table.read().csv(CsvReadOptions.builder(reader)
+				.columnTypesPartial(Map.of("from_link", ColumnType.TEXT, "to_link", ColumnType.TEXT))
+				.build());
+		}
+	}
+
+	/**
+	 * Only links present in the dtv data are counted.
+	 */
+	private static Set<Id<Link>> getLinks(Table dtv) {
+		Set<Id<Link>> links = new HashSet<>();
+		for (String column : List.of("from_link", "to_link")) {
+			for (String link : dtv.textColumn(column)) {
+				if (link != null && !link.isBlank())
+					links.add(Id.createLinkId(link));
+			}
+		}
+		return links;
+	}
+
+	private Table createSimDtvTable(Table dtv, Network network, LinkVolumeCounter volume) {
 
 		dtv.addColumns(
 			TextColumn.create("link_id"),
@@ -124,12 +142,12 @@ public class DTVAnalysis implements MATSimAppCommand {
 			double volCar = 0;
 			if (fromLink != null && !fromLink.isBlank()) {
 				linkId = Id.createLinkId(fromLink);
-				volCar = sum(volume.getVolumesForLink(linkId, TransportMode.car)) / sample.getSample();
+				volCar = volume.getVolume(linkId, TransportMode.car) / sample.getSample();
 			}
 
 			if (toLink != null && !toLink.isBlank()) {
 				linkId = Id.createLinkId(toLink);
-				volCar += sum(volume.getVolumesForLink(linkId, TransportMode.car)) / sample.getSample();
+				volCar += volume.getVolume(linkId, TransportMode.car) / sample.getSample();
 			}
 
 			row.setText("link_id", linkId.toString());
@@ -150,8 +168,4 @@ public class DTVAnalysis implements MATSimAppCommand {
 
 		return dtv;
 	}
-
-	private static double sum(int[] volumes) {
-		return volumes == null ? 0 : Arrays.stream(volumes).sum();
-	}
 }
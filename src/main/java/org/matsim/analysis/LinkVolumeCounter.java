@@ -0,0 +1,106 @@
+package org.matsim.analysis;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Counts daily link volumes by network mode, but only for a fixed set of links.
+ * Links are resolved once to dense indices, all volumes are stored in one array.
+ * Equivalent to the summed volumes of {@link VolumesAnalyzer} with observed modes.
+ */
+final class LinkVolumeCounter implements LinkEnterEventHandler, VehicleEntersTrafficEventHandler {
+
+	/**
+	 * Dense index of each link, by {@link Id#index()}, -1 if not observed.
+	 */
+	private final int[] linkIndex;
+	private final int numLinks;
+
+	private final Object2IntMap<String> modes = new Object2IntOpenHashMap<>();
+
+	/**
+	 * Current mode of each vehicle by {@link Id#index()}, shifted by one, 0 if unknown.
+	 */
+	private int[] vehicleModes = new int[1024];
+
+	/**
+	 * Volumes indexed by mode * numLinks + link.
+	 */
+	private int[] volumes = new int[0];
+
+	LinkVolumeCounter(Collection<Id<Link>> links) {
+
+		int max = links.stream().mapToInt(Id::index).max().orElse(-1);
+		linkIndex = new int[max + 1];
+		Arrays.fill(linkIndex, -1);
+
+		int n = 0;
+		for (Id<Link> link : links) {
+			if (linkIndex[link.index()] < 0)
+				linkIndex[link.index()] = n++;
+		}
+
+		numLinks = n;
+		modes.defaultReturnValue(-1);
+	}
+
+	@Override
+	public void handleEvent(VehicleEntersTrafficEvent event) {
+
+		int mode = modes.getInt(event.getNetworkMode());
+		if (mode < 0) {
+			mode = modes.size();
+			modes.put(event.getNetworkMode(), mode);
+			volumes = Arrays.copyOf(volumes, modes.size() * numLinks);
+		}
+
+		int v = event.getVehicleId().index();
+		if (v >= vehicleModes.length)
+			vehicleModes = Arrays.copyOf(vehicleModes, Math.max(v + 1, vehicleModes.length * 2));
+
+		vehicleModes[v] = mode + 1;
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+
+		int l = event.getLinkId().index();
+		if (l >= linkIndex.length || linkIndex[l] < 0)
+			return;
+
+		int v = event.getVehicleId().index();
+		if (v >= vehicleModes.length || vehicleModes[v] == 0)
+			return;
+
+		volumes[(vehicleModes[v] - 1) * numLinks + linkIndex[l]]++;
+	}
+
+	/**
+	 * Daily volume of one link and mode. Links that have not been observed have a volume of 0.
+	 */
+	int getVolume(Id<Link> link, String mode) {
+
+		int m = modes.getInt(mode);
+		int l = link.index();
+		if (m < 0 || l >= linkIndex.length || linkIndex[l] < 0)
+			return 0;
+
+		return volumes[m * numLinks + linkIndex[l]];
+	}
+
+	@Override
+	public void reset(int iteration) {
+		modes.clear();
+		vehicleModes = new int[1024];
+		volumes = new int[0];
+	}
+}
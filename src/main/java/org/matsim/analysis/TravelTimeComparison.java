@@ -1,5 +1,9 @@
 package org.matsim.analysis;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
@@ -10,9 +14,11 @@ import org.matsim.application.options.InputOptions;
 import org.matsim.application.options.OutputOptions;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.events.EventsUtils;
-import org.matsim.core.router.DijkstraFactory;
 import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
-import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.speedy.SpeedyGraphBuilder;
+import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
@@ -20,14 +26,17 @@ import org.matsim.core.utils.io.IOUtils;
 import picocli.CommandLine;
 import tech.tablesaw.api.ColumnType;
 import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.Row;
 import tech.tablesaw.api.Table;
 import tech.tablesaw.columns.Column;
 import tech.tablesaw.io.csv.CsvReadOptions;
 
 import java.io.BufferedReader;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static tech.tablesaw.aggregate.AggregateFunctions.mean;
 
@@ -52,6 +61,9 @@ public class TravelTimeComparison implements MATSimAppCommand {
 	@CommandLine.Option(names = "--input-ref", description = "File with reference data", required = true)
 	private String apiFile;
 
+	@CommandLine.Option(names = "--threads", description = "Number of threads for routing")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	public static void main(String[] args) {
 		new TravelTimeComparison().execute(args);
 	}
@@ -71,30 +83,36 @@ public class TravelTimeComparison implements MATSimAppCommand {
 		TravelTime tt = collectTravelTimes(network).getLinkTravelTimes();
 		TravelTime fs = new FreeSpeedTravelTime();
 
-		OnlyTimeDependentTravelDisutility util = new OnlyTimeDependentTravelDisutility(tt);
-
-		LeastCostPathCalculator congestedRouter = new DijkstraFactory(false).createPathCalculator(network, util, tt);
-		LeastCostPathCalculator freeflowRouter = new DijkstraFactory(false).createPathCalculator(network, new OnlyTimeDependentTravelDisutility(fs), fs);
-
-		data.addColumns(
-			DoubleColumn.create("simulated", data.rowCount()),
-			DoubleColumn.create("free_flow", data.rowCount())
-		);
+		SpeedyGraph graph = SpeedyGraphBuilder.build(network);
 
-		for (Row row : data) {
-			LeastCostPathCalculator.Path congested = computePath(network, congestedRouter, row);
-			double dist = congested.links.stream().mapToDouble(Link::getLength).sum();
-			double speed = 3.6 * dist / congested.travelTime;
+		int n = data.rowCount();
+		int[] from = new int[n];
+		int[] to = new int[n];
+		double[] departure = new double[n];
 
-			row.setDouble("simulated", speed);
+		for (int i = 0; i < n; i++) {
+			from[i] = nodeIndex(network, data.stringColumn("from_node").get(i));
+			to[i] = nodeIndex(network, data.stringColumn("to_node").get(i));
+			departure[i] = data.intColumn("hour").getInt(i) * 3600;
+		}
 
-			LeastCostPathCalculator.Path freeflow = computePath(network, freeflowRouter, row);
-			dist = freeflow.links.stream().mapToDouble(Link::getLength).sum();
-			speed = 3.6 * dist / freeflow.travelTime;
+		double[] simulated = new double[n];
+		double[] freeFlow = new double[n];
 
-			row.setDouble("free_flow", speed);
+		// Congested paths depend on the departure, free speed paths only on the origin
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			route(executor, graph, tt, group(from, departure, true), to, departure, simulated);
+			route(executor, graph, fs, group(from, departure, false), to, departure, freeFlow);
+		} finally {
+			executor.shutdown();
 		}
 
+		data.addColumns(
+			DoubleColumn.create("simulated", simulated),
+			DoubleColumn.create("free_flow", freeFlow)
+		);
+
 		data.addColumns(
 			data.doubleColumn("simulated").subtract(data.doubleColumn("mean")).setName("bias")
 		);
@@ -118,30 +136,133 @@ public class TravelTimeComparison implements MATSimAppCommand {
 		return 0;
 	}
 
-	private LeastCostPathCalculator.Path computePath(Network network, LeastCostPathCalculator router, Row row) {
-		Node fromNode = network.getNodes().get(Id.createNodeId(row.getString("from_node")));
-		Node toNode = network.getNodes().get(Id.createNodeId(row.getString("to_node")));
+	private static int nodeIndex(Network network, String id) {
+		Id<Node> nodeId = Id.createNodeId(id);
+		if (!network.getNodes().containsKey(nodeId))
+			throw new IllegalArgumentException("Node " + id + " is not in the network.");
+
+		return nodeId.index();
+	}
+
+	/**
+	 * Group rows by origin node and, if needed, by departure time.
+	 */
+	private static List<Group> group(int[] from, double[] departure, boolean byDeparture) {
+
+		Map<Origin, IntList> groups = new LinkedHashMap<>();
+		for (int i = 0; i < from.length; i++) {
+			groups.computeIfAbsent(new Origin(from[i], byDeparture ? departure[i] : 0), k -> new IntArrayList()).add(i);
+		}
+
+		return groups.entrySet().stream()
+			.map(e -> new Group(e.getKey(), e.getValue()))
+			.toList();
+	}
+
+	/**
+	 * Compute one least cost path tree per group, which is stopped as soon as all destinations of the group are reached.
+	 * Travel time and distance are then computed along the path of each row, in the same way as for a one-to-one Dijkstra path.
+	 * Among several paths with the same cost, the tree may settle on a different one than the Dijkstra. The resulting speed is the same
+	 * as long as these paths also have the same length.
+	 *
+	 * @param result speed in km/h for each row
+	 */
+	private void route(ExecutorService executor, SpeedyGraph graph, TravelTime tt, List<Group> groups,
+					   int[] to, double[] departure, double[] result) throws InterruptedException, ExecutionException {
+
+		TravelDisutility disutility = new OnlyTimeDependentTravelDisutility(tt);
+		AtomicInteger next = new AtomicInteger();
+
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < Math.max(1, threads); t++) {
+			futures.add(executor.submit(() -> {
+
+				LeastCostPathTree tree = new LeastCostPathTree(graph, tt, disutility);
+				IntSet targets = new IntOpenHashSet();
+				List<Link> path = new ArrayList<>();
+
+				int g;
+				while ((g = next.getAndIncrement()) < groups.size()) {
+					Group group = groups.get(g);
+
+					targets.clear();
+					for (int i = 0; i < group.rows.size(); i++) {
+						targets.add(to[group.rows.getInt(i)]);
+					}
+
+					int[] remaining = {targets.size()};
+					tree.calculate(group.origin.node, group.origin.departure, null, null,
+						(node, arrival, cost, distance, time) -> targets.contains(node) && --remaining[0] == 0);
+
+					for (int i = 0; i < group.rows.size(); i++) {
+						int row = group.rows.getInt(i);
+
+						if (tree.getTime(to[row]).isUndefined()) {
+							result[row] = Double.NaN;
+							continue;
+						}
+
+						path.clear();
+						for (int node = to[row]; node != group.origin.node; node = tree.getComingFrom(node)) {
+							path.add(graph.getLink(tree.getFromLink(node)));
+						}
+
+						Collections.reverse(path);
+
+						double time = departure[row];
+						for (Link link : path) {
+							time += tt.getLinkTravelTime(link, time, null, null);
+						}
+
+						double dist = path.stream().mapToDouble(Link::getLength).sum();
+						result[row] = 3.6 * dist / (time - departure[row]);
+					}
+				}
+
+				return null;
+			}));
+		}
 
-		return router.calcLeastCostPath(fromNode, toNode, row.getInt("hour") * 3600, null, null);
+		for (Future<?> f : futures) {
+			f.get();
+		}
 	}
 
 	private TravelTimeCalculator collectTravelTimes(Network network) {
+
+		TravelTimeCalculator calculator = createTravelTimeCalculator(network);
+
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(calculator);
+		manager.initProcessing();
+		BinaryEvents.readEvents(manager, input.getEventsPath());
+		manager.finishProcessing();
+
+		return calculator;
+	}
+
+	/**
+	 * Create the travel time handler, which needs to process the events.
+	 */
+	static TravelTimeCalculator createTravelTimeCalculator(Network network) {
 		TravelTimeCalculator.Builder builder = new TravelTimeCalculator.Builder(network);
 		builder.setCalculateLinkTravelTimes(true);
 		builder.setMaxTime(86400);
 		builder.setTimeslice(900);
 
-		TravelTimeCalculator travelTimes = builder.build();
-
-		EventsManager manager = EventsUtils.createEventsManager();
-
-		manager.addHandler(travelTimes);
+		return builder.build();
+	}
 
-		manager.initProcessing();
-		EventsUtils.readEvents(manager, input.getEventsPath());
-		manager.finishProcessing();
+	/**
+	 * Origin node and departure time of a search.
+	 */
+	private record Origin(int node, double departure) {
+	}
 
-		return travelTimes;
+	/**
+	 * Rows with the same origin.
+	 */
+	private record Group(Origin origin, IntList rows) {
 	}
 
 }
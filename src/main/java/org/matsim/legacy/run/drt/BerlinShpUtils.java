@@ -49,12 +49,19 @@ import org.matsim.core.utils.gis.ShapeFileReader;
 @Deprecated
 public final class BerlinShpUtils {
 
+	/**
+	 * Number of grid cells per axis of the service area index.
+	 */
+	private static final int RESOLUTION = 256;
+
 	private Map<Integer, Geometry> serviceAreaGeometries;
-	private Map<Double, Map<Integer, Geometry>> serviceAreaGeometriesWithBuffer = new HashMap<>();
+	private ServiceAreaIndex serviceArea;
+	private Map<Double, ServiceAreaIndex> serviceAreaWithBuffer = new HashMap<>();
 
 	public BerlinShpUtils(String drtServiceAreaShapeFile) {
 		if (drtServiceAreaShapeFile != null && drtServiceAreaShapeFile != "" && drtServiceAreaShapeFile != "null" ) {
 			this.serviceAreaGeometries = loadShapeFile(drtServiceAreaShapeFile);
+			this.serviceArea = new ServiceAreaIndex(serviceAreaGeometries.values(), RESOLUTION);
 		}
 	}
 
@@ -81,34 +88,23 @@ public final class BerlinShpUtils {
 	}
 
 	public boolean isCoordInDrtServiceArea(Coord coord) {
-		return isCoordInArea(coord, serviceAreaGeometries);
+		return serviceArea.contains(coord.getX(), coord.getY());
 	}
 
+	/**
+	 * Check if a coordinate is within the service area extended by a buffer. The index for each buffer distance is created only once.
+	 */
 	public boolean isCoordInDrtServiceAreaWithBuffer(Coord coord, double buffer) {
-		if (!serviceAreaGeometriesWithBuffer.containsKey(buffer)) {
-			serviceAreaGeometriesWithBuffer.put(buffer, prepareAndSaveGeometriesWithBuffer(serviceAreaGeometries, buffer));
-		}
-		return isCoordInArea(coord, serviceAreaGeometriesWithBuffer.get(buffer));
+		return serviceAreaWithBuffer.computeIfAbsent(buffer, b -> prepareGeometriesWithBuffer(serviceAreaGeometries, b))
+			.contains(coord.getX(), coord.getY());
 	}
 
-	private Map<Integer, Geometry> prepareAndSaveGeometriesWithBuffer(Map<Integer, Geometry> geometries, double buffer) {
-		Map<Integer, Geometry> geometriesWithBuffer = new HashMap<>();
-		for (Map.Entry<Integer, Geometry> entry: geometries.entrySet()) {
-			geometriesWithBuffer.put(entry.getKey(), entry.getValue().buffer(buffer));
-		}
-		return geometriesWithBuffer;
-	}
-
-	private boolean isCoordInArea(Coord coord, Map<Integer, Geometry> areaGeometries) {
-		boolean coordInArea = false;
-		for (Geometry geometry : areaGeometries.values()) {
-			Point p = MGC.coord2Point(coord);
-
-			if (p.within(geometry)) {
-				coordInArea = true;
-			}
+	private ServiceAreaIndex prepareGeometriesWithBuffer(Map<Integer, Geometry> geometries, double buffer) {
+		List<Geometry> geometriesWithBuffer = new ArrayList<>();
+		for (Geometry geometry : geometries.values()) {
+			geometriesWithBuffer.add(geometry.buffer(buffer));
 		}
-		return coordInArea;
+		return new ServiceAreaIndex(geometriesWithBuffer, RESOLUTION);
 	}
 
 	static Collection<SimpleFeature> getAllFeatures(final URL url) {
@@ -0,0 +1,121 @@
+package org.matsim.legacy.run.drt;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Point in polygon index for several areas. Areas are prepared once and stored in an STR tree.
+ * Their common envelope is divided into a grid, cells are classified as inside, outside or boundary,
+ * so that only points in boundary cells need to be tested against the candidate areas.
+ * A point is contained if it lies within the interior of any area, the same as {@link Geometry#within(Geometry)}.
+ */
+final class ServiceAreaIndex {
+
+	private static final byte OUTSIDE = 0;
+	private static final byte INSIDE = 1;
+	private static final byte BOUNDARY = 2;
+
+	private final STRtree tree = new STRtree();
+	private final GeometryFactory factory = new GeometryFactory();
+
+	private final double minX;
+	private final double minY;
+	private final double cellWidth;
+	private final double cellHeight;
+	private final int resolution;
+	private final byte[] cells;
+
+	/**
+	 * Create index.
+	 *
+	 * @param resolution number of grid cells per axis
+	 */
+	ServiceAreaIndex(Collection<Geometry> geometries, int resolution) {
+
+		Envelope env = new Envelope();
+		for (Geometry g : geometries) {
+			tree.insert(g.getEnvelopeInternal(), PreparedGeometryFactory.prepare(g));
+			env.expandToInclude(g.getEnvelopeInternal());
+		}
+
+		tree.build();
+
+		this.resolution = resolution;
+		this.minX = env.isNull() ? 0 : env.getMinX();
+		this.minY = env.isNull() ? 0 : env.getMinY();
+		this.cellWidth = Math.max(env.getWidth(), 1e-9) / resolution;
+		this.cellHeight = Math.max(env.getHeight(), 1e-9) / resolution;
+		this.cells = new byte[resolution * resolution];
+
+		if (env.isNull())
+			return;
+
+		for (int iy = 0; iy < resolution; iy++) {
+			for (int ix = 0; ix < resolution; ix++) {
+				Envelope cell = new Envelope(minX + ix * cellWidth, minX + (ix + 1) * cellWidth,
+					minY + iy * cellHeight, minY + (iy + 1) * cellHeight);
+
+				cells[iy * resolution + ix] = classify(cell);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private byte classify(Envelope cell) {
+
+		Geometry g = factory.toGeometry(cell);
+
+		byte result = OUTSIDE;
+		for (PreparedGeometry area : (List<PreparedGeometry>) tree.query(cell)) {
+			// Points on the border of an area are not within it, so the cell must not touch the border
+			if (area.containsProperly(g))
+				return INSIDE;
+
+			if (area.intersects(g))
+				result = BOUNDARY;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Check if a point lies within any of the areas.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean contains(double x, double y) {
+
+		int ix = (int) Math.floor((x - minX) / cellWidth);
+		int iy = (int) Math.floor((y - minY) / cellHeight);
+
+		// Points on the upper border of the envelope
+		if (ix == resolution)
+			ix--;
+		if (iy == resolution)
+			iy--;
+
+		if (ix < 0 || iy < 0 || ix >= resolution || iy >= resolution)
+			return false;
+
+		byte cell = cells[iy * resolution + ix];
+		if (cell != BOUNDARY)
+			return cell == INSIDE;
+
+		Coordinate c = new Coordinate(x, y);
+		Point p = factory.createPoint(c);
+		for (PreparedGeometry area : (List<PreparedGeometry>) tree.query(new Envelope(c))) {
+			if (area.contains(p))
+				return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,201 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+import java.util.*;
+
+/**
+ * Detects convergence of a group of metrics. The slope of each metric is fitted by least squares over a window of the most recent
+ * iterations, see {@link DynamicShutdownConfigGroup#getSlopeWindowPolicy()}. Both ends of the window only move forward, so the sums
+ * of the regression are updated when values enter and leave the window instead of being recomputed from the whole history.
+ * A metric converges when its slope stays within the threshold for {@link DynamicShutdownConfigGroup#getIterationsInZoneToConverge()} iterations.
+ */
+final class ConvergenceMetrics {
+
+    private final DynamicShutdownConfigGroup cfg;
+    private final double threshold;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    ConvergenceMetrics(DynamicShutdownConfigGroup cfg, double threshold, Collection<String> names) {
+        this.cfg = cfg;
+        this.threshold = threshold;
+        for (String name : names) {
+            metrics.put(name, new Metric());
+        }
+    }
+
+    /**
+     * Metrics of this group.
+     */
+    Set<String> getNames() {
+        return metrics.keySet();
+    }
+
+    /**
+     * Add the value of one metric. Values need to be added for consecutive iterations, values for known iterations are ignored.
+     */
+    void add(String metric, int iteration, double value) {
+        Metric m = metrics.get(metric);
+        if (m != null)
+            m.values.add(iteration, value);
+    }
+
+    /**
+     * Update the slope and convergence of all metrics for the last added iteration.
+     *
+     * @return whether all metrics have converged
+     */
+    boolean update(int iteration) {
+
+        boolean converged = !metrics.isEmpty();
+        for (Metric m : metrics.values()) {
+
+            int startIteration = iteration - cfg.getMinimumWindowSize() + 1; // fixed window
+            int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * iteration + 1); // expanding window
+
+            if (cfg.getSlopeWindowPolicy() == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING && startIterationExpanding < startIteration) {
+                startIteration = startIterationExpanding;
+            }
+
+            m.moveWindow(startIteration);
+
+            double slope = m.slope();
+            m.slopes.add(iteration, slope);
+
+            if (slope > -1 * threshold && slope < threshold)
+                m.inZone++;
+            else
+                m.inZone = 0;
+
+            if (m.inZone < cfg.getIterationsInZoneToConverge())
+                converged = false;
+        }
+
+        return converged;
+    }
+
+    /**
+     * Slope of the last update.
+     */
+    double getSlope(String metric) {
+        Series slopes = metrics.get(metric).slopes;
+        return slopes.size == 0 ? Double.NaN : slopes.values[slopes.size - 1];
+    }
+
+    /**
+     * Number of consecutive iterations with a slope within the threshold.
+     */
+    int getIterationsInZone(String metric) {
+        return metrics.get(metric).inZone;
+    }
+
+    /**
+     * Copy of all values of a metric.
+     */
+    Series getHistory(String metric) {
+        return metrics.get(metric).values.copy();
+    }
+
+    /**
+     * Copy of all slopes of a metric.
+     */
+    Series getSlopes(String metric) {
+        return metrics.get(metric).slopes.copy();
+    }
+
+    /**
+     * Values of consecutive iterations.
+     */
+    static final class Series {
+
+        private int first = -1;
+        private double[] values;
+        private int size;
+
+        private Series(double[] values) {
+            this.values = values;
+        }
+
+        private void add(int iteration, double value) {
+            if (first < 0)
+                first = iteration;
+
+            int idx = iteration - first;
+            if (idx < size)
+                return;
+
+            if (idx > size)
+                throw new IllegalArgumentException("Missing values before iteration " + iteration);
+
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+
+            values[size++] = value;
+        }
+
+        private Series copy() {
+            Series copy = new Series(Arrays.copyOf(values, size));
+            copy.first = first;
+            copy.size = size;
+            return copy;
+        }
+
+        /**
+         * Values by iteration.
+         */
+        Map<Integer, Double> toMap() {
+            Map<Integer, Double> map = new TreeMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(first + i, values[i]);
+            }
+            return map;
+        }
+    }
+
+    private static final class Metric {
+
+        private final Series values = new Series(new double[64]);
+        private final Series slopes = new Series(new double[64]);
+
+        /**
+         * Index of the first value within the window and of the next value to enter it.
+         */
+        private int start;
+        private int end;
+
+        /**
+         * Regression sums over the window, x is relative to the first iteration.
+         */
+        private double sumX;
+        private double sumY;
+        private double sumXX;
+        private double sumXY;
+
+        private int inZone;
+
+        private void moveWindow(int startIteration) {
+
+            for (; end < values.size; end++) {
+                double y = values.values[end];
+                sumX += end;
+                sumY += y;
+                sumXX += (double) end * end;
+                sumXY += end * y;
+            }
+
+            for (int idx = startIteration - values.first; start < idx && start < end; start++) {
+                double y = values.values[start];
+                sumX -= start;
+                sumY -= y;
+                sumXX -= (double) start * start;
+                sumXY -= start * y;
+            }
+        }
+
+        /**
+         * Least squares slope of the window, NaN if there are less than two values.
+         */
+        private double slope() {
+            int n = end - start;
+            return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+        }
+    }
+}
@@ -20,6 +20,7 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private static final String EXPANDING_WINDOW_PCT_RETENTION = "expandingWindowPctRetention";
     private static final String ITERATIONS_IN_ZONE_TO_CONVERGE = "iterationsInZoneToConverge";
     private static final String MIN_ITERATIONS_FOR_GRAPHS = "minIterationForGraphs";
+    private static final String CREATE_GRAPHS = "createGraphs";
 
     private static final String SCORE_POLICY_CHOSEN = "scorePolicyChosen";
     private static final String MODE_POLICY_CHOSEN = "modePolicyChosen";
@@ -47,6 +48,7 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     private double expandingWindowPctRetention = 0.25;
     private int iterationsInZoneToConverge = 50;
     private int minIterationForGraphics = 50;
+    private boolean createGraphs = true;
     private scorePolicyOptions scorePolicyChosen = scorePolicyOptions.ON_EXECUTED_ONLY;
     private double scoreThreshold  = 0.001;
     private modePolicyOptions modePolicyChosen  = modePolicyOptions.ON_FULL;
@@ -121,6 +123,14 @@ public class DynamicShutdownConfigGroup extends ReflectiveConfigGroup {
     public void setMinIterationForGraphics(final int minIterationForGraphics) {
         this.minIterationForGraphics = minIterationForGraphics;
     }
+    @StringGetter(CREATE_GRAPHS)
+    public boolean isCreateGraphs() {
+        return createGraphs;
+    }
+    @StringSetter(CREATE_GRAPHS)
+    public void setCreateGraphs(final boolean createGraphs) {
+        this.createGraphs = createGraphs;
+    }
     @StringGetter(SCORE_POLICY_CHOSEN)
     public scorePolicyOptions getScorePolicyChosen() {
         return scorePolicyChosen;
@@ -29,6 +29,10 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Initiats dynamic shutdown when a when the MATSim run has stabilized: 1) Turns off innovation in next iteration and
@@ -64,18 +68,20 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
     private boolean dynamicShutdownInitiated;
     private int dynamicInnovationDisableIteration;
 
-    private static final Map<String, Map<Integer,Double>> slopesScore = new HashMap<>();
-    private static final Map<String, Map<Integer,Double>> slopesMode = new HashMap<>();
-    private static final Map<String, Map<Integer,Double>> slopesModeChoiceCoverage = new HashMap<>();
-
-    private static final Map<String, Map<Integer,Integer>> convergenceScore = new HashMap<>();
-    private static final Map<String, Map<Integer,Integer>> convergenceMode = new HashMap<>();
-    private static final Map<String, Map<Integer,Integer>> convergenceModeCC = new HashMap<>();
-
     private List<String> activeMetricsScore = new ArrayList<>();
     private List<String> activeMetricsMode = new ArrayList<>();
     private List<String> activeMetricsModeCC = new ArrayList<>();
 
+    private ConvergenceMetrics convergenceScore;
+    private ConvergenceMetrics convergenceMode;
+    private ConvergenceMetrics convergenceModeCC;
+
+    /**
+     * Renders graphs in the background, created on first use.
+     */
+    private ExecutorService graphExecutor;
+    private final Map<String, Future<?>> pendingGraphs = new HashMap<>();
+
     @Inject
     DynamicShutdownControlerListenerImpl(ControllerConfigGroup controlerConfigGroup, ScoreStats scoreStats,
                                          ModeStatsControlerListener modeStatsControlerListener, StrategyManager strategyManager,
@@ -120,6 +126,10 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
         generateMetricLists(scoreConfig);
 
+        convergenceScore = new ConvergenceMetrics(cfg, cfg.getScoreThreshold(), activeMetricsScore);
+        convergenceMode = new ConvergenceMetrics(cfg, cfg.getModeThreshold(), activeMetricsMode);
+        convergenceModeCC = new ConvergenceMetrics(cfg, cfg.getModeChoiceCoverageThreshold(), activeMetricsModeCC);
+
         try {
             this.slopesOut.write("Iteration");
 
@@ -155,6 +165,8 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
             return;
         }
 
+        addValues(prevIteration);
+
         if (iteration < cfg.getIterationToStartFindingSlopes()) {
             return;
         }
@@ -167,48 +179,19 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
         boolean scoreConverged = false;
         if (!activeMetricsScore.isEmpty()) {
-            String metricType = "score";
-            Map<ScoreItem, Map<Integer, Double>> scoreHistory = scoreStats.getScoreHistory();
-            Map<String, Map<Integer, Double>> scoreHistoryMod = new HashMap<>();
-            for (ScoreItem scoreItem : scoreHistory.keySet()) {
-                scoreHistoryMod.put(scoreItem.name(), scoreHistory.get(scoreItem));
-            }
-
-            bestFitLineGeneric(prevIteration, scoreHistoryMod, slopesScore, activeMetricsScore);
-            produceDynShutdownGraphs(scoreHistoryMod, slopesScore, metricType, activeMetricsScore, cfg.getScoreThreshold(), iteration);
-
-            scoreConverged = metricTypeConverges(slopesScore, convergenceScore, activeMetricsScore, cfg.getScoreThreshold(), prevIteration);
-
-            writeSlopeAndConvergence(slopesScore, convergenceScore, activeMetricsScore, prevIteration);
-
+            scoreConverged = checkConvergence(convergenceScore, "score", cfg.getScoreThreshold(), iteration);
         }
 
         boolean modeConverged = false;
         if (!activeMetricsMode.isEmpty()) {
-            String metricType = "mode";
 			if (true)
 				throw new RuntimeException(" modeStatsControlerListener.getModeHistories() not implemented anymore.  Check if this is still needed.");
-            Map<String, Map<Integer, Double>> modeHistories =null;
-            bestFitLineGeneric(prevIteration, modeHistories, slopesMode, activeMetricsMode);
-            produceDynShutdownGraphs(modeHistories, slopesMode, metricType, activeMetricsMode, cfg.getModeThreshold(), iteration);
-
-            modeConverged = metricTypeConverges(slopesMode, convergenceMode, activeMetricsMode, cfg.getModeThreshold(), prevIteration);
-
-            writeSlopeAndConvergence(slopesMode, convergenceMode, activeMetricsMode, prevIteration);
+            modeConverged = checkConvergence(convergenceMode, "mode", cfg.getModeThreshold(), iteration);
         }
 
         boolean modeCCConverged = false;
         if (!activeMetricsModeCC.isEmpty()) {
-
-            String metricType = "modeChoiceCoverage";
-            int mCCLimit = 1;
-            Map<String, Map<Integer, Double>> mCCHistory = modeChoiceCoverageControlerListener.getModeChoiceCoverageHistory().get(mCCLimit);
-            bestFitLineGeneric(prevIteration, mCCHistory, slopesModeChoiceCoverage, activeMetricsModeCC);
-            produceDynShutdownGraphs(mCCHistory,slopesModeChoiceCoverage, metricType, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(),iteration);
-
-            modeCCConverged = metricTypeConverges(slopesModeChoiceCoverage, convergenceModeCC, activeMetricsModeCC, cfg.getModeChoiceCoverageThreshold(), prevIteration);
-
-            writeSlopeAndConvergence(slopesModeChoiceCoverage, convergenceModeCC, activeMetricsModeCC, prevIteration);
+            modeCCConverged = checkConvergence(convergenceModeCC, "modeChoiceCoverage", cfg.getModeChoiceCoverageThreshold(), iteration);
         }
 
 
@@ -254,14 +237,42 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
 
     }
 
-    private void writeSlopeAndConvergence(Map<String, Map<Integer, Double>> slopesMap,
-                                          Map<String, Map<Integer, Integer>> convergenceMap,
-                                          List<String> metricsToInclude,int prevIteration) {
+    /**
+     * Add the values of the previous iteration to all metrics, only the newest entry of each history is read.
+     */
+    private void addValues(int prevIteration) {
+
+        Map<ScoreItem, Map<Integer, Double>> scoreHistory = scoreStats.getScoreHistory();
+        for (ScoreItem scoreItem : scoreHistory.keySet()) {
+            Double value = scoreHistory.get(scoreItem).get(prevIteration);
+            if (value != null)
+                convergenceScore.add(scoreItem.name(), prevIteration, value);
+        }
+
+        int mCCLimit = 1;
+        Map<String, Map<Integer, Double>> mCCHistory = modeChoiceCoverageControlerListener.getModeChoiceCoverageHistory().get(mCCLimit);
+        if (mCCHistory != null) {
+            for (String mode : convergenceModeCC.getNames()) {
+                // Modes that have not been used yet have a coverage of zero
+                Map<Integer, Double> history = mCCHistory.get(mode);
+                double value = history != null ? history.getOrDefault(prevIteration, 0.0) : 0.0;
+                convergenceModeCC.add(mode, prevIteration, value);
+            }
+        }
+    }
+
+    private boolean checkConvergence(ConvergenceMetrics metrics, String metricType, double threshold, int iteration) {
+
+        int prevIteration = iteration - 1;
+        boolean converged = metrics.update(prevIteration);
+
+        produceDynShutdownGraphs(metrics, metricType, threshold, iteration);
+
         try{
-            for (String metric : metricsToInclude) {
-                Double slope = slopesMap.get(metric).get(prevIteration);
+            for (String metric : metrics.getNames()) {
+                double slope = metrics.getSlope(metric);
 
-                int convCnt = convergenceMap.get(metric).get(prevIteration);
+                int convCnt = metrics.getIterationsInZone(metric);
                 String convStr;
                 if (convCnt >= cfg.getIterationsInZoneToConverge()) {
                     convStr = "true";
@@ -274,133 +285,60 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
         } catch (IOException e) {
             e.printStackTrace();
         }
-    }
-
-
-    private boolean metricTypeConverges(Map<String, Map<Integer, Double>> slopesMap,
-                                       Map<String, Map<Integer, Integer>> convergenceMap,
-                                       List<String> metricsToInclude,
-                                       double threshold,
-                                       int prevIteration) {
-
-        if (slopesMap.isEmpty()) {
-            return false;
-        }
-
-        for (String metric : metricsToInclude) {
-            Map<Integer,Integer> convergenceCntPerMetric = convergenceMap.computeIfAbsent(metric,  v -> new HashMap<>());
-            Double slope = slopesMap.get(metric).get(prevIteration);
-            if (slope > -1 * threshold && slope < threshold) {
-                int convergenceCountSoFar = convergenceCntPerMetric.getOrDefault(prevIteration - 1, 0);
-                convergenceCntPerMetric.put(prevIteration, convergenceCountSoFar + 1);
-            } else {
-                convergenceCntPerMetric.put(prevIteration, 0);
-            }
-        }
-
 
-        for (String metric : metricsToInclude) {
-            if (convergenceMap.get(metric).get(prevIteration) < cfg.getIterationsInZoneToConverge()) {
-                return false;
-            }
-        }
-        return true;
+        return converged;
     }
 
-    private void bestFitLineGeneric(int prevIteration,
-                                    Map<String, Map<Integer, Double>> history,
-                                    Map<String, Map<Integer, Double>> slopes,
-                                    List<String> metricsToInclude) {
-
-        for (Map.Entry<String, Map<Integer, Double>> entry : history.entrySet()) {
-
-            String metricName = entry.getKey();
-
-            if (!metricsToInclude.isEmpty() &&  !metricsToInclude.contains(metricName)) {
-                continue;
-            }
-
-            double slope = computeLineSlope(entry.getValue());
-
-            Map<Integer,Double> slopesForMetric = slopes.computeIfAbsent(metricName, v -> new HashMap<>());
-            slopesForMetric.put(prevIteration,slope);
-        }
-    }
-
-
-    private double computeLineSlope(Map<Integer,Double> inputMap) {
-
-        int currentIter = Collections.max(inputMap.keySet());
-        int startIteration = currentIter - cfg.getMinimumWindowSize() + 1; // fixed window
-        int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * currentIter + 1); // expanding window
-
-        if (cfg.getSlopeWindowPolicy() == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING && startIterationExpanding < startIteration) {
-            startIteration = startIterationExpanding;
-        }
-
-        ArrayList<Integer> x = new ArrayList<>();
-        ArrayList<Double> y = new ArrayList<>();
+    /**
+     * Graphs are rendered in the background from a copy of the current values. If the previous graphs of a metric type are still
+     * being rendered, the current iteration is skipped.
+     */
+    private void produceDynShutdownGraphs(ConvergenceMetrics metrics,
+                                          String metricType,
+                                          double convergenceThreshold,
+                                          int iteration) {
 
-        for (Integer it : inputMap.keySet()) {
-            if (it >= startIteration) {
-                x.add(it);
-                y.add(inputMap.get(it));
-            }
+        if (!cfg.isCreateGraphs() || iteration <= cfg.getMinIterationForGraphics()) {
+            return;
         }
 
-        if (x.size() != y.size()) {
-            throw new IllegalArgumentException("array lengths are not equal");
+        Future<?> pending = pendingGraphs.get(metricType);
+        if (pending != null && !pending.isDone()) {
+            return;
         }
 
-        int n = x.size();
-        double sumX = 0.0;
-        double sumY = 0.0;
-        for (int i = 0; i < n; i++) {
-            sumX  += x.get(i);
-            sumY  += y.get(i);
+        Map<String, ConvergenceMetrics.Series> history = new LinkedHashMap<>();
+        Map<String, ConvergenceMetrics.Series> slopes = new HashMap<>();
+        for (String metricName : metrics.getNames()) {
+            history.put(metricName, metrics.getHistory(metricName));
+            slopes.put(metricName, metrics.getSlopes(metricName));
         }
-        double xBar = sumX / n;
-        double yBar = sumY / n;
-
-        double xxBar = 0.0;
-        double xyBar = 0.0;
-        for (int i = 0; i < n; i++) {
-            xxBar += (x.get(i) - xBar) * (x.get(i) - xBar);
-            xyBar += (x.get(i) - xBar) * (y.get(i) - yBar);
-        }
-
-        return xyBar / xxBar;
-
-    }
-
-
-    private void produceDynShutdownGraphs(Map<String, Map<Integer, Double>> history,
-                                          Map<String, Map<Integer, Double>> slopes,
-                                          String metricType,
-                                          List<String> metricsToInclude,
-                                          double convergenceThreshold,
-                                          int iteration) {
 
-        if (iteration <= cfg.getMinIterationForGraphics()) {
-            return;
+        if (graphExecutor == null) {
+            graphExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "dynamic-shutdown-graphs");
+                t.setDaemon(true);
+                return t;
+            });
         }
 
+        pendingGraphs.put(metricType, graphExecutor.submit(() -> {
+            for (String metricName : history.keySet()) {
+                try {
+                    XYLineChartDualYAxis chart = new XYLineChartDualYAxis("Convergence of " + metricType + "-" + metricName, "iteration", metricType + " : " + metricName, "slope of " + metricName);
 
-        for (String metricName : metricsToInclude) {
-            try {
-                XYLineChartDualYAxis chart = new XYLineChartDualYAxis("Convergence of " + metricType + "-" + metricName, "iteration", metricType + " : " + metricName, "slope of " + metricName);
-
-                chart.addSeries(metricName, history.get(metricName));
-                chart.addSeries2("slope of " + metricName, slopes.get(metricName));
+                    chart.addSeries(metricName, history.get(metricName).toMap());
+                    chart.addSeries2("slope of " + metricName, slopes.get(metricName).toMap());
 
-                chart.addVerticalRange(-convergenceThreshold, convergenceThreshold);
-                chart.addMatsimLogo();
+                    chart.addVerticalRange(-convergenceThreshold, convergenceThreshold);
+                    chart.addMatsimLogo();
 
-                chart.saveAsPng(outputFileName + metricType + "_" + metricName + ".png", 800, 600);
-            } catch (NullPointerException e) {
-                    log.error("Too early to produce Could not produce Dynamic Shutdown Graphs (probably too early)");
+                    chart.saveAsPng(outputFileName + metricType + "_" + metricName + ".png", 800, 600);
+                } catch (RuntimeException e) {
+                    log.error("Could not produce Dynamic Shutdown Graphs", e);
+                }
             }
-        }
+        }));
     }
 
 
@@ -488,6 +426,16 @@ public class DynamicShutdownControlerListenerImpl implements IterationStartsList
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        if (graphExecutor != null) {
+            graphExecutor.shutdown();
+            try {
+                // Wait for the last graphs to be written
+                graphExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 }
@@ -2,9 +2,6 @@ package org.matsim.legacy.run.dynamicShutdown;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.population.Person;
-import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.config.groups.ControllerConfigGroup;
 import org.matsim.core.config.groups.ScoringConfigGroup;
@@ -17,8 +14,6 @@ import org.matsim.core.controler.listener.ShutdownListener;
 import org.matsim.core.controler.listener.StartupListener;
 import org.matsim.core.router.AnalysisMainModeIdentifier;
 import org.matsim.core.router.MainModeIdentifier;
-import org.matsim.core.router.TripStructureUtils;
-import org.matsim.core.router.TripStructureUtils.Trip;
 import org.matsim.core.utils.charts.XYLineChart;
 import org.matsim.core.utils.io.IOUtils;
 
@@ -53,12 +48,11 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
     private int minIteration = 0;
     private int firstIteration = -1;
 
-    private final Integer[] limits = new Integer[]{1, 5, 10};
+    private final int[] limits = new int[]{1, 5, 10};
 
     private final Map<Integer, Map<String, Map<Integer, Double>>> modeCCHistory = new HashMap<>();
     //            Map<Iter   , Map<Mode  , Map<Limit  , Pct   >>>
-    private final Map<Id<Person>, Map<Integer, Map<String, Integer>>> modesUsedPerPersonTrip = new LinkedHashMap<>();
-    //            Map<Person    , Map<Trip # , Map<Mode  , Count  >>>
+    private final ModeChoiceCoverageTracker modesUsedPerPersonTrip = new ModeChoiceCoverageTracker(limits);
     private static final String FILENAME_MODESTATS = "modeChoiceCoverage";
 
     // Keep all modes encountered so far in a sorted set to ensure output is written for modes sorted by mode.
@@ -95,49 +89,24 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 
         /*
          *  modesUsedPerPersonTrip: for each person-trip, how many times (iterations) was each mode used. The following code adds the
-         * 	mode information from the current iteration to the modesUsedPerPersonTrip.
+         * 	mode information from the current iteration and updates how many person trips have used each mode more than the
+         *  predefined limits.
          */
+        modesUsedPerPersonTrip.update(population.getPersons().values(), mainModeIdentifier);
 
-        updateModesUsedPerPerson();
+        int totalPersonTripCount = modesUsedPerPersonTrip.getNumberOfTrips();
 
+        // potentially adds new modes to set that just showed up in current iter
+        boolean newModes = this.modes.addAll(modesUsedPerPersonTrip.getModes());
 
-        /*
-         *	Looks through modesUsedPerPersonTrip at each person-trip. How many of those person trips have used each mode more than the
-         *  predefined limits.
-         */
-        int totalPersonTripCount = 0;
-        Map<Integer, Map<String, Double>> modeCountCurrentIteration = new TreeMap<>();
-        //Map<Limit, Map<Mode  , TotalTripCount >>
-
-        for (Map<Integer, Map<String, Integer>> mapForPerson : modesUsedPerPersonTrip.values()) {
-            //Map<Trip # , Map<Mode  , Count  >>
-            for (Map<String, Integer> mapForPersonTrip : mapForPerson.values()) {
-                //Map<Mode  , Count >
-                totalPersonTripCount++;
-                for (String mode : mapForPersonTrip.keySet()) {
-                    Integer realCount = mapForPersonTrip.get(mode);
-                    for (Integer limit : limits) {
-                        Map<String, Double> modeCountMap = modeCountCurrentIteration.computeIfAbsent(limit, k -> new TreeMap<>());
-                        Double modeCount = modeCountMap.computeIfAbsent(mode, k -> 0.);
-                        if (realCount >= limit) {
-                            modeCount++;
-                        }
-                        modeCountMap.put(mode, modeCount);
-                        modeCountCurrentIteration.put(limit, modeCountMap);
-                    }
-                }
-            }
-        }
         // Calculates mcc share for each mode in current iteration, and updates modeCCHistory accordingly
-        for (Integer limit : limits) {
-            Map<String, Double> modeCnt = modeCountCurrentIteration.get(limit);
-            this.modes.addAll(modeCnt.keySet()); // potentially adds new modes to setthat just showed up in current iter
+        for (int l = 0; l < limits.length; l++) {
+            int limit = limits[l];
             Map<String, Map<Integer, Double>> modeIterationShareMap = modeCCHistory.computeIfAbsent(limit, k -> new HashMap<>());
             for (String mode : modes) {
-                Double cnt = modeCnt.get(mode);
                 double share = 0.;
-                if (cnt != null) {
-                    share = cnt / totalPersonTripCount;
+                if (totalPersonTripCount > 0) {
+                    share = (double) modesUsedPerPersonTrip.getCount(l, mode) / totalPersonTripCount;
                 }
 
                 log.info("-- mode choice coverage (" + limit + "x) of mode " + mode + " = " + share);
@@ -158,18 +127,29 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
         }
 
 
-        // Print MCC Stats to output file
-        for (Integer limit : limits) {
+        // Print MCC Stats to output file, the whole history is only written again if new modes appear
+        for (int limit : limits) {
             Map<String, Map<Integer, Double>> modeIterationShareMap = modeCCHistory.get(limit);
 
-            BufferedWriter modeOut = IOUtils.getBufferedWriter(this.modeFileName + limit + "x.txt");
             try {
-                modeOut.write("Iteration");
-                for (String mode : modes) {
-                    modeOut.write("\t" + mode);
+                BufferedWriter modeOut = modeOutMap.get(limit);
+                int fromIteration = event.getIteration();
+                if (modeOut == null || newModes) {
+                    if (modeOut != null)
+                        modeOut.close();
+
+                    modeOut = IOUtils.getBufferedWriter(this.modeFileName + limit + "x.txt");
+                    modeOutMap.put(limit, modeOut);
+
+                    modeOut.write("Iteration");
+                    for (String mode : modes) {
+                        modeOut.write("\t" + mode);
+                    }
+                    modeOut.write("\n");
+                    fromIteration = firstIteration;
                 }
-                modeOut.write("\n");
-                for (int iter = firstIteration; iter <= event.getIteration(); iter++) {
+
+                for (int iter = fromIteration; iter <= event.getIteration(); iter++) {
                     modeOut.write(String.valueOf(iter));
                     for (String mode : modes) {
                         modeOut.write("\t" + modeIterationShareMap.get(mode).get(iter));
@@ -178,7 +158,6 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
                 }
 
                 modeOut.flush();
-                modeOut.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -191,29 +170,8 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
 
     }
 
-    private void updateModesUsedPerPerson() {
-        for (Person person : this.population.getPersons().values()) {
-
-            Map<Integer, Map<String, Integer>> mapForPerson = modesUsedPerPersonTrip.computeIfAbsent(person.getId(), v -> new LinkedHashMap<>());
-
-            Plan plan = person.getSelectedPlan();
-            Integer tripNumber = 0;
-            for (Trip trip : TripStructureUtils.getTrips(plan)) {
-
-                tripNumber++;
-                String mode = this.mainModeIdentifier.identifyMainMode(trip.getTripElements());
-
-                Map<String, Integer> mapForPersonTrip = mapForPerson.computeIfAbsent(tripNumber, v -> new HashMap<>());
-
-                Integer modeCount = mapForPersonTrip.getOrDefault(mode, 0);
-                mapForPersonTrip.put(mode, modeCount + 1);
-
-            }
-        }
-    }
-
     private void produceGraphs() {
-        for (Integer limit : limits) {
+        for (int limit : limits) {
             XYLineChart chart = new XYLineChart("Mode Choice Coverage (Mode Used >= " + limit + "x per trip)", "iteration", "mode choice coverage");
             for (Entry<String, Map<Integer, Double>> entry : modeCCHistory.get(limit).entrySet()) {
                 String mode = entry.getKey();
@@ -228,13 +186,13 @@ public class ModeChoiceCoverageControlerListener implements StartupListener, Ite
     @Override
     public void notifyShutdown(final ShutdownEvent controlerShudownEvent) {
 
-        //        for (BufferedWriter modeOut : modeOutMap.values()) {
-        //            try {
-        //                modeOut.close();
-        //            } catch (IOException e) {
-        //                e.printStackTrace();
-        //            }
-        //        }
+        for (BufferedWriter modeOut : modeOutMap.values()) {
+            try {
+                modeOut.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public final Map<Integer, Map<String, Map<Integer, Double>>> getModeChoiceCoverageHistory() {
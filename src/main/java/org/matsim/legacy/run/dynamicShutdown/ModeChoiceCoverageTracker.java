@@ -0,0 +1,135 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.MainModeIdentifier;
+import org.matsim.core.router.TripStructureUtils;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Counts how often each person-trip has used each main mode. Every person-trip gets one row, usages are stored per mode
+ * in dense columns. The number of rows reaching each limit is updated on the fly, so that coverage never needs a full scan.
+ */
+final class ModeChoiceCoverageTracker {
+
+    private final int[] limits;
+
+    /**
+     * Row of each person-trip, keyed by person index and trip number.
+     */
+    private final Long2IntMap rows = new Long2IntOpenHashMap();
+
+    private final Object2IntMap<String> modeIndex = new Object2IntOpenHashMap<>();
+    private final List<String> modes = new ArrayList<>();
+
+    /**
+     * Usage count of each row, one column per mode.
+     */
+    private short[][] usage = new short[0][];
+
+    /**
+     * Number of rows that have used a mode at least as often as a limit, indexed by limit and mode.
+     */
+    private final int[][] counts;
+
+    private int capacity = 1024;
+    private int numTrips;
+
+    ModeChoiceCoverageTracker(int[] limits) {
+        this.limits = limits;
+        this.counts = new int[limits.length][0];
+        this.rows.defaultReturnValue(-1);
+        this.modeIndex.defaultReturnValue(-1);
+    }
+
+    /**
+     * Add the trips of all selected plans. Main modes are identified in parallel.
+     */
+    void update(Collection<? extends Person> population, MainModeIdentifier mainModeIdentifier) {
+
+        Person[] persons = population.toArray(new Person[0]);
+        String[][] tripModes = new String[persons.length][];
+
+        IntStream.range(0, persons.length).parallel().forEach(i -> {
+            List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(persons[i].getSelectedPlan());
+            String[] m = new String[trips.size()];
+            for (int j = 0; j < m.length; j++) {
+                m[j] = mainModeIdentifier.identifyMainMode(trips.get(j).getTripElements());
+            }
+            tripModes[i] = m;
+        });
+
+        for (int i = 0; i < persons.length; i++) {
+            long person = (long) persons[i].getId().index() << 32;
+            for (int j = 0; j < tripModes[i].length; j++) {
+                add(person | (j + 1), tripModes[i][j]);
+            }
+        }
+    }
+
+    private void add(long trip, String mode) {
+
+        int row = rows.get(trip);
+        if (row < 0) {
+            if (numTrips == capacity) {
+                capacity *= 2;
+                for (int m = 0; m < usage.length; m++) {
+                    usage[m] = Arrays.copyOf(usage[m], capacity);
+                }
+            }
+
+            row = numTrips++;
+            rows.put(trip, row);
+        }
+
+        int m = modeIndex.getInt(mode);
+        if (m < 0) {
+            m = modes.size();
+            modes.add(mode);
+            modeIndex.put(mode, m);
+
+            usage = Arrays.copyOf(usage, m + 1);
+            usage[m] = new short[capacity];
+            for (int l = 0; l < limits.length; l++) {
+                counts[l] = Arrays.copyOf(counts[l], m + 1);
+            }
+        }
+
+        short[] column = usage[m];
+        if (column[row] == Short.MAX_VALUE)
+            return;
+
+        int count = ++column[row];
+        for (int l = 0; l < limits.length; l++) {
+            if (count == limits[l])
+                counts[l][m]++;
+        }
+    }
+
+    /**
+     * Number of distinct person-trips seen so far.
+     */
+    int getNumberOfTrips() {
+        return numTrips;
+    }
+
+    /**
+     * All modes seen so far.
+     */
+    List<String> getModes() {
+        return Collections.unmodifiableList(modes);
+    }
+
+    /**
+     * Number of person-trips that have used the mode at least as often as the limit with the given index.
+     */
+    int getCount(int limit, String mode) {
+        int m = modeIndex.getInt(mode);
+        return m < 0 ? 0 : counts[limit][m];
+    }
+}
@@ -0,0 +1,122 @@
+package org.matsim.prepare;
+
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.utils.geometry.CoordinateTransformation;
+
+import java.util.BitSet;
+
+/**
+ * Point in polygon index for one area. The envelope of the area is divided into a grid, cells are classified once as inside, outside or boundary.
+ * Only points in boundary cells need to be tested against the prepared geometry.
+ */
+final class AreaIndex {
+
+	private static final byte OUTSIDE = 0;
+	private static final byte INSIDE = 1;
+	private static final byte BOUNDARY = 2;
+
+	private final PreparedGeometry geometry;
+	private final CoordinateTransformation ct;
+	private final GeometryFactory factory = new GeometryFactory();
+
+	private final double minX;
+	private final double minY;
+	private final double cellWidth;
+	private final double cellHeight;
+	private final int resolution;
+	private final byte[] cells;
+
+	/**
+	 * Create index.
+	 *
+	 * @param geometry   area in its own CRS
+	 * @param ct         transformation from input coordinates to the CRS of the area
+	 * @param resolution number of grid cells per axis
+	 */
+	AreaIndex(Geometry geometry, CoordinateTransformation ct, int resolution) {
+		this.geometry = PreparedGeometryFactory.prepare(geometry);
+		this.ct = ct;
+		this.resolution = resolution;
+
+		Envelope env = geometry.getEnvelopeInternal();
+		this.minX = env.getMinX();
+		this.minY = env.getMinY();
+		this.cellWidth = Math.max(env.getWidth(), 1e-9) / resolution;
+		this.cellHeight = Math.max(env.getHeight(), 1e-9) / resolution;
+		this.cells = new byte[resolution * resolution];
+
+		for (int iy = 0; iy < resolution; iy++) {
+			for (int ix = 0; ix < resolution; ix++) {
+				Envelope cell = new Envelope(minX + ix * cellWidth, minX + (ix + 1) * cellWidth,
+					minY + iy * cellHeight, minY + (iy + 1) * cellHeight);
+				Geometry g = factory.toGeometry(cell);
+
+				// Points on the border are not contained, so an inside cell must not touch the border
+				if (this.geometry.containsProperly(g))
+					cells[iy * resolution + ix] = INSIDE;
+				else if (this.geometry.intersects(g))
+					cells[iy * resolution + ix] = BOUNDARY;
+				else
+					cells[iy * resolution + ix] = OUTSIDE;
+			}
+		}
+	}
+
+	/**
+	 * Check if a coordinate, given in input CRS, is inside the area.
+	 *
+	 * @throws IllegalArgumentException if the coordinate can not be transformed
+	 */
+	boolean contains(Coord coord) {
+		Coord c = ct.transform(coord);
+		return containsTransformed(c.getX(), c.getY());
+	}
+
+	private boolean containsTransformed(double x, double y) {
+
+		int ix = (int) Math.floor((x - minX) / cellWidth);
+		int iy = (int) Math.floor((y - minY) / cellHeight);
+
+		// Points on the upper border of the envelope
+		if (ix == resolution)
+			ix--;
+		if (iy == resolution)
+			iy--;
+
+		if (ix < 0 || iy < 0 || ix >= resolution || iy >= resolution)
+			return false;
+
+		return switch (cells[iy * resolution + ix]) {
+			case INSIDE -> true;
+			case BOUNDARY -> geometry.contains(factory.createPoint(new Coordinate(x, y)));
+			default -> false;
+		};
+	}
+
+	/**
+	 * Classify all nodes of the network.
+	 *
+	 * @return set bit for each node inside the area, indexed by {@link Id#index()}.
+	 */
+	BitSet createNodeMask(Network network) {
+
+		BitSet mask = new BitSet(Id.getNumberOfIds(Node.class));
+
+		for (Node node : network.getNodes().values()) {
+			try {
+				if (contains(node.getCoord()))
+					mask.set(node.getId().index());
+			} catch (IllegalArgumentException e) {
+				// Outside the CRS, can not be inside the area
+			}
+		}
+
+		return mask;
+	}
+}
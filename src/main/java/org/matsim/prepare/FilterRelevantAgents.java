@@ -1,9 +1,10 @@
 package org.matsim.prepare;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.Point;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
@@ -21,22 +22,16 @@ import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.algorithms.ParallelPersonAlgorithmUtils;
 import org.matsim.core.population.algorithms.PersonAlgorithm;
 import org.matsim.core.router.TripStructureUtils;
-import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
-import org.matsim.core.router.speedy.SpeedyALTFactory;
-import org.matsim.core.router.util.LeastCostPathCalculator;
-import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
-import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.FacilitiesUtils;
 import org.matsim.facilities.MatsimFacilitiesReader;
 import org.matsim.run.OpenBerlinScenario;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 
@@ -60,17 +55,29 @@ public class FilterRelevantAgents implements MATSimAppCommand, PersonAlgorithm {
 	@CommandLine.Option(names = "--network", description = "Path to network file", required = true)
 	private Path networkPath;
 
+	@CommandLine.Option(names = "--path-trees", description = "Group trips by origin and compute one shortest path tree per origin", defaultValue = "false")
+	private boolean pathTrees;
+
+	@CommandLine.Option(names = "--path-tree-cache", description = "File to persist path trees, implies --path-trees")
+	private Path pathTreeCache;
+
 	@CommandLine.Mixin
 	private ShpOptions shp;
 
 	private ActivityFacilities facilities;
 	private Network network;
-	private CoordinateTransformation ct;
-	private Geometry geometry;
-	private ThreadLocal<LeastCostPathCalculator> ctxs;
+	private AreaIndex area;
+	private BitSet nodeMask;
+	private FreeSpeedGraph graph;
+	private ThreadLocal<FreeSpeedGraph.Search> ctxs;
 
 	private Set<Id<Person>> toRemove;
 
+	/**
+	 * Trips of persons that need to be checked with path trees, packed as origin and destination node index.
+	 */
+	private Map<Id<Person>, long[]> pendingTrips;
+
 	public static void main(String[] args) {
 		new FilterRelevantAgents().execute(args);
 	}
@@ -88,20 +95,35 @@ public class FilterRelevantAgents implements MATSimAppCommand, PersonAlgorithm {
 		network = NetworkUtils.createNetwork();
 		filter.filter(network, Set.of(TransportMode.car));
 
-		geometry = shp.getGeometry();
-		ct = shp.createTransformation(OpenBerlinScenario.CRS);
+		Geometry geometry = shp.getGeometry();
+		CoordinateTransformation ct = shp.createTransformation(OpenBerlinScenario.CRS);
+
+		area = new AreaIndex(geometry, ct, 512);
+		nodeMask = area.createNodeMask(network);
+		graph = new FreeSpeedGraph(network);
+
+		log.info("{} out of {} nodes are inside the area", nodeMask.cardinality(), network.getNodes().size());
 
 		facilities = FacilitiesUtils.createActivityFacilities();
 		new MatsimFacilitiesReader(OpenBerlinScenario.CRS, OpenBerlinScenario.CRS, facilities)
 				.readFile(facilityPath.toString());
 
-		ctxs = ThreadLocal.withInitial(() -> this.createRouter(network));
+		ctxs = ThreadLocal.withInitial(graph::createSearch);
 		toRemove = ConcurrentHashMap.newKeySet();
 
+		if (pathTreeCache != null)
+			pathTrees = true;
+
+		if (pathTrees)
+			pendingTrips = new ConcurrentHashMap<>();
+
 		Population population = PopulationUtils.readPopulation(input.toString());
 
 		ParallelPersonAlgorithmUtils.run(population, 8, this);
 
+		if (pathTrees)
+			checkPendingTrips();
+
 		log.info("Removing {} out of {} agents", toRemove.size(), population.getPersons().size());
 
 		toRemove.forEach(population::removePerson);
@@ -113,11 +135,48 @@ public class FilterRelevantAgents implements MATSimAppCommand, PersonAlgorithm {
 		return 0;
 	}
 
+	/**
+	 * Evaluate all trips that have been collected and remove persons without any relevant trip.
+	 */
+	private void checkPendingTrips() throws IOException, InterruptedException {
+
+		List<Id<Person>> persons = new ArrayList<>(pendingTrips.keySet());
+
+		int n = pendingTrips.values().stream().mapToInt(t -> t.length).sum();
+		int[] from = new int[n];
+		int[] to = new int[n];
+
+		int i = 0;
+		for (Id<Person> id : persons) {
+			for (long trip : pendingTrips.get(id)) {
+				from[i] = (int) (trip >>> 32);
+				to[i] = (int) trip;
+				i++;
+			}
+		}
+
+		boolean[] passes = new PathTreeCache(graph, nodeMask).evaluate(from, to, pathTreeCache, 8);
+
+		i = 0;
+		for (Id<Person> id : persons) {
+			boolean keep = false;
+			for (int j = 0; j < pendingTrips.get(id).length; j++) {
+				keep |= passes[i++];
+			}
+
+			if (!keep)
+				toRemove.add(id);
+		}
+	}
+
 	@Override
 	public void run(Person person) {
 
 		boolean keep = false;
 
+		// Trips that will be checked later
+		LongList trips = pathTrees ? new LongArrayList() : null;
+
 		outer:
 		for (Plan plan : person.getPlans()) {
 			List<Activity> activities = TripStructureUtils.getActivities(plan, TripStructureUtils.StageActivityHandling.ExcludeStageActivities);
@@ -126,9 +185,7 @@ public class FilterRelevantAgents implements MATSimAppCommand, PersonAlgorithm {
 			for (Activity act : activities) {
 
 				try {
-					Coord c = ct.transform(getCoordinate(act));
-					Point p = MGC.coord2Point(c);
-					if (geometry.contains(p)) {
+					if (area.contains(getCoordinate(act))) {
 						keep = true;
 						break outer;
 					}
@@ -142,23 +199,25 @@ public class FilterRelevantAgents implements MATSimAppCommand, PersonAlgorithm {
 			// If not sure yet, also do the routing
 			for (TripStructureUtils.Trip trip : TripStructureUtils.getTrips(plan)) {
 
-				LeastCostPathCalculator lc = ctxs.get();
-
 				Node from = NetworkUtils.getNearestNode(network, getCoordinate(trip.getOriginActivity()));
 				Node to = NetworkUtils.getNearestNode(network, getCoordinate(trip.getDestinationActivity()));
 
-				LeastCostPathCalculator.Path path = lc.calcLeastCostPath(from, to, 0, null, null);
+				if (trips != null) {
+					trips.add(((long) from.getId().index() << 32) | to.getId().index());
+					continue;
+				}
 
-				for (Node node : path.nodes) {
-					if (geometry.contains(MGC.coord2Point(ct.transform(node.getCoord())))) {
-						keep = true;
-						break outer;
-					}
+				// Free speed route, same as a router with only time dependent disutility
+				if (graph.passesArea(from.getId().index(), to.getId().index(), nodeMask, ctxs.get())) {
+					keep = true;
+					break outer;
 				}
 			}
 		}
 
-		if (!keep) {
+		if (!keep && trips != null && !trips.isEmpty())
+			pendingTrips.put(person.getId(), trips.toLongArray());
+		else if (!keep) {
 			toRemove.add(person.getId());
 		}
 	}
@@ -174,14 +233,4 @@ public class FilterRelevantAgents implements MATSimAppCommand, PersonAlgorithm {
 
 		return coord;
 	}
-
-	private static LeastCostPathCalculator createRouter(Network network) {
-
-		FreeSpeedTravelTime travelTime = new FreeSpeedTravelTime();
-		LeastCostPathCalculatorFactory factory = new SpeedyALTFactory();
-
-		OnlyTimeDependentTravelDisutility travelDisutility = new OnlyTimeDependentTravelDisutility(travelTime);
-
-		return factory.createPathCalculator(network, travelDisutility, travelTime);
-	}
 }
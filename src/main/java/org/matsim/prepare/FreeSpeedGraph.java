@@ -0,0 +1,301 @@
+package org.matsim.prepare;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Network in compressed adjacency arrays with free speed travel times as costs. Nodes are indexed by {@link Id#index()}.
+ */
+final class FreeSpeedGraph {
+
+	private final int numNodes;
+	private final int[] edgeStart;
+	private final int[] edgeTo;
+	private final double[] edgeCost;
+	private final double[] x;
+	private final double[] y;
+
+	/**
+	 * Factor to convert euclidean distance into a lower bound of the travel time.
+	 */
+	private final double heuristic;
+
+	FreeSpeedGraph(Network network) {
+
+		numNodes = Id.getNumberOfIds(Node.class);
+		x = new double[numNodes];
+		y = new double[numNodes];
+		edgeStart = new int[numNodes + 1];
+
+		for (Node node : network.getNodes().values()) {
+			x[node.getId().index()] = node.getCoord().getX();
+			y[node.getId().index()] = node.getCoord().getY();
+		}
+
+		double maxSpeed = 0;
+		double minRatio = 1;
+
+		for (Link link : network.getLinks().values()) {
+			edgeStart[link.getFromNode().getId().index() + 1]++;
+			maxSpeed = Math.max(maxSpeed, link.getFreespeed());
+
+			double dist = CoordUtils.calcEuclideanDistance(link.getFromNode().getCoord(), link.getToNode().getCoord());
+			if (dist > 0)
+				minRatio = Math.min(minRatio, link.getLength() / dist);
+		}
+
+		for (int i = 0; i < numNodes; i++) {
+			edgeStart[i + 1] += edgeStart[i];
+		}
+
+		int[] pos = Arrays.copyOf(edgeStart, numNodes);
+		edgeTo = new int[edgeStart[numNodes]];
+		edgeCost = new double[edgeStart[numNodes]];
+
+		for (Link link : network.getLinks().values()) {
+			int p = pos[link.getFromNode().getId().index()]++;
+			edgeTo[p] = link.getToNode().getId().index();
+			edgeCost[p] = link.getLength() / link.getFreespeed();
+		}
+
+		// Link lengths can be shorter than the euclidean distance, the heuristic is scaled down to stay admissible
+		heuristic = maxSpeed > 0 ? Math.max(0, minRatio) / maxSpeed : 0;
+	}
+
+	/**
+	 * Create a reusable search state, which must not be shared between threads.
+	 */
+	Search createSearch() {
+		return new Search();
+	}
+
+	/**
+	 * Check whether the least cost path between two nodes passes any node of the mask.
+	 * The search stops early as soon as all remaining candidate paths pass the area.
+	 *
+	 * @return whether the path passes the area. If the destination can not be reached, the result is false, unless the search stopped early.
+	 */
+	boolean passesArea(int from, int to, BitSet mask, Search s) {
+
+		if (mask.get(from) || mask.get(to))
+			return true;
+
+		if (from == to)
+			return false;
+
+		s.reset();
+		s.label(from, 0, false, h(from, to));
+
+		while (s.size > 0) {
+
+			int v = s.poll();
+			if (s.settled[v])
+				continue;
+
+			s.settled[v] = true;
+			s.pending--;
+			if (!s.flag[v])
+				s.open--;
+
+			if (v == to)
+				return s.flag[v];
+
+			for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+				int w = edgeTo[e];
+				double cost = s.cost[v] + edgeCost[e];
+
+				if (s.visited(w) && (s.settled[w] || cost >= s.cost[w]))
+					continue;
+
+				s.label(w, cost, s.flag[v] || mask.get(w), h(w, to));
+			}
+
+			// All paths that are still possible lead through the area
+			if (s.open == 0)
+				return s.pending > 0;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Compute the least cost path tree from one node and mark all destinations whose path passes the area.
+	 *
+	 * @param result will be cleared and filled with the destinations passing the area, indexed by {@link Id#index()}.
+	 */
+	void passesArea(int from, BitSet mask, Search s, BitSet result) {
+
+		result.clear();
+
+		if (mask.get(from)) {
+			result.set(0, numNodes);
+			return;
+		}
+
+		s.reset();
+		s.label(from, 0, false, 0);
+
+		while (s.size > 0) {
+
+			int v = s.poll();
+			if (s.settled[v])
+				continue;
+
+			s.settled[v] = true;
+			if (s.flag[v])
+				result.set(v);
+
+			for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+				int w = edgeTo[e];
+				double cost = s.cost[v] + edgeCost[e];
+
+				if (s.visited(w) && (s.settled[w] || cost >= s.cost[w]))
+					continue;
+
+				s.label(w, cost, s.flag[v] || mask.get(w), 0);
+			}
+		}
+	}
+
+	/**
+	 * Number of node indices.
+	 */
+	int size() {
+		return numNodes;
+	}
+
+	/**
+	 * Add the graph structure, costs and the id of each node index to a digest.
+	 */
+	void digest(MessageDigest digest) {
+
+		ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES + (edgeStart.length + edgeTo.length) * Integer.BYTES + edgeCost.length * Double.BYTES);
+		buf.putInt(numNodes);
+		buf.asIntBuffer().put(edgeStart);
+		buf.position(buf.position() + edgeStart.length * Integer.BYTES);
+		buf.asIntBuffer().put(edgeTo);
+		buf.position(buf.position() + edgeTo.length * Integer.BYTES);
+		buf.asDoubleBuffer().put(edgeCost);
+		digest.update(buf.array());
+
+		// Node indices depend on the order in which ids were created
+		for (int i = 0; i < numNodes; i++) {
+			byte[] id = Id.get(i, Node.class).toString().getBytes(StandardCharsets.UTF_8);
+			digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(id.length).array());
+			digest.update(id);
+		}
+	}
+
+	private double h(int node, int to) {
+		double dx = x[node] - x[to];
+		double dy = y[node] - y[to];
+		return Math.sqrt(dx * dx + dy * dy) * heuristic;
+	}
+
+	/**
+	 * A* search state with lazy deletion heap. Each label also stores whether its path passes the area.
+	 */
+	final class Search {
+
+		private final double[] cost = new double[numNodes];
+		private final boolean[] flag = new boolean[numNodes];
+		private final boolean[] settled = new boolean[numNodes];
+		private final int[] stamp = new int[numNodes];
+		private int iteration;
+
+		/**
+		 * Number of reached, but not settled nodes whose path does not pass the area.
+		 */
+		private int open;
+
+		/**
+		 * Number of reached, but not settled nodes.
+		 */
+		private int pending;
+
+		private int[] heapNode = new int[1024];
+		private double[] heapKey = new double[1024];
+		private int size;
+
+		private void reset() {
+			iteration++;
+			open = 0;
+			pending = 0;
+			size = 0;
+		}
+
+		private boolean visited(int v) {
+			return stamp[v] == iteration;
+		}
+
+		private void label(int v, double c, boolean f, double h) {
+			if (visited(v)) {
+				if (!flag[v])
+					open--;
+			} else {
+				stamp[v] = iteration;
+				settled[v] = false;
+				pending++;
+			}
+
+			cost[v] = c;
+			flag[v] = f;
+			if (!f)
+				open++;
+
+			push(v, c + h);
+		}
+
+		private void push(int v, double key) {
+			if (size == heapNode.length) {
+				heapNode = Arrays.copyOf(heapNode, size * 2);
+				heapKey = Arrays.copyOf(heapKey, size * 2);
+			}
+
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapKey[parent] <= key)
+					break;
+				heapNode[i] = heapNode[parent];
+				heapKey[i] = heapKey[parent];
+				i = parent;
+			}
+			heapNode[i] = v;
+			heapKey[i] = key;
+		}
+
+		private int poll() {
+			int result = heapNode[0];
+			int last = heapNode[--size];
+			double key = heapKey[size];
+
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && heapKey[child + 1] < heapKey[child])
+					child++;
+				if (heapKey[child] >= key)
+					break;
+				heapNode[i] = heapNode[child];
+				heapKey[i] = heapKey[child];
+				i = child;
+			}
+			heapNode[i] = last;
+			heapKey[i] = key;
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package org.matsim.prepare;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Evaluates for many trips whether their free speed route passes an area. Trips are grouped by origin node and one least cost path tree
+ * is computed per origin. Trees can be persisted to a file and reused, as long as network and area are the same.
+ * Only one tree per thread is held in memory at any time.
+ */
+final class PathTreeCache {
+
+	private static final Logger log = LogManager.getLogger(PathTreeCache.class);
+
+	private static final int MAGIC = 0x50545243;
+	private static final int VERSION = 2;
+
+	private final FreeSpeedGraph graph;
+	private final BitSet mask;
+
+	/**
+	 * SHA-256 digest of graph and mask, which is stored in the header of the cache.
+	 */
+	private final byte[] signature;
+
+	PathTreeCache(FreeSpeedGraph graph, BitSet mask) {
+		this.graph = graph;
+		this.mask = mask;
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+
+		graph.digest(digest);
+
+		long[] words = mask.toLongArray();
+		ByteBuffer buf = ByteBuffer.allocate(words.length * Long.BYTES);
+		buf.asLongBuffer().put(words);
+		digest.update(buf.array());
+
+		this.signature = digest.digest();
+	}
+
+	/**
+	 * Check whether a cache file was created for the same network and area.
+	 */
+	boolean matches(Path cache) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(cache))))) {
+			return readHeader(in);
+		}
+	}
+
+	private boolean readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			return false;
+
+		if (in.readInt() != signature.length)
+			return false;
+
+		byte[] stored = new byte[signature.length];
+		in.readFully(stored);
+		return MessageDigest.isEqual(stored, signature);
+	}
+
+	/**
+	 * Evaluate all trips.
+	 *
+	 * @param from  origin node index of each trip
+	 * @param to    destination node index of each trip
+	 * @param cache file to read trees from and to store all trees afterward, may be null
+	 * @return whether each trip passes the area
+	 */
+	boolean[] evaluate(int[] from, int[] to, @Nullable Path cache, int threads) throws IOException, InterruptedException {
+
+		boolean[] result = new boolean[from.length];
+
+		Int2ObjectMap<IntList> origins = new Int2ObjectOpenHashMap<>();
+		for (int i = 0; i < from.length; i++) {
+			origins.computeIfAbsent(from[i], k -> new IntArrayList()).add(i);
+		}
+
+		log.info("Evaluating {} trips with {} distinct origins", from.length, origins.size());
+
+		Path tmp = cache != null ? cache.resolveSibling(cache.getFileName() + ".tmp") : null;
+
+		boolean written = false;
+		try {
+			try (DataOutputStream out = tmp != null ? open(tmp) : null) {
+
+				int read = 0;
+				if (cache != null && Files.exists(cache))
+					read = readCache(cache, origins, to, result, out);
+
+				// Origins read from the cache have been removed
+				List<Integer> remaining = new ArrayList<>(origins.keySet());
+				log.info("Computing {} trees, {} were read from cache", remaining.size(), read);
+
+				computeTrees(remaining, origins, to, result, out, threads);
+			}
+
+			if (tmp != null)
+				Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING);
+
+			written = true;
+		} finally {
+			// Incomplete cache files are not kept
+			if (tmp != null && !written)
+				Files.deleteIfExists(tmp);
+		}
+
+		return result;
+	}
+
+	private DataOutputStream open(Path path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(signature.length);
+		out.write(signature);
+		return out;
+	}
+
+	/**
+	 * Read existing trees, answer trips of these origins and copy the trees to the new cache.
+	 *
+	 * @return number of origins that were answered from the cache
+	 */
+	private int readCache(Path cache, Int2ObjectMap<IntList> origins, int[] to, boolean[] result,
+						   @Nullable DataOutputStream out) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(cache))))) {
+
+			if (!readHeader(in)) {
+				log.warn("Cache {} was created for a different network or area and will be replaced.", cache);
+				return 0;
+			}
+
+			int read = 0;
+
+			while (true) {
+				int origin;
+				try {
+					origin = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+
+				long[] words = new long[in.readInt()];
+				for (int i = 0; i < words.length; i++) {
+					words[i] = in.readLong();
+				}
+
+				IntList trips = origins.remove(origin);
+				if (trips != null) {
+					answer(BitSet.valueOf(words), trips, to, result);
+					read++;
+				}
+
+				if (out != null)
+					write(out, origin, words);
+			}
+
+			return read;
+		}
+	}
+
+	private void computeTrees(List<Integer> remaining, Int2ObjectMap<IntList> origins, int[] to, boolean[] result,
+							  @Nullable DataOutputStream out, int threads) throws IOException, InterruptedException {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AtomicInteger next = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(() -> {
+
+				FreeSpeedGraph.Search search = graph.createSearch();
+				BitSet tree = new BitSet(graph.size());
+
+				int i;
+				while ((i = next.getAndIncrement()) < remaining.size()) {
+					int origin = remaining.get(i);
+					graph.passesArea(origin, mask, search, tree);
+
+					// Each trip belongs to exactly one origin, so results are written by one thread only
+					answer(tree, origins.get(origin), to, result);
+
+					if (out != null) {
+						long[] words = tree.toLongArray();
+						synchronized (out) {
+							write(out, origin, words);
+						}
+					}
+				}
+
+				return null;
+			}));
+		}
+
+		executor.shutdown();
+
+		try {
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException io)
+				throw io;
+
+			throw new IllegalStateException("Error computing path trees", e.getCause());
+		}
+	}
+
+	private static void answer(BitSet tree, IntList trips, int[] to, boolean[] result) {
+		for (int i = 0; i < trips.size(); i++) {
+			int trip = trips.getInt(i);
+			result[trip] = tree.get(to[trip]);
+		}
+	}
+
+	private static void write(DataOutputStream out, int origin, long[] words) throws IOException {
+		out.writeInt(origin);
+		out.writeInt(words.length);
+		for (long w : words) {
+			out.writeLong(w);
+		}
+	}
+}
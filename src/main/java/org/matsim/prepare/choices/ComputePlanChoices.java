@@ -1,11 +1,14 @@
 package org.matsim.prepare.choices;
 
 import com.google.inject.Injector;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
@@ -19,7 +22,6 @@ import org.matsim.core.config.groups.PlansConfigGroup;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.population.PersonUtils;
-import org.matsim.core.population.algorithms.ParallelPersonAlgorithmUtils;
 import org.matsim.core.population.algorithms.PersonAlgorithm;
 import org.matsim.core.router.*;
 import org.matsim.core.utils.timing.TimeInterpretation;
@@ -33,10 +35,15 @@ import org.matsim.simwrapper.SimWrapperConfigGroup;
 import picocli.CommandLine;
 
 import javax.annotation.Nullable;
+import java.io.BufferedWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 
@@ -49,9 +56,9 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 	// TODO: move whole class to contrib when done, can probably go into imc
 	private static final Logger log = LogManager.getLogger(ComputePlanChoices.class);
 	/**
-	 * Rows for the result table.
+	 * Index of each person in the output, persons are sorted by id.
 	 */
-	private final Queue<List<Object>> rows = new ConcurrentLinkedQueue<>();
+	private final Object2IntMap<Id<Person>> index = new Object2IntOpenHashMap<>();
 	private final MainModeIdentifier mmi = new DefaultAnalysisMainModeIdentifier();
 	@CommandLine.Mixin
 	private ScenarioOptions scenario;
@@ -70,6 +77,7 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 	@CommandLine.Option(names = "--output", description = "Path to output csv.", defaultValue = "plan-choices.csv")
 	private Path output;
 	private ThreadLocal<Ctx> thread;
+	private SortedRowWriter writer;
 	private ProgressBar pb;
 	private double globalAvgIncome;
 
@@ -161,17 +169,15 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 			.average()
 			.orElse(Double.NaN);
 
-		pb = new ProgressBar("Computing plan choices", population.getPersons().size());
+		String path = output.toString().replace(".csv", "-%s_%d.csv".formatted(planCandidates, topK));
 
-		ParallelPersonAlgorithmUtils.run(population, Runtime.getRuntime().availableProcessors(), this);
+		log.info("Writing choices to {}", path);
 
-		pb.close();
+		CSVFormat format = CSVFormat.DEFAULT.builder().setCommentMarker('#').build();
 
-		String out = output.toString().replace(".csv", "-%s_%d.csv".formatted(planCandidates, topK));
+		try (BufferedWriter out = Files.newBufferedWriter(Path.of(path))) {
 
-		log.info("Writing {} choices to {}", rows.size(), out);
-
-		try (CSVPrinter csv = new CSVPrinter(Files.newBufferedWriter(Path.of(out)), CSVFormat.DEFAULT.builder().setCommentMarker('#').build())) {
+			CSVPrinter csv = new CSVPrinter(out, format);
 
 			// header
 			List<Object> header = new ArrayList<>();
@@ -197,10 +203,53 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 			csv.printComment("Average global income: " + globalAvgIncome);
 
 			csv.printRecord(header);
+			csv.flush();
+
+			// Rows are written in order of the person ids, so that the output is reproducible
+			List<Person> persons = new ArrayList<>(population.getPersons().values());
+			persons.sort(Comparator.comparing(Person::getId));
+			for (int i = 0; i < persons.size(); i++) {
+				index.put(persons.get(i).getId(), i);
+			}
+
+			pb = new ProgressBar("Computing plan choices", persons.size());
+
+			int threads = Runtime.getRuntime().availableProcessors();
+			writer = new SortedRowWriter(out, format, persons.size(), threads * 256);
+
+			AtomicInteger next = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					boolean completed = false;
+					try {
+						int i;
+						while ((i = next.getAndIncrement()) < persons.size()) {
+							run(persons.get(i));
+						}
+						completed = true;
+					} finally {
+						// Rows of this worker are missing, release all others that wait for them
+						if (!completed)
+							writer.abort();
+					}
+				}));
+			}
 
-			for (List<Object> row : rows) {
-				csv.printRecord(row);
+			executor.shutdown();
+			try {
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			} catch (ExecutionException e) {
+				writer.abort();
+				executor.shutdownNow();
+				throw e;
 			}
+
+			writer.close();
+			pb.close();
 		}
 
 
@@ -210,14 +259,32 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 	@Override
 	public void run(Person person) {
 
+		List<Object> row = createRow(person);
+
+		try {
+			writer.put(index.getInt(person.getId()), row);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing choices", e);
+		}
+
+		pb.step();
+	}
+
+	/**
+	 * Create the output row for a person.
+	 *
+	 * @return row or null if the person is not considered
+	 */
+	@Nullable
+	private List<Object> createRow(Person person) {
+
 		if (person.getAttributes().getAttribute(Attributes.REF_MODES) == null) {
-			pb.step();
-			return;
+			return null;
 		}
 
 		if (idFilter != null && !idFilter.matcher(person.getId().toString()).matches()) {
-			pb.step();
-			return;
+			return null;
 		}
 
 		Plan plan = person.getSelectedPlan();
@@ -228,16 +295,14 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 		String[] currentModes = model.getCurrentModesMutable();
 
 		if (refModes.isBlank()) {
-			pb.step();
-			return;
+			return null;
 		}
 
 		if (split.length != currentModes.length) {
 			if (log.isWarnEnabled())
 				log.warn("Number of trips ref/current do not match: {} / {}", Arrays.toString(split), Arrays.toString(currentModes));
 
-			pb.step();
-			return;
+			return null;
 		}
 
 		// Put reference modes into the current modes
@@ -259,8 +324,7 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 
 		// skip possible error cases
 		if (candidates == null) {
-			pb.step();
-			return;
+			return null;
 		}
 
 		int i = 0;
@@ -284,9 +348,7 @@ public class ComputePlanChoices implements MATSimAppCommand, PersonAlgorithm {
 			row.add(0);
 		}
 
-		rows.add(row);
-
-		pb.step();
+		return row;
 	}
 
 	/**
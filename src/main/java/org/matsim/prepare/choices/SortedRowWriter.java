@@ -0,0 +1,168 @@
+package org.matsim.prepare.choices;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes csv rows produced by multiple threads in the order of their index. Rows are encoded by the calling thread,
+ * a single writer thread appends them to the output. Only a fixed window of rows is held in memory, producers that are too far ahead will block.
+ */
+final class SortedRowWriter implements AutoCloseable {
+
+	/**
+	 * Marker for indices without a row.
+	 */
+	private static final String EMPTY = "";
+
+	private final Writer out;
+	private final int total;
+	private final String[] window;
+	private final ThreadLocal<Encoder> encoder;
+	private final Thread thread;
+
+	/**
+	 * Index of the next row to be written.
+	 */
+	private int next;
+
+	private IOException error;
+
+	/**
+	 * Set when a producer failed, the missing rows will never be put.
+	 */
+	private boolean aborted;
+
+	/**
+	 * Create a writer and start the writer thread.
+	 *
+	 * @param total  number of indices that will be put
+	 * @param window maximum number of buffered rows
+	 */
+	SortedRowWriter(Writer out, CSVFormat format, int total, int window) {
+		this.out = out;
+		this.total = total;
+		this.window = new String[window];
+		this.encoder = ThreadLocal.withInitial(() -> new Encoder(format));
+		this.thread = new Thread(this::drain, "SortedRowWriter");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Put the row with given index. Every index in [0, total) must be put exactly once.
+	 *
+	 * @param row row values, or null if there is no row for this index.
+	 */
+	void put(int index, @Nullable Iterable<?> row) throws InterruptedException {
+
+		String encoded = row == null ? EMPTY : encoder.get().encode(row);
+
+		synchronized (window) {
+			while (index - next >= window.length && error == null && !aborted)
+				window.wait();
+
+			if (error != null)
+				throw new UncheckedIOException(error);
+
+			if (aborted)
+				throw new IllegalStateException("Writer has been aborted");
+
+			window[index % window.length] = encoded;
+			window.notifyAll();
+		}
+	}
+
+	private void drain() {
+
+		StringBuilder batch = new StringBuilder();
+
+		try {
+			while (true) {
+				synchronized (window) {
+					while (next < total && window[next % window.length] == null && !aborted)
+						window.wait();
+
+					if (next == total || aborted)
+						break;
+
+					// Collect all rows that are ready
+					String row;
+					while (next < total && (row = window[next % window.length]) != null) {
+						batch.append(row);
+						window[next % window.length] = null;
+						next++;
+					}
+
+					window.notifyAll();
+				}
+
+				out.write(batch.toString());
+				batch.setLength(0);
+			}
+		} catch (IOException e) {
+			synchronized (window) {
+				error = e;
+				window.notifyAll();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop writing because not all rows will be put. Blocked producers and the writer thread are released.
+	 */
+	void abort() {
+		synchronized (window) {
+			aborted = true;
+			window.notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until all rows are written.
+	 */
+	@Override
+	public void close() throws IOException, InterruptedException {
+		thread.join();
+		if (error != null)
+			throw error;
+
+		if (aborted)
+			throw new IllegalStateException("Writer has been aborted, output is incomplete");
+
+		out.flush();
+	}
+
+	/**
+	 * Per thread buffer to encode rows.
+	 */
+	private static final class Encoder {
+
+		private final StringBuilder buffer = new StringBuilder();
+		private final CSVPrinter printer;
+
+		Encoder(CSVFormat format) {
+			try {
+				printer = new CSVPrinter(buffer, format);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		String encode(Iterable<?> row) {
+			buffer.setLength(0);
+			try {
+				printer.printRecord(row);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return buffer.toString();
+		}
+	}
+}
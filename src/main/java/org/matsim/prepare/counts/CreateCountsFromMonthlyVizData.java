@@ -1,5 +1,6 @@
 package org.matsim.prepare.counts;
 
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
@@ -29,25 +30,14 @@ import org.matsim.counts.Count;
 import org.matsim.counts.Counts;
 import org.matsim.counts.CountsWriter;
 import picocli.CommandLine;
-import tech.tablesaw.api.DateColumn;
-import tech.tablesaw.api.DoubleColumn;
-import tech.tablesaw.api.StringColumn;
-import tech.tablesaw.api.Table;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.FormatStyle;
 import java.util.*;
-import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-
-import static tech.tablesaw.aggregate.AggregateFunctions.mean;
 
 @CommandLine.Command(name = "counts-detailed", description = "Own aggregation of VIZ data for MATSim Counts")
 public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
@@ -126,8 +116,8 @@ public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
 		extractStations(stationPath, stations, counts);
 		matchWithNetwork(networkPath, geometries, stations, counts);
 
-		List<CSVRecord> records = readCountData(countPaths);
-		aggregateAndAssignCountData(records, stations, car, freight, outputString);
+		HourlyVolumeAggregator data = readCountData(countPaths, stations);
+		aggregateAndAssignCountData(data, stations, car, freight, outputString);
 
 		new CountsWriter(car).write(outputString + scenario + ".counts_car.xml");
 		new CountsWriter(freight).write(outputString + scenario + ".counts_freight.xml");
@@ -165,53 +155,39 @@ public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
 		CoordinateTransformation transformation = crs.getTransformation();
 
 		Map<Id<Link>, Geometry> networkGeometries = NetworkIndex.readGeometriesFromSumo(geometries.toString(), IdentityTransform.create(2));
-		NetworkIndex<Station> index = new NetworkIndex<>(network, networkGeometries, 50, toMatch -> {
+		LinkMatcher<Station> index = new LinkMatcher<>(network, networkGeometries, 50, toMatch -> {
 			Coord coord = toMatch.coord();
 			Coord transform = transformation.transform(coord);
 			return MGC.coord2Point(transform);
 		});
 		//Add link direction filter
-		index.addLinkFilter((link, station) -> {
-			String direction = station.direction();
-
-			Coord from = link.link().getFromNode().getCoord();
-			Coord to = link.link().getToNode().getCoord();
-
-			String linkDir = "";
-			if (to.getY() > from.getY()) {
-				linkDir += "nord";
-			} else
-				linkDir += "süd";
-
-			if (to.getX() > from.getX()) {
-				linkDir += "ost";
-			} else
-				linkDir += "west";
-
-			Pattern pattern = Pattern.compile(direction, Pattern.CASE_INSENSITIVE);
-			return pattern.matcher(linkDir).find();
-		});
-		index.addLinkFilter((link, station) -> !link.link().getId().toString().startsWith("pt_"));
+		index.addDirectionFilter(Station::direction);
+		index.addLinkFilter(station -> link -> !link.getId().toString().startsWith("pt_"));
 
 		if (roadNames) {
-			index.addLinkFilter((link, station) -> {
+			index.addLinkFilter(station -> {
 				String name = station.name().toLowerCase();
 
 				if (name.endsWith("straße") || name.endsWith("str"))
 					name.replace("straße", "").replace("str", "");
 
 				if (name.equals("straße des 17. juni"))
-					return true;
+					return link -> true;
 
-				Object linkRoadName = link.link().getAttributes().getAttribute("name");
+				Pattern pattern = Pattern.compile(name, Pattern.CASE_INSENSITIVE);
+				return link -> {
+					Object linkRoadName = link.getAttributes().getAttribute("name");
 
-				if (linkRoadName == null)
-					return true;
+					if (linkRoadName == null)
+						return true;
 
-				return Pattern.compile(name, Pattern.CASE_INSENSITIVE).matcher((String) linkRoadName).find();
+					return pattern.matcher((String) linkRoadName).find();
+				};
 			});
 		}
 
+		index.prepare(stations.values());
+
 		logger.info("Start matching stations to network.");
 		int counter = 0;
 		for (var it = stations.entrySet().iterator(); it.hasNext();) {
@@ -273,72 +249,35 @@ public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
 		}
 	}
 
-	private List<CSVRecord> readCountData(List<Path> paths) {
+	/**
+	 * Read all files in parallel and aggregate the rows while parsing.
+	 */
+	private HourlyVolumeAggregator readCountData(List<Path> paths, Map<String, Station> stations) {
 
-		//Read all files and build one record collection
 		logger.info("Start parsing count data.");
-		List<CSVRecord> records = new ArrayList<>();
-		for (Path path : paths) {
-			try (GZIPInputStream gis = new GZIPInputStream(
-					new FileInputStream(path.toFile()))
-			) {
-				Path decompressed = Path.of(path.toString().replace(".gz", ""));
-				if (!Files.exists(decompressed))
-					Files.copy(gis, decompressed);
-
-				List<CSVRecord> month = csv.createParser(decompressed).getRecords();
-
-				records.addAll(month);
-			} catch (IOException e) {
-				logger.warn("Error processing file {}: ", path.toString());
-				throw new RuntimeException(e);
-			}
-		}
 
-		return records;
-	}
+		HourlyVolumeAggregator result = new HourlyVolumeAggregator(stations.keySet());
 
-	private void aggregateAndAssignCountData(List<CSVRecord> records, Map<String, Station> stations, Counts<Link> carCounts, Counts<Link> freightCounts, String outputString) {
-
-		//Create table from records first
-		Table table;
-		{
-			StringColumn id = StringColumn.create(ColumnNames.id);
-			DateColumn date = DateColumn.create(ColumnNames.date);
-			StringColumn hour = StringColumn.create(ColumnNames.hour);
-			DoubleColumn car = DoubleColumn.create(ColumnNames.carVolume);
-			DoubleColumn freight = DoubleColumn.create(ColumnNames.freightVolume);
-			DoubleColumn carSpeed = DoubleColumn.create(ColumnNames.carAvgSpeed);
-			DoubleColumn freightSpeed = DoubleColumn.create(ColumnNames.freightAvgSpeed);
-
-			for (CSVRecord row : records) {
-				id.append(row.get(0));
-				LocalDate formatedDate = LocalDate.parse(row.get(1), DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).withLocale(Locale.GERMAN));
-				date.append(formatedDate);
-				hour.append(row.get(2));
-				car.append(Double.parseDouble(row.get(6)));
-				carSpeed.append(Double.parseDouble(row.get(7)));
-				freight.append(Double.parseDouble(row.get(8)));
-				freightSpeed.append(Double.parseDouble(row.get(9)));
+		List<HourlyVolumeAggregator> months = paths.parallelStream().map(path -> {
+			HourlyVolumeAggregator month = result.createEmpty();
+			// Compressed files are read directly
+			try (CSVParser parser = csv.createParser(path)) {
+				for (CSVRecord row : parser) {
+					month.add(row);
+				}
+			} catch (IOException e) {
+				logger.warn("Error processing file {}: ", path.toString());
+				throw new UncheckedIOException(e);
 			}
+			return month;
+		}).toList();
 
-			table = Table.create(id, date, hour, car, freight, carSpeed, freightSpeed);
-		}
-
-		Predicate<LocalDate> dayFilter = localDate -> {
-			int day = localDate.getDayOfWeek().getValue();
-			return day > 1 && day < 5;
-		};
+		months.forEach(result::merge);
 
-		//filter and aggregation
-		logger.info("Start Aggregation");
-		Table summarized = table.where(t -> t.dateColumn(ColumnNames.date).eval(dayFilter))
-				.summarize(ColumnNames.carVolume, ColumnNames.freightVolume, ColumnNames.carAvgSpeed, ColumnNames.freightAvgSpeed, mean)
-				.by(ColumnNames.id, ColumnNames.hour);
+		return result;
+	}
 
-		//Column names were edited by summarize function
-		for (String name : table.columnNames())
-			summarized.columnNames().stream().filter(s -> s.contains(name)).findFirst().ifPresent(s -> summarized.column(s).setName(name));
+	private void aggregateAndAssignCountData(HourlyVolumeAggregator data, Map<String, Station> stations, Counts<Link> carCounts, Counts<Link> freightCounts, String outputString) {
 
 		//Assign aggregted hourly traffic volumes to count objects AND write avg speed per link and hour to csv file
 		try (CSVPrinter printer = csv.createPrinter(Path.of(outputString + scenario + ".avg_speed.csv"))) {
@@ -353,9 +292,7 @@ public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
 				String key = entry.getKey();
 				Station station = entry.getValue();
 
-				Table idFiltered = summarized.copy().where(t -> t.stringColumn(ColumnNames.id).isEqualTo(key));
-
-				if (idFiltered.rowCount() != 24) {
+				if (!data.isComplete(key)) {
 					logger.warn("Station {} - {} does not contain hour values for the whole day!", key, station.name());
 					counter++;
 					continue;
@@ -364,17 +301,17 @@ public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
 				Count<Link> carCount = carCounts.createAndAddCount(station.linkAtomicReference().get().getId(), station.getStationId());
 				Count<Link> freightCount = freightCounts.createAndAddCount(station.linkAtomicReference().get().getId(), station.getStationId());
 
-				for (tech.tablesaw.api.Row row : idFiltered) {
-					double car = row.getDouble(ColumnNames.carVolume);
+				for (int h = 0; h < HourlyVolumeAggregator.HOURS; h++) {
+					double car = data.getMean(key, h, HourlyVolumeAggregator.CAR_VOLUME);
 					//in VIZ data hours starts at 0, in MATSim count data starts at 1
-					int hour = Integer.parseInt(row.getString(ColumnNames.hour)) + 1;
-					double freight = row.getDouble(ColumnNames.freightVolume);
+					int hour = h + 1;
+					double freight = data.getMean(key, h, HourlyVolumeAggregator.FREIGHT_VOLUME);
 					carCount.createVolume(hour, Math.round(car));
 					freightCount.createVolume(hour, Math.round(freight));
 
 					//print to file
-					double carSpeed = row.getDouble(ColumnNames.carAvgSpeed);
-					double freightSpeed = row.getDouble(ColumnNames.freightAvgSpeed);
+					double carSpeed = data.getMean(key, h, HourlyVolumeAggregator.CAR_SPEED);
+					double freightSpeed = data.getMean(key, h, HourlyVolumeAggregator.FREIGHT_SPEED);
 
 					printer.print(station.linkAtomicReference().get().getId().toString());
 					printer.print(hour);
@@ -391,11 +328,8 @@ public class CreateCountsFromMonthlyVizData implements MATSimAppCommand {
 
 	private static final class ColumnNames {
 		static String id = "id";
-		static String date = "date";
 		static String hour = "hour";
-		static String carVolume = "car_volume";
 		static String carAvgSpeed = "car_avg_speed";
-		static String freightVolume = "freight_volume";
 		static String freightAvgSpeed = "freight_avg_speed";
 	}
 
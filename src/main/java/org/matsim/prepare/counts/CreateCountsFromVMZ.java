@@ -33,7 +33,6 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Pattern;
 
 @CommandLine.Command(
 		name = "counts-from-vmz",
@@ -96,36 +95,17 @@ public class CreateCountsFromVMZ implements MATSimAppCommand {
 
 		CoordinateTransformation transformation = crs.getTransformation();
 
-		NetworkIndex.GeometryGetter<BerlinCount> getter = toMatch -> {
+		LinkMatcher<BerlinCount> index = new LinkMatcher<>(net,
+				networkGeometries != null ? NetworkIndex.readGeometriesFromSumo(networkGeometries.toString(), IdentityTransform.create(2)) : null,
+				100, toMatch -> {
 			Coord coord = toMatch.coord;
 			Coord transform = transformation.transform(coord);
 			return MGC.coord2Point(transform);
-		};
-
-		NetworkIndex<BerlinCount> index = networkGeometries != null ?
-				new NetworkIndex<>(net, NetworkIndex.readGeometriesFromSumo(networkGeometries.toString(), IdentityTransform.create(2)), 100, getter):
-				new NetworkIndex<>(net, 100, getter);
-
-		index.addLinkFilter((link, berlinCounts) -> {
-			String orientation = berlinCounts.orientation;
-
-			Coord from = link.link().getFromNode().getCoord();
-			Coord to = link.link().getToNode().getCoord();
-
-			String linkDir = "";
-			if (to.getY() > from.getY()) {
-				linkDir += "nord";
-			} else
-				linkDir += "süd";
+		});
 
-			if (to.getX() > from.getX()) {
-				linkDir += "ost";
-			} else
-				linkDir += "west";
+		index.addDirectionFilter(berlinCounts -> berlinCounts.orientation);
 
-			Pattern pattern = Pattern.compile(orientation, Pattern.CASE_INSENSITIVE);
-			return pattern.matcher(linkDir).find();
-		});
+		index.prepare(stations.values());
 
 		Map<Id<Link>, ? extends Link> links = net.getLinks();
 
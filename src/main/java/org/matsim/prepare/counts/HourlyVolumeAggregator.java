@@ -0,0 +1,163 @@
+package org.matsim.prepare.counts;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.csv.CSVRecord;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Mean hourly values of VIZ count rows per station, only considering Tuesday to Thursday.
+ * Rows are folded into fixed accumulators, memory only depends on the number of stations.
+ * One instance must only be used by one thread, partial results can be combined with {@link #merge(HourlyVolumeAggregator)}.
+ */
+final class HourlyVolumeAggregator {
+
+	static final int HOURS = 24;
+
+	static final int CAR_VOLUME = 0;
+	static final int CAR_SPEED = 1;
+	static final int FREIGHT_VOLUME = 2;
+	static final int FREIGHT_SPEED = 3;
+
+	/**
+	 * Number of aggregated values per row, located in columns 6 to 9.
+	 */
+	private static final int VALUES = 4;
+	private static final int FIRST_COLUMN = 6;
+
+	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).withLocale(Locale.GERMAN);
+
+	private final Object2IntMap<String> index;
+
+	/**
+	 * Number of rows per station and hour.
+	 */
+	private final int[] rows;
+	private final double[] sum;
+
+	/**
+	 * Number of non-missing values, per station, hour and value.
+	 */
+	private final int[] n;
+
+	/**
+	 * Whether a date string is within the considered week days. Each file only contains few distinct dates.
+	 */
+	private final Map<String, Boolean> dates = new HashMap<>();
+
+	HourlyVolumeAggregator(Collection<String> stations) {
+		this.index = new Object2IntOpenHashMap<>();
+		this.index.defaultReturnValue(-1);
+		for (String id : stations) {
+			index.putIfAbsent(id, index.size());
+		}
+
+		this.rows = new int[index.size() * HOURS];
+		this.sum = new double[index.size() * HOURS * VALUES];
+		this.n = new int[index.size() * HOURS * VALUES];
+	}
+
+	private HourlyVolumeAggregator(HourlyVolumeAggregator other) {
+		this.index = other.index;
+		this.rows = new int[other.rows.length];
+		this.sum = new double[other.sum.length];
+		this.n = new int[other.n.length];
+	}
+
+	/**
+	 * Create an empty aggregator for the same stations.
+	 */
+	HourlyVolumeAggregator createEmpty() {
+		return new HourlyVolumeAggregator(this);
+	}
+
+	static boolean isConsideredDay(LocalDate date) {
+		DayOfWeek day = date.getDayOfWeek();
+		return day == DayOfWeek.TUESDAY || day == DayOfWeek.WEDNESDAY || day == DayOfWeek.THURSDAY;
+	}
+
+	/**
+	 * Add one row of the VIZ data. Rows of unknown stations or other week days are ignored.
+	 */
+	void add(CSVRecord row) {
+
+		int station = index.getInt(row.get(0));
+		if (station < 0)
+			return;
+
+		if (!dates.computeIfAbsent(row.get(1), d -> isConsideredDay(LocalDate.parse(d, FORMATTER))))
+			return;
+
+		int hour = Integer.parseInt(row.get(2));
+		if (hour < 0 || hour >= HOURS)
+			return;
+
+		int idx = station * HOURS + hour;
+		rows[idx]++;
+
+		for (int i = 0; i < VALUES; i++) {
+			double v = Double.parseDouble(row.get(FIRST_COLUMN + i));
+			// Missing values are ignored, as in the mean of tablesaw
+			if (!Double.isNaN(v)) {
+				sum[idx * VALUES + i] += v;
+				n[idx * VALUES + i]++;
+			}
+		}
+	}
+
+	/**
+	 * Add all values of another aggregator for the same stations.
+	 */
+	void merge(HourlyVolumeAggregator other) {
+		if (other.index != index)
+			throw new IllegalArgumentException("Aggregators must be created for the same stations.");
+
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] += other.rows[i];
+		}
+
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] += other.sum[i];
+			n[i] += other.n[i];
+		}
+	}
+
+	/**
+	 * Whether a station has data for every hour of the day.
+	 */
+	boolean isComplete(String station) {
+		int s = index.getInt(station);
+		if (s < 0)
+			return false;
+
+		for (int h = 0; h < HOURS; h++) {
+			if (rows[s * HOURS + h] == 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Mean of one value, or NaN if there is no data.
+	 *
+	 * @param hour  hour of the day starting at 0
+	 * @param value one of {@link #CAR_VOLUME}, {@link #CAR_SPEED}, {@link #FREIGHT_VOLUME}, {@link #FREIGHT_SPEED}
+	 */
+	double getMean(String station, int hour, int value) {
+		int s = index.getInt(station);
+		if (s < 0)
+			return Double.NaN;
+
+		int idx = (s * HOURS + hour) * VALUES + value;
+		return sum[idx] / n[idx];
+	}
+}
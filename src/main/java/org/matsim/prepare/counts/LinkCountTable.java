@@ -0,0 +1,104 @@
+package org.matsim.prepare.counts;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense per link table indexed by {@link Id#index()}, holding the free flow travel time and the index of the count station on this link.
+ * Allows to project routes onto counts without any map lookups.
+ */
+public final class LinkCountTable {
+
+	/**
+	 * Free flow travel time, rounded up to whole seconds as during simulation.
+	 */
+	private final double[] freeTravelTime;
+
+	/**
+	 * Index of the count station or -1 if there is none.
+	 */
+	private final int[] station;
+
+	private LinkCountTable(double[] freeTravelTime, int[] station) {
+		this.freeTravelTime = freeTravelTime;
+		this.station = station;
+	}
+
+	/**
+	 * Create table for all links of the network.
+	 *
+	 * @param stations mapping of link ids to the index of the count station
+	 */
+	public static LinkCountTable create(Network network, Object2IntMap<Id<Link>> stations) {
+
+		int size = Id.getNumberOfIds(Link.class);
+
+		double[] tt = new double[size];
+		int[] station = new int[size];
+		Arrays.fill(station, -1);
+
+		for (Link link : network.getLinks().values()) {
+			tt[link.getId().index()] = Math.ceil(link.getLength() / link.getFreespeed());
+		}
+
+		for (Object2IntMap.Entry<Id<Link>> e : stations.object2IntEntrySet()) {
+			int idx = e.getKey().index();
+			if (idx < size)
+				station[idx] = e.getIntValue();
+		}
+
+		return new LinkCountTable(tt, station);
+	}
+
+	/**
+	 * Free flow travel time of a link index, 0 for unknown links.
+	 */
+	public double getFreeTravelTime(int index) {
+		return index < freeTravelTime.length ? freeTravelTime[index] : 0;
+	}
+
+	/**
+	 * Count station of a link index, or -1 if there is none.
+	 */
+	public int getStation(int index) {
+		return index < station.length ? station[index] : -1;
+	}
+
+	public int getStation(Id<Link> linkId) {
+		return getStation(linkId.index());
+	}
+
+	/**
+	 * Sum of free flow travel times of given links.
+	 */
+	public double getFreeTravelTime(List<Id<Link>> links) {
+		double tt = 0;
+		for (int i = 0; i < links.size(); i++) {
+			tt += getFreeTravelTime(links.get(i).index());
+		}
+		return tt;
+	}
+
+	/**
+	 * Whether any of the links has a count station.
+	 */
+	public boolean hasStation(List<Id<Link>> links) {
+		for (int i = 0; i < links.size(); i++) {
+			if (getStation(links.get(i).index()) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of link indices in this table.
+	 */
+	public int size() {
+		return station.length;
+	}
+}
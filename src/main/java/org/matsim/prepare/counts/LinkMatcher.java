@@ -0,0 +1,223 @@
+package org.matsim.prepare.counts;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Matches count stations to the closest suitable link. Filters are compiled once per station, i.e. patterns are created only once
+ * and link directions are precomputed. Candidates of many stations can be computed in parallel with {@link #prepare(Collection)},
+ * conflicts are then resolved in the order of {@link #query(Object)} and {@link #remove(Link)} calls, the same as without preparation.
+ *
+ * @param <T> type of the stations
+ */
+final class LinkMatcher<T> {
+
+	/**
+	 * Link directions as named in the count data. Index is given by {@link #direction(Coord, Coord)}.
+	 */
+	private static final String[] DIRECTIONS = {"nordost", "nordwest", "südost", "südwest"};
+
+	private static final int[] EMPTY = new int[0];
+
+	private final Link[] links;
+	private final Geometry[] geometries;
+	private final byte[] directions;
+	private final Object2IntMap<Id<Link>> index = new Object2IntOpenHashMap<>();
+	private final STRtree tree = new STRtree();
+	private final double range;
+	private final Function<T, Point> location;
+
+	private final List<Function<T, IntPredicate>> filters = new ArrayList<>();
+	private final BitSet removed = new BitSet();
+	private final Map<T, int[]> prepared = new ConcurrentHashMap<>();
+
+	/**
+	 * Create matcher.
+	 *
+	 * @param geometries link geometries, links without geometry are represented by a line between their nodes
+	 * @param range      maximum distance between station and link
+	 * @param location   location of a station in the network crs
+	 */
+	LinkMatcher(Network network, @Nullable Map<Id<Link>, Geometry> geometries, double range, Function<T, Point> location) {
+
+		this.range = range;
+		this.location = location;
+		this.index.defaultReturnValue(-1);
+
+		GeometryFactory factory = new GeometryFactory();
+
+		int n = network.getLinks().size();
+		this.links = new Link[n];
+		this.geometries = new Geometry[n];
+		this.directions = new byte[n];
+
+		int i = 0;
+		for (Link link : network.getLinks().values()) {
+			Coord from = link.getFromNode().getCoord();
+			Coord to = link.getToNode().getCoord();
+
+			Geometry g = geometries != null ? geometries.get(link.getId()) : null;
+			if (g == null)
+				g = factory.createLineString(new Coordinate[]{new Coordinate(from.getX(), from.getY()), new Coordinate(to.getX(), to.getY())});
+
+			links[i] = link;
+			this.geometries[i] = g;
+			directions[i] = direction(from, to);
+			index.put(link.getId(), i);
+			tree.insert(g.getEnvelopeInternal(), i);
+			i++;
+		}
+
+		// Build eagerly so that queries can run concurrently
+		tree.build();
+	}
+
+	private static byte direction(Coord from, Coord to) {
+		int north = to.getY() > from.getY() ? 0 : 2;
+		int east = to.getX() > from.getX() ? 0 : 1;
+		return (byte) (north + east);
+	}
+
+	/**
+	 * Add a filter that is created once per station.
+	 */
+	void addLinkFilter(Function<T, Predicate<Link>> filter) {
+		filters.add(station -> {
+			Predicate<Link> p = filter.apply(station);
+			return i -> p.test(links[i]);
+		});
+	}
+
+	/**
+	 * Only allow links whose direction matches the pattern of a station, e.g. "nord" or "südwest".
+	 */
+	void addDirectionFilter(Function<T, String> direction) {
+		filters.add(station -> {
+			Pattern pattern = Pattern.compile(direction.apply(station), Pattern.CASE_INSENSITIVE);
+			int allowed = 0;
+			for (int d = 0; d < DIRECTIONS.length; d++) {
+				if (pattern.matcher(DIRECTIONS[d]).find())
+					allowed |= 1 << d;
+			}
+
+			int mask = allowed;
+			return i -> (mask & (1 << directions[i])) != 0;
+		});
+	}
+
+	/**
+	 * Compute candidates of all stations in parallel.
+	 */
+	void prepare(Collection<T> stations) {
+		stations.parallelStream().forEach(s -> prepared.put(s, candidates(s)));
+	}
+
+	/**
+	 * All links passing the filters within range, ordered by distance and id.
+	 */
+	private int[] candidates(T station) {
+
+		Point p = location.apply(station);
+
+		Envelope env = new Envelope(p.getCoordinate());
+		env.expandBy(range);
+
+		List<IntPredicate> compiled = new ArrayList<>(filters.size());
+		for (Function<T, IntPredicate> f : filters) {
+			compiled.add(f.apply(station));
+		}
+
+		IntArrayList result = new IntArrayList();
+		DoubleArrayList dist = new DoubleArrayList();
+
+		for (Object o : tree.query(env)) {
+			int i = (int) o;
+			double d = geometries[i].distance(p);
+			if (d > range)
+				continue;
+
+			boolean accepted = true;
+			for (IntPredicate f : compiled) {
+				if (!f.test(i)) {
+					accepted = false;
+					break;
+				}
+			}
+
+			if (accepted) {
+				result.add(i);
+				dist.add(d);
+			}
+		}
+
+		if (result.isEmpty())
+			return EMPTY;
+
+		// Sort positions in the candidate lists
+		int[] order = new int[result.size()];
+		for (int k = 0; k < order.length; k++) {
+			order[k] = k;
+		}
+
+		IntArrays.quickSort(order, (a, b) -> {
+			int cmp = Double.compare(dist.getDouble(a), dist.getDouble(b));
+			return cmp != 0 ? cmp : links[result.getInt(a)].getId().toString().compareTo(links[result.getInt(b)].getId().toString());
+		});
+
+		for (int k = 0; k < order.length; k++) {
+			order[k] = result.getInt(order[k]);
+		}
+
+		return order;
+	}
+
+	/**
+	 * Return the closest link that passes all filters and has not been removed.
+	 *
+	 * @return link or null if there is none
+	 */
+	@Nullable
+	Link query(T station) {
+
+		int[] candidates = prepared.remove(station);
+		if (candidates == null)
+			candidates = candidates(station);
+
+		for (int i : candidates) {
+			if (!removed.get(i))
+				return links[i];
+		}
+
+		return null;
+	}
+
+	/**
+	 * Remove a link, so that it will not be matched again.
+	 */
+	void remove(Link link) {
+		int i = index.getInt(link.getId());
+		if (i >= 0)
+			removed.set(i);
+	}
+}
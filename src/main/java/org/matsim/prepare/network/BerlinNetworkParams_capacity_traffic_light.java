@@ -55,17 +55,24 @@ public final class BerlinNetworkParams_capacity_traffic_light implements Predict
         for (int i = 0; i < data.length; i++)
             if (Double.isNaN(data[i])) throw new IllegalArgumentException("Invalid data at index: " + i);
 
-        double scale = 1;
+        return score(data, params) * scale(data);
+    }
+
+    /**
+     * Scale factor applied to the score, based on the feature vector.
+     */
+    public static double scale(double[] data) {
         // The reference simulation is performed with equal green split
         // However this is usually not the case for major roads with higher priority,
         // there capacity for these roads is increased
-        if (features.getDouble("is_primary_or_higher") == 1)
-            scale = 1.5;
-        else if (features.getDouble("is_secondary_or_higher") == 1)
-            scale = 1.3;
+        if (data[7] == 1)
+            return 1.5;
+        else if (data[8] == 1)
+            return 1.3;
 
-        return score(data, params) * scale;
+        return 1;
     }
+
     public static double score(double[] input, double[] params) {
         double var0;
         if (input[1] >= 1.5) {
@@ -0,0 +1,50 @@
+package org.matsim.prepare.network;
+
+import org.matsim.application.prepare.Predictor;
+import org.matsim.application.prepare.network.params.NetworkModel;
+
+/**
+ * Same models as {@link BerlinNetworkParams}, but evaluated with {@link FlatTreeRegressor}.
+ */
+@SuppressWarnings("unused")
+public class FlatBerlinNetworkParams implements NetworkModel {
+
+	private static final class Capacity {
+		static final FlatTreeRegressor TRAFFIC_LIGHT = new FlatTreeRegressor(BerlinNetworkParams_capacity_traffic_light.INSTANCE,
+			BerlinNetworkParams_capacity_traffic_light.DEFAULT_PARAMS, TreeEnsemble.load(BerlinNetworkParams_capacity_traffic_light.class),
+			BerlinNetworkParams_capacity_traffic_light::scale);
+		static final FlatTreeRegressor RIGHT_BEFORE_LEFT = FlatTreeRegressor.of(BerlinNetworkParams_capacity_right_before_left.INSTANCE,
+			BerlinNetworkParams_capacity_right_before_left.DEFAULT_PARAMS);
+		static final FlatTreeRegressor PRIORITY = FlatTreeRegressor.of(BerlinNetworkParams_capacity_priority.INSTANCE,
+			BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS);
+	}
+
+	private static final class SpeedFactor {
+		static final FlatTreeRegressor TRAFFIC_LIGHT = FlatTreeRegressor.of(BerlinNetworkParams_speedRelative_traffic_light.INSTANCE,
+			BerlinNetworkParams_speedRelative_traffic_light.DEFAULT_PARAMS);
+		static final FlatTreeRegressor RIGHT_BEFORE_LEFT = FlatTreeRegressor.of(BerlinNetworkParams_speedRelative_right_before_left.INSTANCE,
+			BerlinNetworkParams_speedRelative_right_before_left.DEFAULT_PARAMS);
+		static final FlatTreeRegressor PRIORITY = FlatTreeRegressor.of(BerlinNetworkParams_speedRelative_priority.INSTANCE,
+			BerlinNetworkParams_speedRelative_priority.DEFAULT_PARAMS);
+	}
+
+	@Override
+	public Predictor capacity(String junctionType, String highwayType) {
+		return switch (junctionType) {
+			case "traffic_light" -> Capacity.TRAFFIC_LIGHT;
+			case "right_before_left" -> Capacity.RIGHT_BEFORE_LEFT;
+			case "priority" -> Capacity.PRIORITY;
+			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
+		};
+	}
+
+	@Override
+	public Predictor speedFactor(String junctionType, String highwayType) {
+		return switch (junctionType) {
+			case "traffic_light" -> SpeedFactor.TRAFFIC_LIGHT;
+			case "right_before_left" -> SpeedFactor.RIGHT_BEFORE_LEFT;
+			case "priority" -> SpeedFactor.PRIORITY;
+			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
+		};
+	}
+}
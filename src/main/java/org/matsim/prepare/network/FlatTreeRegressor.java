@@ -0,0 +1,107 @@
+package org.matsim.prepare.network;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import org.matsim.application.prepare.Predictor;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Predictor that evaluates the trees of a generated model from flat arrays instead of the generated code.
+ * Feature extraction is still delegated to the generated model, so both produce the same numbers.
+ */
+public final class FlatTreeRegressor implements Predictor {
+
+	private final Predictor model;
+	private final double[] defaultParams;
+	private final TreeEnsemble trees;
+
+	/**
+	 * Optional scale applied to the score, computed from the feature vector.
+	 */
+	private final ToDoubleFunction<double[]> scale;
+
+	public FlatTreeRegressor(Predictor model, double[] defaultParams, TreeEnsemble trees) {
+		this(model, defaultParams, trees, null);
+	}
+
+	public FlatTreeRegressor(Predictor model, double[] defaultParams, TreeEnsemble trees, ToDoubleFunction<double[]> scale) {
+		this.model = model;
+		this.defaultParams = defaultParams;
+		this.trees = trees;
+		this.scale = scale;
+	}
+
+	/**
+	 * Create a flat regressor by loading the tree file of the generated model.
+	 */
+	public static FlatTreeRegressor of(Predictor model, double[] defaultParams) {
+		return new FlatTreeRegressor(model, defaultParams, TreeEnsemble.load(model.getClass()));
+	}
+
+	@Override
+	public double predict(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories) {
+		return predict(features, categories, defaultParams);
+	}
+
+	@Override
+	public double[] getData(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories) {
+		return model.getData(features, categories);
+	}
+
+	@Override
+	public double predict(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories, double[] params) {
+
+		double[] data = getData(features, categories);
+		for (int i = 0; i < data.length; i++)
+			if (Double.isNaN(data[i])) throw new IllegalArgumentException("Invalid data at index: " + i);
+
+		return predict(data, params);
+	}
+
+	/**
+	 * Predict from an already extracted feature vector.
+	 */
+	public double predict(double[] data, double[] params) {
+		double score = trees.score(data, params);
+		return scale != null ? score * scale.applyAsDouble(data) : score;
+	}
+
+	/**
+	 * Predict many rows at once with the default parameters.
+	 *
+	 * @param features columnar feature matrix, {@code features[feature][row]}. {@code features[f][i]} is entry {@code f} of the vector returned by {@link #getData} for row {@code i}.
+	 * @param out      output array, its length determines the number of rows
+	 */
+	public void predictBatch(double[][] features, double[] out) {
+		predictBatch(features, defaultParams, out);
+	}
+
+	/**
+	 * Predict many rows at once.
+	 *
+	 * @see #predictBatch(double[][], double[])
+	 */
+	public void predictBatch(double[][] features, double[] params, double[] out) {
+
+		for (int f = 0; f < features.length; f++)
+			for (int i = 0; i < out.length; i++)
+				if (Double.isNaN(features[f][i])) throw new IllegalArgumentException("Invalid data at index: " + f + " in row " + i);
+
+		trees.scoreBatch(features, params, out);
+
+		if (scale != null) {
+			double[] row = new double[features.length];
+			for (int i = 0; i < out.length; i++) {
+				for (int f = 0; f < features.length; f++)
+					row[f] = features[f][i];
+
+				out[i] *= scale.applyAsDouble(row);
+			}
+		}
+	}
+
+	public TreeEnsemble getTrees() {
+		return trees;
+	}
+}
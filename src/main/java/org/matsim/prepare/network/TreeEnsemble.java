@@ -0,0 +1,202 @@
+package org.matsim.prepare.network;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Ensemble of regression trees stored in flat primitive arrays.
+ * Nodes are stored in pre-order, so the left child of a split is always the next node.
+ * The trees are read from the {@code .tree} files created by {@code java_to_tree.py} from the generated models.
+ */
+public final class TreeEnsemble {
+
+	/**
+	 * Feature index of a split, -1 for leaves.
+	 */
+	private final int[] feature;
+
+	/**
+	 * The left child is taken if the feature is less or equal than this threshold.
+	 */
+	private final double[] threshold;
+
+	/**
+	 * Index of the right child for splits, index of the leaf value in the params array for leaves.
+	 */
+	private final int[] next;
+
+	/**
+	 * Index of the root node of each tree.
+	 */
+	private final int[] roots;
+
+	private final double init;
+	private final double offset;
+	private final double scale;
+
+	private TreeEnsemble(int[] feature, double[] threshold, int[] next, int[] roots, double init, double offset, double scale) {
+		this.feature = feature;
+		this.threshold = threshold;
+		this.next = next;
+		this.roots = roots;
+		this.init = init;
+		this.offset = offset;
+		this.scale = scale;
+	}
+
+	/**
+	 * Load the tree file that belongs to a generated model class. The file needs to be located in the same package.
+	 */
+	public static TreeEnsemble load(Class<?> model) {
+		String name = model.getSimpleName() + ".tree";
+		try (InputStream in = model.getResourceAsStream(name)) {
+			if (in == null)
+				throw new IllegalArgumentException("Tree file not found: " + name);
+
+			return read(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Read trees from the text representation.
+	 */
+	public static TreeEnsemble read(InputStream in) throws IOException {
+
+		IntArrayList feature = new IntArrayList();
+		DoubleArrayList threshold = new DoubleArrayList();
+		IntArrayList next = new IntArrayList();
+		IntArrayList roots = new IntArrayList();
+
+		double init = 0;
+		double offset = 0;
+		double scale = 1;
+
+		// Splits of which the right child has not been seen yet
+		IntArrayList open = new IntArrayList();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+
+			if (line.isBlank() || line.startsWith("#"))
+				continue;
+
+			String[] s = line.split(" ");
+			switch (s[0]) {
+				case "init" -> init = Double.parseDouble(s[1]);
+				case "offset" -> offset = Double.parseDouble(s[1]);
+				case "scale" -> scale = Double.parseDouble(s[1]);
+				case "tree" -> {
+					if (!open.isEmpty())
+						throw new IllegalStateException("Incomplete tree before node " + feature.size());
+
+					roots.add(feature.size());
+				}
+				case "split", "leaf" -> {
+					if (roots.isEmpty())
+						throw new IllegalStateException("Node outside of a tree: " + line);
+
+					int idx = feature.size();
+
+					// A node that is not the first in its tree and does not follow a split is the right child of the last open split
+					if (idx != roots.getInt(roots.size() - 1) && feature.getInt(idx - 1) == -1) {
+						if (open.isEmpty())
+							throw new IllegalStateException("Too many nodes in tree at: " + line);
+
+						next.set(open.popInt(), idx);
+					}
+
+					if (s[0].equals("split")) {
+						feature.add(Integer.parseInt(s[1]));
+						threshold.add(Double.parseDouble(s[2]));
+						next.add(-1);
+						open.push(idx);
+					} else {
+						feature.add(-1);
+						threshold.add(Double.NaN);
+						next.add(Integer.parseInt(s[1]));
+					}
+				}
+				default -> throw new IllegalArgumentException("Unknown line: " + line);
+			}
+		}
+
+		if (!open.isEmpty())
+			throw new IllegalStateException("Incomplete tree at end of input.");
+
+		return new TreeEnsemble(feature.toIntArray(), threshold.toDoubleArray(), next.toIntArray(), roots.toIntArray(), init, offset, scale);
+	}
+
+	/**
+	 * Number of trees in the ensemble.
+	 */
+	public int getNumTrees() {
+		return roots.length;
+	}
+
+	/**
+	 * Number of nodes of all trees.
+	 */
+	public int getNumNodes() {
+		return feature.length;
+	}
+
+	/**
+	 * Evaluate the ensemble for one feature vector. Gives the same result as the generated score method.
+	 */
+	public double score(double[] input, double[] params) {
+
+		double sum = init;
+		for (int root : roots) {
+			int n = root;
+			int f;
+			while ((f = feature[n]) >= 0) {
+				n = input[f] <= threshold[n] ? n + 1 : next[n];
+			}
+
+			sum += params[next[n]];
+		}
+
+		return (offset + sum) * scale;
+	}
+
+	/**
+	 * Evaluate the ensemble for many rows at once.
+	 *
+	 * @param features columnar feature matrix, {@code features[feature][row]}
+	 * @param params   leaf values
+	 * @param out      output array, its length determines the number of rows
+	 */
+	public void scoreBatch(double[][] features, double[] params, double[] out) {
+
+		Arrays.fill(out, init);
+
+		// Iterate trees in the outer loop, so that the nodes of one tree stay in cache
+		// The summation order per row is the same as in the single row evaluation
+		for (int root : roots) {
+			for (int i = 0; i < out.length; i++) {
+				int n = root;
+				int f;
+				while ((f = feature[n]) >= 0) {
+					n = features[f][i] <= threshold[n] ? n + 1 : next[n];
+				}
+
+				out[i] += params[next[n]];
+			}
+		}
+
+		for (int i = 0; i < out.length; i++) {
+			out[i] = (offset + out[i]) * scale;
+		}
+	}
+}
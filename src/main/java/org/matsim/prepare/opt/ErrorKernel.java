@@ -0,0 +1,163 @@
+package org.matsim.prepare.opt;
+
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Computes the error of all counts and the error change of a plan switch. Uses {@code VectorErrorKernel} if it has been compiled with the
+ * {@code vector} profile ({@code mvn -Pvector}) and the {@code jdk.incubator.vector} module is available (JVM option {@code --add-modules jdk.incubator.vector}).
+ * Falls back to scalar loops otherwise. The vectorized path can be disabled with {@code -Dmatsim.vectorErrors=false}.
+ * <p>
+ * Vector results are summed in a different order and use a different logarithm implementation. They deviate from the scalar results by at most
+ * {@link #TOLERANCE} relative to the total error.
+ */
+final class ErrorKernel {
+
+	/**
+	 * Maximum relative deviation between vectorized and scalar results.
+	 */
+	static final double TOLERANCE = 1e-9;
+
+	/**
+	 * Vectorized kernel, or null if it is not available.
+	 */
+	static final Vectorized VECTOR = loadVector();
+
+	/**
+	 * Whether the vectorized kernels are used.
+	 */
+	static final boolean VECTORIZED = VECTOR != null;
+
+	private static final double C = ScoreCalculator.C;
+
+	private ErrorKernel() {
+	}
+
+	private static Vectorized loadVector() {
+		if (!Boolean.parseBoolean(System.getProperty("matsim.vectorErrors", "true")))
+			return null;
+
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+			return null;
+
+		try {
+			// Not part of the default build, which does not use the incubator module
+			Vectorized kernel = (Vectorized) Class.forName("org.matsim.prepare.opt.VectorErrorKernel").getDeclaredConstructor().newInstance();
+			return kernel.isSupported() ? kernel : null;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Total error over all counts.
+	 */
+	static double error(ErrorMetric metric, int[] counts, int[] observed) {
+		if (VECTORIZED)
+			return VECTOR.error(metric, counts, observed);
+
+		return errorScalar(metric, counts, observed);
+	}
+
+	/**
+	 * Add (sign = 1) or remove (sign = -1) a plan from the observed counts.
+	 *
+	 * @return change of the error
+	 */
+	static double apply(ErrorMetric metric, int[] counts, int[] observed, PlanImpacts impacts, int plan, int sign) {
+		if (VECTORIZED)
+			return VECTOR.apply(metric, counts, observed, impacts, plan, sign);
+
+		return applyScalar(metric, counts, observed, impacts, plan, sign);
+	}
+
+	static double errorScalar(ErrorMetric metric, int[] counts, int[] observed) {
+
+		double error = 0;
+
+		// Log score needs to shift counts by 1.0 to avoid log 0
+
+		switch (metric) {
+			case abs_error -> {
+				for (int j = 0; j < counts.length; j++)
+					error += Math.abs(counts[j] - observed[j]);
+			}
+			case log_error -> {
+				for (int j = 0; j < counts.length; j++)
+					error += FastMath.abs(Math.log((observed[j] + C) / (counts[j] + C)));
+			}
+			case symmetric_percentage_error -> {
+				for (int j = 0; j < counts.length; j++)
+					error += FastMath.abs((double) (observed[j] - counts[j]) / (observed[j] + counts[j] + 2 * C) / 2);
+			}
+		}
+
+		return error;
+	}
+
+	static double applyScalar(ErrorMetric metric, int[] counts, int[] observed, PlanImpacts impacts, int plan, int sign) {
+
+		int[] idx = impacts.idx;
+		int[] delta = impacts.delta;
+		int from = impacts.offsets[plan];
+		int to = impacts.offsets[plan + 1];
+
+		double diff = 0;
+
+		switch (metric) {
+			case abs_error -> {
+				for (int i = from; i < to; i++) {
+					int j = idx[i];
+					int old = observed[j];
+					int update = observed[j] += sign * delta[i];
+					diff += absDiff(counts[j], old, update);
+				}
+			}
+			case log_error -> {
+				for (int i = from; i < to; i++) {
+					int j = idx[i];
+					int old = observed[j];
+					int update = observed[j] += sign * delta[i];
+					diff += logDiff(counts[j], old, update);
+				}
+			}
+			case symmetric_percentage_error -> {
+				for (int i = from; i < to; i++) {
+					int j = idx[i];
+					int old = observed[j];
+					int update = observed[j] += sign * delta[i];
+					diff += spDiff(counts[j], old, update);
+				}
+			}
+		}
+
+		return diff;
+	}
+
+	static double absDiff(int count, int old, int update) {
+		return Math.abs(count - update) - Math.abs(count - old);
+	}
+
+	static double logDiff(int count, int old, int update) {
+		return FastMath.abs(FastMath.log((update + C) / (count + C))) - FastMath.abs(FastMath.log((old + C) / (count + C)));
+	}
+
+	static double spDiff(int count, int old, int update) {
+		return FastMath.abs((double) (update - count) / (update + count + 2 * C) / 2.) -
+			FastMath.abs((double) (old - count) / (old + count + 2 * C) / 2.);
+	}
+
+	/**
+	 * Vectorized implementation of {@link #error(ErrorMetric, int[], int[])} and {@link #apply(ErrorMetric, int[], int[], PlanImpacts, int, int)}.
+	 */
+	interface Vectorized {
+
+		/**
+		 * Whether the hardware provides suitable vector shapes.
+		 */
+		boolean isSupported();
+
+		double error(ErrorMetric metric, int[] counts, int[] observed);
+
+		double apply(ErrorMetric metric, int[] counts, int[] observed, PlanImpacts impacts, int plan, int sign);
+	}
+}
@@ -11,6 +11,7 @@ import org.optaplanner.core.api.score.buildin.simplebigdecimal.SimpleBigDecimalS
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Planning problem containing all entities and information.
@@ -19,6 +20,7 @@ import java.util.*;
 public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 
 	final int[] counts;
+	final PlanImpacts impacts;
 	final ErrorMetric metric;
 	private final int maxK;
 	@PlanningEntityCollectionProperty
@@ -26,10 +28,11 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 	@PlanningScore
 	private SimpleBigDecimalScore score;
 
-	public PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, int[] counts) {
+	public PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, PlanImpacts impacts, int[] counts) {
 		this.maxK = maxK;
 		this.metric = metric;
 		this.persons = persons;
+		this.impacts = impacts;
 		this.counts = counts;
 		this.score = SimpleBigDecimalScore.ofUninitialized(-1, BigDecimal.ZERO);
 
@@ -38,10 +41,12 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 	}
 
 
-	private PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, int[] counts, SimpleBigDecimalScore score) {
+	private PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, PlanImpacts impacts, int[] counts,
+								  SimpleBigDecimalScore score) {
 		this.maxK = maxK;
 		this.metric = metric;
 		this.persons = persons;
+		this.impacts = impacts;
 		this.counts = counts;
 		this.score = score;
 	}
@@ -80,15 +85,46 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 	 * Iterative pre optimization using change plan exp beta logic.
 	 */
 	public void iterate(int n, double prob, double beta, double w) {
+		iterate(n, prob, beta, w, 1);
+	}
+
+	/**
+	 * Iterative pre optimization using change plan exp beta logic.
+	 * With more than one thread, persons are split into one shard per thread. Persons are sorted by difficulty,
+	 * so they are assigned to the shards round-robin to give each shard a similar mix. Shards evaluate their plan switches against
+	 * the observed counts at the start of the sweep, the resulting count changes are merged after all shards are done.
+	 * Results are reproducible for the same number of threads.
+	 */
+	public void iterate(int n, double prob, double beta, double w, int threads) {
 
 		ScoreCalculator calc = new ScoreCalculator();
 		calc.resetWorkingSolution(this);
 		score = calc.calculateScore();
 
-		RunCountOptimization.log.info("Iterating {} iters with prob {} and beta {}", n, prob, beta);
+		RunCountOptimization.log.info("Iterating {} iters with prob {} and beta {} using {} threads", n, prob, beta, threads);
 
 		SplittableRandom rnd = new SplittableRandom(0);
 
+		Shard[] shards = null;
+		ForkJoinPool pool = null;
+		if (threads > 1) {
+			shards = new Shard[threads];
+			for (int i = 0; i < threads; i++) {
+				shards[i] = new Shard(i, threads, rnd.split(), counts.length);
+			}
+			pool = new ForkJoinPool(threads);
+		}
+
+		try {
+			iterate(calc, n, prob, beta, w, rnd, shards, pool);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+	}
+
+	private void iterate(ScoreCalculator calc, int n, double prob, double beta, double w, SplittableRandom rnd, Shard[] shards, ForkJoinPool pool) {
+
 		double step = prob / n;
 
 		double best = score.score().doubleValue();
@@ -96,7 +132,8 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 
 		for (int i = 0; i < n; i++) {
 
-			calc.resetWorkingSolution(this);
+			// Observed counts are updated incrementally, only the error is recomputed to avoid floating point drift
+			calc.recalculateError();
 			score = calc.calculateScore();
 
 			if (i % 100 == 0)
@@ -118,16 +155,83 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 			double p = prob - step * i;
 			double b = beta - (beta / n) * i;
 
+			if (pool != null) {
+				Shard[] all = shards;
+				pool.submit(() -> Arrays.stream(all).parallel().forEach(s -> s.sweep(persons, impacts, calc, p, b, w))).join();
+
+				// Barrier: merge count changes of all shards
+				for (Shard shard : shards) {
+					calc.addObserved(shard.delta);
+				}
+
+				continue;
+			}
+
 			for (PlanPerson person : persons) {
 
 				if (rnd.nextDouble() < p) {
 					person.setScore(calc);
-					person.setK(person.changePlanExpBeta(b, w, rnd));
+					int k = person.changePlanExpBeta(b, w, rnd);
+					if (k != person.getK()) {
+						calc.beforeVariableChanged(person, "k");
+						person.setK(k);
+						calc.afterVariableChanged(person, "k");
+					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Every n-th person starting at an offset, processed by one thread with its own random stream.
+	 */
+	private static final class Shard {
+
+		private final int offset;
+		private final int stride;
+		private final SplittableRandom rnd;
+
+		/**
+		 * Changes of the observed counts during one sweep.
+		 */
+		private final int[] delta;
+
+		Shard(int offset, int stride, SplittableRandom rnd, int size) {
+			this.offset = offset;
+			this.stride = stride;
+			this.rnd = rnd;
+			this.delta = new int[size];
+		}
+
+		/**
+		 * Select new plans for this shard. The calculator is only read, its observed counts stay unchanged during the sweep.
+		 */
+		void sweep(List<PlanPerson> persons, PlanImpacts impacts, ScoreCalculator calc, double p, double b, double w) {
+
+			Arrays.fill(delta, 0);
+
+			for (int i = offset; i < persons.size(); i += stride) {
+				PlanPerson person = persons.get(i);
+
+				if (rnd.nextDouble() < p) {
+					person.setScore(calc);
+					int k = person.changePlanExpBeta(b, w, rnd);
+					if (k != person.getK()) {
+						add(impacts, person.selected(), -1);
+						person.setK(k);
+						add(impacts, person.selected(), 1);
+					}
+				}
+			}
+		}
+
+		private void add(PlanImpacts impacts, int plan, int sign) {
+			for (int i = impacts.offsets[plan]; i < impacts.offsets[plan + 1]; i++) {
+				delta[impacts.idx[i]] += sign * impacts.delta[i];
+			}
+		}
+	}
+
 	/**
 	 * Create a clone of a solution.
 	 */
@@ -138,7 +242,7 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 			for (PlanPerson person : original.persons) {
 				personsCopy.add(person.copy());
 			}
-			return new PlanAssignmentProblem(original.maxK, original.metric, personsCopy, original.counts, original.score);
+			return new PlanAssignmentProblem(original.maxK, original.metric, personsCopy, original.impacts, original.counts, original.score);
 		}
 	}
 
@@ -0,0 +1,104 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Count impacts of all plans, stored in one compressed sparse row layout that is shared by all persons.
+ * The entries of plan {@code p} are located at {@code offsets[p]} until (exclusive) {@code offsets[p + 1]}.
+ */
+public final class PlanImpacts {
+
+	/**
+	 * Start of each plan, with one additional entry at the end.
+	 */
+	final int[] offsets;
+
+	/**
+	 * Index of the affected count.
+	 */
+	final int[] idx;
+
+	/**
+	 * Increment of the count.
+	 */
+	final int[] delta;
+
+	private PlanImpacts(int[] offsets, int[] idx, int[] delta) {
+		this.offsets = offsets;
+		this.idx = idx;
+		this.delta = delta;
+	}
+
+	/**
+	 * Number of plans.
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Number of non-zero entries over all plans.
+	 */
+	public int getNumEntries() {
+		return idx.length;
+	}
+
+	/**
+	 * Sum of all increments of one plan.
+	 */
+	public int sum(int plan) {
+		int sum = 0;
+		for (int i = offsets[plan]; i < offsets[plan + 1]; i++) {
+			sum += delta[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Builder that appends one plan after another.
+	 */
+	public static final class Builder {
+
+		private final IntArrayList offsets = new IntArrayList();
+		private final IntArrayList idx = new IntArrayList();
+		private final IntArrayList delta = new IntArrayList();
+
+		public Builder() {
+			offsets.add(0);
+		}
+
+		/**
+		 * Add a plan with its impact on the counts.
+		 *
+		 * @return index of the added plan
+		 */
+		public int add(Int2IntMap impact) {
+
+			int[] keys = impact.keySet().toIntArray();
+			Arrays.sort(keys);
+
+			for (int key : keys) {
+				idx.add(key);
+				delta.add(impact.get(key));
+			}
+
+			offsets.add(idx.size());
+			return offsets.size() - 2;
+		}
+
+		/**
+		 * Add a plan that does not affect any counts.
+		 */
+		public int addEmpty() {
+			offsets.add(idx.size());
+			return offsets.size() - 2;
+		}
+
+		public PlanImpacts build() {
+			return new PlanImpacts(offsets.toIntArray(), idx.toIntArray(), delta.toIntArray());
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package org.matsim.prepare.opt;
 
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import it.unimi.dsi.fastutil.ints.Int2IntMaps;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.optaplanner.core.api.domain.entity.PlanningEntity;
@@ -18,11 +16,6 @@ import java.util.SplittableRandom;
 @PlanningEntity(difficultyComparatorClass = PlanPerson.DifficultyComparator.class)
 public final class PlanPerson {
 
-	/**
-	 * A plan that does not affect any count stations.
-	 */
-	public static final Int2IntMap NOOP_PLAN = Int2IntMaps.EMPTY_MAP;
-
 	@PlanningId
 	private final Id<Person> id;
 
@@ -38,9 +31,14 @@ public final class PlanPerson {
 	private Integer k;
 
 	/**
-	 * Plans and their count increment.
+	 * Count increments of all plans.
 	 */
-	private final Int2IntMap[] plans;
+	private final PlanImpacts impacts;
+
+	/**
+	 * Index of the first plan of this person in {@link #impacts}.
+	 */
+	private final int firstPlan;
 
 	/**
 	 * Scores of each plan.
@@ -52,17 +50,18 @@ public final class PlanPerson {
 	 */
 	final int maxImpact;
 
-	public PlanPerson(Id<Person> id, int offset, Int2IntMap[] plans) {
+	public PlanPerson(Id<Person> id, int offset, PlanImpacts impacts, int firstPlan, int numPlans) {
 		this.id = id;
 		this.offset = offset;
-		this.plans = plans;
+		this.impacts = impacts;
+		this.firstPlan = firstPlan;
 		this.k = 0;
 
 		int max = 0;
-		for (Int2IntMap plan : plans) {
-			max = Math.max(max, plan.values().intStream().sum());
+		for (int i = 0; i < numPlans; i++) {
+			max = Math.max(max, impacts.sum(firstPlan + i));
 		}
-		this.scores = new double[plans.length];
+		this.scores = new double[numPlans];
 		Arrays.fill(scores, Float.NaN);
 
 		this.maxImpact = max;
@@ -71,11 +70,12 @@ public final class PlanPerson {
 	/**
 	 * Constructor for cloning.
 	 */
-	private PlanPerson(Integer k, Id<Person> id, int offset, Int2IntMap[] plans, double[] scores, int maxImpact) {
+	private PlanPerson(Integer k, Id<Person> id, int offset, PlanImpacts impacts, int firstPlan, double[] scores, int maxImpact) {
 		this.k = k;
 		this.id = id;
 		this.offset = offset;
-		this.plans = plans;
+		this.impacts = impacts;
+		this.firstPlan = firstPlan;
 		this.scores = scores;
 		this.maxImpact = maxImpact;
 	}
@@ -92,14 +92,17 @@ public final class PlanPerson {
 	}
 
 	/**
-	 * Counts of selected maps.
+	 * Index of the selected plan in {@link PlanImpacts}.
 	 */
-	public Int2IntMap selected() {
-		return plans[k];
+	public int selected() {
+		return firstPlan + k;
 	}
 
-	public Int2IntMap get(int idx) {
-		return plans[idx];
+	/**
+	 * Index of the plan with given number in {@link PlanImpacts}.
+	 */
+	public int get(int idx) {
+		return firstPlan + idx;
 	}
 
 	public void setK(int k) {
@@ -111,19 +114,8 @@ public final class PlanPerson {
 	}
 
 	public void setScore(ScoreCalculator calc) {
-
-
-		for (int i = 0; i < plans.length; i++) {
-
-			double score = 0;
-
-			Int2IntMap p = plans[i];
-
-			for (Int2IntMap.Entry e : p.int2IntEntrySet()) {
-				score += calc.scoreEntry(e);
-			}
-
-			scores[i] = score;
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = calc.scorePlan(impacts, firstPlan + i);
 		}
 	}
 
@@ -156,7 +148,7 @@ public final class PlanPerson {
 	}
 
 	PlanPerson copy() {
-		return new PlanPerson(k, id, offset, plans, scores, maxImpact);
+		return new PlanPerson(k, id, offset, impacts, firstPlan, scores, maxImpact);
 	}
 
 	/**
@@ -2,6 +2,8 @@ package org.matsim.prepare.opt;
 
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import org.apache.commons.csv.CSVPrinter;
@@ -14,20 +16,25 @@ import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.CsvOptions;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
 import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.counts.Counts;
 import org.matsim.counts.MatsimCountsReader;
 import org.matsim.counts.Measurable;
 import org.matsim.counts.MeasurementLocation;
 import org.matsim.prepare.RunOpenBerlinCalibration;
+import org.matsim.prepare.counts.LinkCountTable;
 import org.optaplanner.core.api.solver.Solver;
 import org.optaplanner.core.api.solver.SolverFactory;
 import picocli.CommandLine;
 
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 @CommandLine.Command(name = "run-count-opt", description = "Select plans to match counts data")
@@ -64,6 +71,9 @@ public class RunCountOptimization implements MATSimAppCommand {
 	@CommandLine.Option(names = "--k", description = "Number of plans to use from each agent", defaultValue = "5")
 	private int maxK;
 
+	@CommandLine.Option(names = "--threads", description = "Number of threads for reading the population and the pre-optimization", defaultValue = "1")
+	private int threads;
+
 	@CommandLine.Mixin
 	private CsvOptions csv;
 
@@ -71,6 +81,11 @@ public class RunCountOptimization implements MATSimAppCommand {
 
 	private PlanAssignmentProblem problem;
 
+	/**
+	 * Count impacts of all plans, filled during {@link #processPopulation(Path, Network)}.
+	 */
+	private PlanImpacts impacts;
+
 	public static void main(String[] args) {
 		new RunCountOptimization().execute(args);
 	}
@@ -107,11 +122,11 @@ public class RunCountOptimization implements MATSimAppCommand {
 
 		Network network = NetworkUtils.readNetwork(networkPath.toString());
 
-		List<PlanPerson> persons = processPopulation(input, network, linkCounts);
+		List<PlanPerson> persons = processPopulation(input, network);
 
-		problem = new PlanAssignmentProblem(maxK, metric, persons, counts);
+		problem = new PlanAssignmentProblem(maxK, metric, persons, impacts, counts);
 
-		log.info("Collected {} relevant plans", persons.size());
+		log.info("Collected {} relevant plans with {} count entries", persons.size(), impacts.getNumEntries());
 
 		if (allCar)
 			log.info("Scaled counts by car factor of {}", RunOpenBerlinCalibration.CAR_FACTOR);
@@ -123,7 +138,7 @@ public class RunCountOptimization implements MATSimAppCommand {
 			case symmetric_percentage_error -> 300;
 		};
 
-		problem.iterate(5000, 0.5, beta, 0.01);
+		problem.iterate(5000, 0.5, beta, 0.01, threads);
 
 		PlanAssignmentProblem solution = solve(problem);
 
@@ -140,104 +155,199 @@ public class RunCountOptimization implements MATSimAppCommand {
 	}
 
 	/**
-	 * Create an array for each person.
+	 * Put an entry into the queue, fails if any worker has stopped, because then the queue might never be drained.
+	 * Workers only stop after the end marker, which is put into a queue that can not be full at this point.
 	 */
-	private List<PlanPerson> processPopulation(Path input, Network network, Counts<Link> linkCounts) {
+	private static void put(BlockingQueue<ParsedPerson> queue, ParsedPerson p, List<Future<?>> futures) throws InterruptedException {
+		while (!queue.offer(p, 100, TimeUnit.MILLISECONDS)) {
+			for (Future<?> f : futures) {
+				if (!f.isDone())
+					continue;
+
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Error while processing population", e.getCause());
+				}
 
-		Population population = PopulationUtils.readPopulation(input.toString());
-		List<PlanPerson> persons = new ArrayList<>();
+				throw new IllegalStateException("Worker stopped before the population was read");
+			}
+		}
+	}
 
-		Set<Id<Link>> links = linkCounts.getMeasureLocations().keySet();
+	/**
+	 * Create an array for each person. The population is streamed, persons are processed on worker threads while parsing continues
+	 * and are discarded afterward.
+	 */
+	private List<PlanPerson> processPopulation(Path input, Network network) throws InterruptedException {
+
+		LinkCountTable table = LinkCountTable.create(network, linkMapping);
+
+		int workers = Math.max(1, threads);
+		BlockingQueue<ParsedPerson> queue = new ArrayBlockingQueue<>(workers * 1024);
+
+		// Each worker collects its own results, which are merged in input order afterward
+		List<List<ProcessedPerson>> results = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<?>> futures = new ArrayList<>();
+
+		for (int i = 0; i < workers; i++) {
+			List<ProcessedPerson> result = new ArrayList<>();
+			results.add(result);
+			futures.add(executor.submit(() -> {
+				while (true) {
+					ParsedPerson p = queue.take();
+					if (p.person == null)
+						break;
+
+					Int2IntMap[] plans = processPerson(p.person, table);
+					if (plans != null)
+						result.add(new ProcessedPerson(p.seq, p.person.getId(), plans));
+				}
+				return null;
+			}));
+		}
 
-		SplittableRandom rnd = new SplittableRandom(0);
+		StreamingPopulationReader reader = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
 
-		for (Person person : population.getPersons().values()) {
+		AtomicInteger seq = new AtomicInteger();
+		reader.addAlgorithm(person -> {
+			try {
+				put(queue, new ParsedPerson(seq.getAndIncrement(), person), futures);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while reading population", e);
+			}
+		});
 
-			int scale = (int) (1 / sampleSize);
+		boolean completed = false;
+		try {
+			reader.readFile(input.toString());
+			for (int i = 0; i < workers; i++) {
+				put(queue, new ParsedPerson(-1, null), futures);
+			}
+			completed = true;
+		} finally {
+			// Workers may be blocked on the queue if reading failed
+			if (completed)
+				executor.shutdown();
+			else
+				executor.shutdownNow();
+		}
 
-			Int2IntMap[] plans = new Int2IntMap[maxK];
-			for (int i = 0; i < plans.length; i++) {
-				plans[i] = new Int2IntOpenHashMap();
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Error while processing population", e.getCause());
 			}
+		}
 
-			boolean keep = false;
+		List<ProcessedPerson> processed = new ArrayList<>();
+		results.forEach(processed::addAll);
+		processed.sort(Comparator.comparingInt(ProcessedPerson::seq));
 
-			int offset = 0;
+		PlanImpacts.Builder builder = new PlanImpacts.Builder();
+		IntList firstPlans = new IntArrayList();
 
-			// commercial traffic is scaled here
-			if (!person.getId().toString().startsWith("person")) {
-				// if other trips have been scaled, these unscaled trips are scaled as well
-				if (allCar)
-					// scale with mean of CAR_FACTOR
-					scale *= RunOpenBerlinCalibration.CAR_FACTOR;
+		for (ProcessedPerson p : processed) {
+			firstPlans.add(builder.add(p.plans[0]));
+			for (int i = 1; i < p.plans.length; i++) {
+				builder.add(p.plans[i]);
 			}
+		}
+
+		impacts = builder.build();
+
+		List<PlanPerson> persons = new ArrayList<>(processed.size());
+		for (int i = 0; i < processed.size(); i++) {
+			persons.add(new PlanPerson(processed.get(i).id, 0, impacts, firstPlans.getInt(i), maxK));
+		}
+
+		return persons;
+	}
+
+	/**
+	 * Compute count increments of each plan of a person.
+	 *
+	 * @return plan impacts or null if the person does not pass any count station.
+	 */
+	private Int2IntMap[] processPerson(Person person, LinkCountTable table) {
+
+		int scale = (int) (1 / sampleSize);
+
+		Int2IntMap[] plans = new Int2IntMap[maxK];
+		for (int i = 0; i < plans.length; i++) {
+			plans[i] = new Int2IntOpenHashMap();
+		}
+
+		boolean keep = false;
+
+		int offset = 0;
+
+		// commercial traffic is scaled here
+		if (!person.getId().toString().startsWith("person")) {
+			// if other trips have been scaled, these unscaled trips are scaled as well
+			if (allCar)
+				// scale with mean of CAR_FACTOR
+				scale *= RunOpenBerlinCalibration.CAR_FACTOR;
+		}
+
+		// Index for plan
+		int k = offset;
+		for (Plan plan : person.getPlans()) {
 
-			// Index for plan
-			int k = offset;
-			for (Plan plan : person.getPlans()) {
+			if (k >= maxK)
+				break;
 
-				if (k >= maxK)
-					break;
+			for (PlanElement el : plan.getPlanElements()) {
+				if (el instanceof Leg leg) {
 
-				for (PlanElement el : plan.getPlanElements()) {
-					if (el instanceof Leg leg) {
+					Object networkMode = leg.getAttributes().getAttribute("networkMode");
+					if (!Objects.equals(networkMode, this.networkMode))
+						continue;
 
-						Object networkMode = leg.getAttributes().getAttribute("networkMode");
-						if (!Objects.equals(networkMode, this.networkMode))
-							continue;
+					if (leg.getRoute() instanceof NetworkRoute route) {
+						double travelTime = leg.getTravelTime().orElseThrow(() -> new IllegalStateException("No travel time for leg"));
+						List<Id<Link>> linkIds = route.getLinkIds();
 
-						if (leg.getRoute() instanceof NetworkRoute route) {
-							double travelTime = leg.getTravelTime().orElseThrow(() -> new IllegalStateException("No travel time for leg"));
-							double freeTravelTime = route.getLinkIds().stream()
-								.map(id -> network.getLinks().get(id))
-								// Use ceil because traversal over links is always whole seconds during simulation
-								.mapToDouble(l -> Math.ceil(l.getLength() / l.getFreespeed()))
-								.sum();
+						// Table uses ceil because traversal over links is always whole seconds during simulation
+						double freeTravelTime = table.getFreeTravelTime(linkIds);
 
-							boolean relevant = route.getLinkIds().stream().anyMatch(links::contains);
+						boolean relevant = table.hasStation(linkIds);
 
-							// The actual travel time per link is not known
-							// The overall deviation is applied to all links equally
-							double factor = travelTime / freeTravelTime;
+						// The actual travel time per link is not known
+						// The overall deviation is applied to all links equally
+						double factor = travelTime / freeTravelTime;
 
-							double time = leg.getDepartureTime().seconds();
+						double time = leg.getDepartureTime().seconds();
 
-							if (relevant) {
-								keep = true;
-								for (Id<Link> linkId : route.getLinkIds()) {
+						if (relevant) {
+							keep = true;
+							for (int i = 0; i < linkIds.size(); i++) {
 
-									Link link = network.getLinks().get(linkId);
+								int link = linkIds.get(i).index();
 
-									// Assume free speed travel time
-									time += Math.ceil(link.getLength() / link.getFreespeed()) * factor;
+								// Assume free speed travel time
+								time += table.getFreeTravelTime(link) * factor;
 
-									if (linkMapping.containsKey(linkId)) {
-										int idx = linkMapping.getInt(linkId);
-										int hour = (int) Math.floor(time / 3600);
-										if (hour >= H)
-											continue;
+								int idx = table.getStation(link);
+								if (idx >= 0) {
+									int hour = (int) Math.floor(time / 3600);
+									if (hour >= H)
+										continue;
 
-										plans[k].merge(idx * H + hour, scale, Integer::sum);
-									}
+									plans[k].merge(idx * H + hour, scale, Integer::sum);
 								}
 							}
 						}
 					}
 				}
-				k++;
-			}
-
-			if (keep) {
-				for (int i = 0; i < plans.length; i++) {
-					if (plans[i].isEmpty())
-						plans[i] = PlanPerson.NOOP_PLAN;
-				}
-
-				persons.add(new PlanPerson(person.getId(), offset, plans));
 			}
+			k++;
 		}
 
-		return persons;
+		return keep ? plans : null;
 	}
 
 	private PlanAssignmentProblem solve(PlanAssignmentProblem problem) {
@@ -261,4 +371,13 @@ public class RunCountOptimization implements MATSimAppCommand {
 
 		return solver.solve(problem);
 	}
+
+	/**
+	 * Person handed from the reader to the workers, a null person signals the end of the input.
+	 */
+	private record ParsedPerson(int seq, Person person) {
+	}
+
+	private record ProcessedPerson(int seq, Id<Person> id, Int2IntMap[] plans) {
+	}
 }
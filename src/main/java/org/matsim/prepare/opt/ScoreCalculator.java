@@ -1,8 +1,6 @@
 package org.matsim.prepare.opt;
 
 
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import org.apache.commons.math3.util.FastMath;
 import org.optaplanner.core.api.score.buildin.simplebigdecimal.SimpleBigDecimalScore;
 import org.optaplanner.core.api.score.calculator.IncrementalScoreCalculator;
 
@@ -13,7 +11,7 @@ import java.math.BigDecimal;
  */
 public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAssignmentProblem, SimpleBigDecimalScore> {
 
-	private static final double C = 15.0;
+	static final double C = 15.0;
 	/**
 	 * Error metric.
 	 */
@@ -30,16 +28,20 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 
 	private ErrorMetric metric;
 
+	/**
+	 * Count impacts of all plans.
+	 */
+	private PlanImpacts impacts;
+
 	static double diffChange(ErrorMetric err, int count, int old, int update) {
 
 		// Floating point arithmetic still leads to score corruption in full assert mode
 		// logarithm can not even be efficiently calculated using big decimal, the corruption needs to be accepted as this point
 
 		return switch (err) {
-			case abs_error -> Math.abs(count - update) - Math.abs(count - old);
-			case log_error -> FastMath.abs(FastMath.log((update + C) / (count + C))) - FastMath.abs(FastMath.log((old + C) / (count + C)));
-			case symmetric_percentage_error -> FastMath.abs((double) (update - count) / (update + count + 2 * C) / 2.) -
-					FastMath.abs((double) (old - count) / (old + count + 2 * C) / 2.);
+			case abs_error -> ErrorKernel.absDiff(count, old, update);
+			case log_error -> ErrorKernel.logDiff(count, old, update);
+			case symmetric_percentage_error -> ErrorKernel.spDiff(count, old, update);
 		};
 	}
 
@@ -50,33 +52,42 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 		observed = new int[problem.counts.length];
 		counts = problem.counts;
 		metric = problem.metric;
+		impacts = problem.impacts;
+
+		int[] offsets = impacts.offsets;
+		int[] idx = impacts.idx;
+		int[] delta = impacts.delta;
 
 		for (PlanPerson person : problem) {
-			for (Int2IntMap.Entry e : person.selected().int2IntEntrySet()) {
-				observed[e.getIntKey()] += e.getIntValue();
+			int plan = person.selected();
+			for (int i = offsets[plan]; i < offsets[plan + 1]; i++) {
+				observed[idx[i]] += delta[i];
 			}
 		}
 
 		calcScoreInternal();
 	}
 
-	private void calcScoreInternal() {
-		error = 0;
-
-		// Log score needs to shift counts by 1.0 to avoid log 0
-
-		if (metric == ErrorMetric.abs_error)
-			for (int j = 0; j < counts.length; j++)
-				error += Math.abs(counts[j] - observed[j]);
-		else if (metric == ErrorMetric.log_error)
-			for (int j = 0; j < counts.length; j++)
-				error += FastMath.abs(Math.log((observed[j] + C) / (counts[j] + C)));
-		else if (metric == ErrorMetric.symmetric_percentage_error) {
-			for (int j = 0; j < counts.length; j++)
-				error += FastMath.abs((double) (observed[j] - counts[j]) / (observed[j] + counts[j] + 2 * C) / 2);
+	/**
+	 * Add changes to the observed counts. The error is not updated, {@link #recalculateError()} needs to be called afterward.
+	 */
+	void addObserved(int[] delta) {
+		for (int j = 0; j < delta.length; j++) {
+			observed[j] += delta[j];
 		}
 	}
 
+	/**
+	 * Recompute the error from the current observed counts, which removes accumulated floating point drift of the incremental updates.
+	 */
+	void recalculateError() {
+		calcScoreInternal();
+	}
+
+	private void calcScoreInternal() {
+		error = ErrorKernel.error(metric, counts, observed);
+	}
+
 	@Override
 	public void beforeEntityAdded(Object entity) {
 	}
@@ -92,13 +103,7 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 		PlanPerson person = (PlanPerson) entity;
 
 		// remove this persons plan from the calculation
-		for (Int2IntMap.Entry e : person.selected().int2IntEntrySet()) {
-
-			int old = observed[e.getIntKey()];
-			int update = observed[e.getIntKey()] -= e.getIntValue();
-
-			error += diffChange(metric, counts[e.getIntKey()], old, update);
-		}
+		error += ErrorKernel.apply(metric, counts, observed, impacts, person.selected(), -1);
 
 	}
 
@@ -109,13 +114,7 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 		PlanPerson person = (PlanPerson) entity;
 
 		// add this persons contribution to the score
-		for (Int2IntMap.Entry e : person.selected().int2IntEntrySet()) {
-
-			int old = observed[e.getIntKey()];
-			int update = observed[e.getIntKey()] += e.getIntValue();
-
-			error += diffChange(metric, counts[e.getIntKey()], old, update);
-		}
+		error += ErrorKernel.apply(metric, counts, observed, impacts, person.selected(), 1);
 	}
 
 	@Override
@@ -132,13 +131,24 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 		return SimpleBigDecimalScore.of(BigDecimal.valueOf(-error));
 	}
 
-	double scoreEntry(Int2IntMap.Entry e) {
+	/**
+	 * Score of one plan, i.e. the sum of its entry scores.
+	 */
+	double scorePlan(PlanImpacts impacts, int plan) {
+
+		double score = 0;
+		for (int i = impacts.offsets[plan]; i < impacts.offsets[plan + 1]; i++) {
+			score += scoreEntry(impacts.idx[i], impacts.delta[i]);
+		}
+
+		return score;
+	}
 
-		int idx = e.getIntKey();
+	double scoreEntry(int idx, int value) {
 
 		// Calculate impact compared to a plan without the observations of this plan
 		// old can not get negative
 
-		return -diffChange(metric, counts[idx], Math.max(0, observed[idx] - e.getIntValue()), observed[idx]);
+		return -diffChange(metric, counts[idx], Math.max(0, observed[idx] - value), observed[idx]);
 	}
 }
@@ -0,0 +1,85 @@
+package org.matsim.prepare.population;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.SplittableRandom;
+
+/**
+ * Alias table (Vose's method) for a fixed set of weights. Construction is O(n), each sample is O(1).
+ * Use this for candidate sets that are sampled many times without changes.
+ */
+public final class AliasSampler implements WeightedSampler {
+
+	private final double[] prob;
+	private final int[] alias;
+
+	public AliasSampler(double[] weights) {
+
+		int n = weights.length;
+		double total = 0;
+		for (double w : weights) {
+			if (w < 0 || Double.isNaN(w))
+				throw new IllegalArgumentException("Weights must not be negative: " + w);
+
+			total += w;
+		}
+
+		if (n == 0 || total <= 0)
+			throw new IllegalArgumentException("At least one weight must be positive.");
+
+		prob = new double[n];
+		alias = new int[n];
+
+		double[] scaled = new double[n];
+		IntArrayList small = new IntArrayList();
+		IntArrayList large = new IntArrayList();
+
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1)
+				small.push(i);
+			else
+				large.push(i);
+		}
+
+		while (!small.isEmpty() && !large.isEmpty()) {
+			int s = small.popInt();
+			int l = large.popInt();
+
+			prob[s] = scaled[s];
+			alias[s] = l;
+
+			scaled[l] = (scaled[l] + scaled[s]) - 1;
+			if (scaled[l] < 1)
+				small.push(l);
+			else
+				large.push(l);
+		}
+
+		// Remaining entries are 1 up to numerical errors
+		while (!large.isEmpty()) {
+			int l = large.popInt();
+			prob[l] = 1;
+			alias[l] = l;
+		}
+
+		while (!small.isEmpty()) {
+			int s = small.popInt();
+			prob[s] = 1;
+			alias[s] = s;
+		}
+	}
+
+	@Override
+	public int sample(SplittableRandom rnd) {
+		int i = rnd.nextInt(prob.length);
+		return rnd.nextDouble() < prob[i] ? i : alias[i];
+	}
+
+	/**
+	 * Number of entries.
+	 */
+	public int size() {
+		return prob.length;
+	}
+}
@@ -0,0 +1,87 @@
+package org.matsim.prepare.population;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.triangulate.polygon.PolygonTriangulator;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Samples points uniformly within an area. The area is triangulated once, triangles are chosen by their area
+ * and points are drawn uniformly within the triangle, so that each sample takes constant time without any rejection.
+ */
+final class AreaSampler {
+
+	/**
+	 * Corners of all triangles, six values per triangle.
+	 */
+	private final double[] corners;
+	private final AliasSampler triangles;
+
+	AreaSampler(Geometry area) {
+
+		double[] c = new double[0];
+		double[] areas = new double[0];
+		int n = 0;
+
+		for (int i = 0; i < area.getNumGeometries(); i++) {
+			if (!(area.getGeometryN(i) instanceof Polygon polygon) || polygon.isEmpty())
+				continue;
+
+			Geometry tris = PolygonTriangulator.triangulate(polygon);
+			int size = n + tris.getNumGeometries();
+			if (size > areas.length) {
+				// Grow geometrically, areas may consist of many small polygons
+				int capacity = Math.max(size, 2 * areas.length);
+				c = Arrays.copyOf(c, capacity * 6);
+				areas = Arrays.copyOf(areas, capacity);
+			}
+
+			for (int j = 0; j < tris.getNumGeometries(); j++) {
+				Coordinate[] p = tris.getGeometryN(j).getCoordinates();
+				c[n * 6] = p[0].x;
+				c[n * 6 + 1] = p[0].y;
+				c[n * 6 + 2] = p[1].x;
+				c[n * 6 + 3] = p[1].y;
+				c[n * 6 + 4] = p[2].x;
+				c[n * 6 + 5] = p[2].y;
+				areas[n] = Math.abs((p[1].x - p[0].x) * (p[2].y - p[0].y) - (p[2].x - p[0].x) * (p[1].y - p[0].y)) / 2;
+				n++;
+			}
+		}
+
+		if (n == 0)
+			throw new IllegalArgumentException("Area has no polygon to sample from.");
+
+		corners = Arrays.copyOf(c, n * 6);
+		triangles = new AliasSampler(Arrays.copyOf(areas, n));
+	}
+
+	/**
+	 * Draw a uniformly distributed point within the area.
+	 */
+	Coord sample(SplittableRandom rnd) {
+
+		int t = triangles.sample(rnd) * 6;
+
+		double u = rnd.nextDouble();
+		double v = rnd.nextDouble();
+
+		// Reflect points of the other half of the parallelogram back into the triangle
+		if (u + v > 1) {
+			u = 1 - u;
+			v = 1 - v;
+		}
+
+		double x0 = corners[t];
+		double y0 = corners[t + 1];
+
+		return new Coord(
+			x0 + u * (corners[t + 2] - x0) + v * (corners[t + 4] - x0),
+			y0 + u * (corners[t + 3] - y0) + v * (corners[t + 5] - y0)
+		);
+	}
+}
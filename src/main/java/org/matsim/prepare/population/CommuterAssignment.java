@@ -1,5 +1,6 @@
 package org.matsim.prepare.population;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.*;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -15,32 +16,69 @@ import org.geotools.api.feature.simple.SimpleFeature;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.Map;
 import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Helper class for commuter assignment.
+ * The commuter matrix is stored in compressed rows (CSR), remaining commuters are updated lock-free.
  */
 public class CommuterAssignment {
 
 	private static final Logger log = LogManager.getLogger(CommuterAssignment.class);
 
-	private final Map<Long, SimpleFeature> zones;
+	/**
+	 * Fixed-point scale of the quotas.
+	 */
+	private static final long SCALE = 1_000_000;
+
+	private static final ThreadLocal<IntArrayList> PERMUTATION = ThreadLocal.withInitial(IntArrayList::new);
+
+	/**
+	 * Index of the origin row in {@link #offsets}.
+	 */
+	private final Long2IntMap origins;
+
+	/**
+	 * Start of the destinations of each origin, with one additional entry at the end.
+	 */
+	private final int[] offsets;
 
 	/**
-	 * Outgoing commuter from ars to ars.
+	 * Destination ars, sorted within each origin.
 	 */
-	private final Long2ObjectMap<Long2DoubleMap> commuter;
+	private final long[] destinations;
+
+	/**
+	 * Geometry of the destination, null if the zone is not known.
+	 */
+	private final Geometry[] geometries;
+
+	/**
+	 * Remaining outgoing commuters from origin to destination, in fixed-point representation.
+	 */
+	private final AtomicLongArray quota;
+
+	/**
+	 * Quotas before any assignment.
+	 */
+	private final long[] initial;
+
+	/**
+	 * Amount subtracted from the quota for each assigned commuter.
+	 */
+	private final long decrement;
 
 	private final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
-	private final double sample;
 
 	public CommuterAssignment(Long2ObjectMap<SimpleFeature> zones, Path commuterPath, double sample) {
-		this.sample = sample;
 
-		// outgoing commuters
-		this.commuter = new Long2ObjectOpenHashMap<>();
-		this.zones = zones;
+		this.decrement = Math.round(SCALE / sample);
+		this.origins = new Long2IntOpenHashMap();
+		origins.defaultReturnValue(-1);
+
+		// outgoing commuters, sorted for deterministic order
+		Long2ObjectSortedMap<Long2DoubleSortedMap> commuter = new Long2ObjectAVLTreeMap<>();
 
 		// read commuters
 		try (CSVParser parser = csv.createParser(commuterPath)) {
@@ -55,13 +93,53 @@ public class CommuterAssignment {
 				}
 
 				String n = row.get("n");
-				commuter.computeIfAbsent(from, k -> Long2DoubleMaps.synchronize(new Long2DoubleOpenHashMap()))
+				commuter.computeIfAbsent(from, k -> new Long2DoubleAVLTreeMap())
 					.mergeDouble(to, Integer.parseInt(n), Double::sum);
 			}
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 
+		int n = commuter.values().stream().mapToInt(Long2DoubleSortedMap::size).sum();
+
+		offsets = new int[commuter.size() + 1];
+		destinations = new long[n];
+		geometries = new Geometry[n];
+		initial = new long[n];
+
+		int row = 0;
+		int i = 0;
+		for (Long2ObjectMap.Entry<Long2DoubleSortedMap> e : commuter.long2ObjectEntrySet()) {
+			origins.put(e.getLongKey(), row);
+			offsets[row++] = i;
+
+			for (Long2DoubleMap.Entry dest : e.getValue().long2DoubleEntrySet()) {
+				SimpleFeature ft = zones.get(dest.getLongKey());
+
+				destinations[i] = dest.getLongKey();
+				geometries[i] = ft != null ? (Geometry) ft.getDefaultGeometry() : null;
+				initial[i] = Math.round(dest.getDoubleValue() * SCALE);
+				i++;
+			}
+		}
+
+		offsets[row] = i;
+		quota = new AtomicLongArray(initial);
+
+		log.info("Read {} commuter relations from {} origins", n, commuter.size());
+	}
+
+	/**
+	 * Create a copy with the initial quotas of another assignment. The commuter matrix itself is shared.
+	 */
+	public CommuterAssignment(CommuterAssignment other) {
+		this.origins = other.origins;
+		this.offsets = other.offsets;
+		this.destinations = other.destinations;
+		this.geometries = other.geometries;
+		this.decrement = other.decrement;
+		this.quota = new AtomicLongArray(other.initial);
+		this.initial = other.initial;
 	}
 
 	/**
@@ -72,26 +150,35 @@ public class CommuterAssignment {
 	 */
 	public ActivityFacility selectTarget(SplittableRandom rnd, long ars, double dist, Point refPoint, Sampler f) {
 
-		// Commute in same zone
-		Long2DoubleMap comms = commuter.get(ars);
-		if (!commuter.containsKey(ars) || comms.isEmpty())
+		int row = origins.get(ars);
+		if (row < 0)
 			return null;
 
-		LongList entries;
-		synchronized (comms) {
-			entries = new LongArrayList(comms.keySet());
+		int start = offsets[row];
+		int n = offsets[row + 1] - start;
+
+		// Destinations are visited in random order, the permutation is drawn lazily
+		IntArrayList perm = PERMUTATION.get();
+		perm.size(n);
+		for (int i = 0; i < n; i++) {
+			perm.set(i, start + i);
 		}
 
-		while (!entries.isEmpty()) {
-			long key = entries.removeLong(rnd.nextInt(entries.size()));
+		for (int remaining = n; remaining > 0; remaining--) {
 
-			SimpleFeature ft = zones.get(key);
+			int k = rnd.nextInt(remaining);
+			int idx = perm.getInt(k);
+			perm.set(k, perm.getInt(remaining - 1));
 
-			// TODO: should maybe not be allowed
-			if (ft == null)
+			// No commuters left
+			if (quota.get(idx) <= 0)
 				continue;
 
-			Geometry zone = (Geometry) ft.getDefaultGeometry();
+			Geometry zone = geometries[idx];
+
+			// TODO: should maybe not be allowed
+			if (zone == null)
+				continue;
 
 			// Zones too far away don't need to be considered
 			if (zone.distance(refPoint) > dist * 1.2)
@@ -99,33 +186,31 @@ public class CommuterAssignment {
 
 			ActivityFacility res = f.sample(zone);
 
-			if (res != null) {
-				synchronized (comms) {
-					double old = comms.get(key);
-
-					// Check if other thread reduced the counter while computing
-					// result needs to be thrown away
-					if (old <= 0) {
-						comms.remove(key);
-						continue;
-					}
-
-					// subtract available commuters
-					double newValue = old - (1 / sample);
-					comms.put(key, newValue);
-
-					if (newValue <= 0)
-						comms.remove(key);
-				}
-
+			// subtract available commuters, unless another thread used them up while computing
+			if (res != null && acquire(idx))
 				return res;
-			}
 		}
 
-
 		return null;
 	}
 
+	/**
+	 * Try to subtract one commuter from the quota.
+	 *
+	 * @return false if no commuters were left
+	 */
+	private boolean acquire(int idx) {
+		long old;
+		do {
+			old = quota.get(idx);
+			if (old <= 0)
+				return false;
+
+		} while (!quota.compareAndSet(idx, old, old - decrement));
+
+		return true;
+	}
+
 	/**
 	 * Sample locations from specific zone.
 	 */
@@ -7,7 +7,6 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.api.feature.simple.SimpleFeature;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
@@ -22,7 +21,6 @@ import org.matsim.core.population.PersonUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.scenario.ProjectionUtils;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.core.utils.geometry.transformations.GeotoolsTransformation;
 import org.matsim.prepare.RunOpenBerlinCalibration;
 import org.matsim.run.OpenBerlinScenario;
@@ -34,6 +32,8 @@ import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 @CommandLine.Command(
@@ -45,6 +45,12 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 	private static final NumberFormat FMT = NumberFormat.getInstance(Locale.GERMAN);
 
 	private static final Logger log = LogManager.getLogger(CreateBerlinPopulation.class);
+
+	/**
+	 * Number of bits of generated ids reserved for the zone.
+	 */
+	private static final int ZONE_BITS = 12;
+
 	private final CoordinateTransformation ct = new GeotoolsTransformation("EPSG:25833", "EPSG:25832");
 	@CommandLine.Option(names = "--input", description = "Path to input csv data", required = true)
 	private Path input;
@@ -58,8 +64,10 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 	private int year;
 	@CommandLine.Option(names = "--sample", description = "Sample size to generate", defaultValue = "0.25")
 	private double sample;
+	@CommandLine.Option(names = "--threads", description = "Number of threads for generating LORs")
+	private int threads = Runtime.getRuntime().availableProcessors();
 	private Map<String, MultiPolygon> lors;
-	private SplittableRandom rnd;
+	private List<String> zones;
 	private Population population;
 
 	public static void main(String[] args) {
@@ -67,44 +75,33 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 	}
 
 	/**
-	 * Generate a new unique id within population.
+	 * Generate an id that is unique for each zone and person number. The number is scrambled bijectively,
+	 * so that ids look random, but no check against already existing ids is needed.
+	 *
+	 * @param zone   index of the zone, must be smaller than 4096
+	 * @param number running number of the person within the zone
 	 */
-	public static Id<Person> generateId(Population population, String prefix, SplittableRandom rnd) {
+	public static Id<Person> generateId(String prefix, int zone, int number) {
 
-		Id<Person> id;
-		byte[] bytes = new byte[4];
-		do {
-			rnd.nextBytes(bytes);
-			id = Id.createPersonId(prefix + "_" + HexFormat.of().formatHex(bytes));
+		if (zone < 0 || zone >= 1 << ZONE_BITS || number < 0 || number >= 1 << (32 - ZONE_BITS))
+			throw new IllegalArgumentException("Can not generate id for person %d in zone %d".formatted(number, zone));
 
-		} while (population.getPersons().containsKey(id));
+		// Finalizer of murmur3, every step is invertible
+		int x = ((zone << (32 - ZONE_BITS)) | number) ^ 0x5bd1e995;
+		x ^= x >>> 16;
+		x *= 0x85ebca6b;
+		x ^= x >>> 13;
+		x *= 0xc2b2ae35;
+		x ^= x >>> 16;
 
-		return id;
+		return Id.createPersonId(prefix + "_" + HexFormat.of().toHexDigits(x));
 	}
 
 	/**
 	 * Samples a home coordinates from geometry and landuse.
 	 */
 	public static Coord sampleHomeCoordinate(MultiPolygon geometry, String crs, FacilityOptions facilities, SplittableRandom rnd) {
-
-		Envelope bbox = geometry.getEnvelopeInternal();
-
-		int i = 0;
-		Coord coord;
-		do {
-			coord = facilities.select(crs, () -> new Coord(
-				bbox.getMinX() + (bbox.getMaxX() - bbox.getMinX()) * rnd.nextDouble(),
-				bbox.getMinY() + (bbox.getMaxY() - bbox.getMinY()) * rnd.nextDouble()
-			));
-
-			i++;
-
-		} while (!geometry.contains(MGC.coord2Point(coord)) && i < 1500);
-
-		if (i == 1500)
-			log.warn("Invalid coordinate generated");
-
-		return RunOpenBerlinCalibration.roundCoord(coord);
+		return RunOpenBerlinCalibration.roundCoord(facilities.sample(crs, geometry, rnd));
 	}
 
 	@Override
@@ -118,7 +115,6 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 
 		List<SimpleFeature> fts = shp.readFeatures();
 
-		rnd = new SplittableRandom(0);
 		lors = new HashMap<>();
 		population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
 
@@ -130,25 +126,41 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 			lors.put((String) ft.getAttribute(key), (MultiPolygon) ft.getDefaultGeometry());
 		}
 
+		// Index of each LOR in generated ids
+		zones = lors.keySet().stream().sorted().toList();
+
 		log.info("Found {} LORs", lors.size());
 
 		CSVFormat.Builder format = CSVFormat.DEFAULT.builder().setDelimiter(';').setHeader().setSkipHeaderRecord(true);
 
+		List<CSVRecord> rows;
 		try (CSVParser reader = new CSVParser(Files.newBufferedReader(input, Charset.forName("windows-1252")), format.build())) {
+			rows = reader.getRecords().stream()
+				.filter(row -> Integer.parseInt(row.get("Jahr")) == year)
+				.toList();
+		}
 
-			for (CSVRecord row : ProgressBar.wrap(reader.getRecords(), "Processing LORs")) {
-
-				int year = Integer.parseInt(row.get("Jahr"));
-				if (this.year != year)
-					continue;
+		// Each LOR is generated independently, results are collected in order of the rows
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			List<Future<List<Person>>> results = new ArrayList<>();
+			for (CSVRecord row : rows) {
+				results.add(pool.submit(() -> {
+					try {
+						return processLOR(row);
+					} catch (RuntimeException e) {
+						log.error("Error processing lor", e);
+						log.error(row.toString());
+						return List.of();
+					}
+				}));
+			}
 
-				try {
-					processLOR(row);
-				} catch (RuntimeException e) {
-					log.error("Error processing lor", e);
-					log.error(row.toString());
-				}
+			for (Future<List<Person>> result : ProgressBar.wrap(results, "Processing LORs")) {
+				result.get().forEach(population::addPerson);
 			}
+		} finally {
+			pool.shutdown();
 		}
 
 		log.info("Generated {} persons", population.getPersons().size());
@@ -161,7 +173,10 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 		return 0;
 	}
 
-	private void processLOR(CSVRecord row) throws ParseException {
+	/**
+	 * Generate all persons of one LOR. Results only depend on the row and the LOR id, which is also used as seed.
+	 */
+	private List<Person> processLOR(CSVRecord row) throws ParseException {
 
 		String raumID = row.get("RaumID");
 		int n = Integer.parseInt(row.get("Einwohnerinnen und Einwohner (EW) insgesamt"));
@@ -192,10 +207,13 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 
 		if (!lors.containsKey(raumID)) {
 			log.warn("LOR {} not found", raumID);
-			return;
+			return List.of();
 		}
 
 		MultiPolygon geom = lors.get(raumID);
+		int zone = Collections.binarySearch(zones, raumID);
+		SplittableRandom rnd = new SplittableRandom(raumID.hashCode());
+		List<Person> persons = new ArrayList<>();
 
 		PopulationFactory f = population.getFactory();
 
@@ -205,7 +223,7 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 
 		for (int i = 0; i < n * sample; i++) {
 
-			Person person = f.createPerson(generateId(population, "berlin", rnd));
+			Person person = f.createPerson(generateId("berlin", zone, i));
 			PersonUtils.setSex(person, sex.sample());
 			PopulationUtils.putSubpopulation(person, "person");
 
@@ -237,8 +255,10 @@ public class CreateBerlinPopulation implements MATSimAppCommand {
 			person.addPlan(plan);
 			person.setSelectedPlan(plan);
 
-			population.addPerson(person);
+			persons.add(person);
 		}
+
+		return persons;
 	}
 
 	private enum AgeGroup {
@@ -26,10 +26,9 @@ import org.geotools.api.feature.simple.SimpleFeature;
 import picocli.CommandLine;
 
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.SplittableRandom;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -59,6 +58,9 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 	@CommandLine.Option(names = "--sample", description = "Sample size to generate", defaultValue = "0.25")
 	private double sample;
 
+	@CommandLine.Option(names = "--threads", description = "Number of threads for generating zones")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	@CommandLine.Mixin
 	private ShpOptions shp = new ShpOptions();
 
@@ -67,9 +69,13 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 
 	private final CsvOptions csv = new CsvOptions(CSVFormat.Predefined.Default);
 
-	private SplittableRandom rnd;
 	private Population population;
 
+	/**
+	 * Index of each zone in generated ids.
+	 */
+	private List<String> codes;
+
 	private Map<Integer, Employment> employed;
 
 	public static void main(String[] args) {
@@ -94,12 +100,15 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 
 		Set<String> found = new HashSet<>();
 
-		rnd = new SplittableRandom(0);
 		population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		codes = zones.keySet().stream().sorted().toList();
+
+		// Rows are grouped by Landkreis, because all Gemeinden within one share the same employment statistic
+		Map<Integer, List<Row>> rows = new TreeMap<>();
 
 		try (CSVParser parser = csv.createParser(stats)) {
 
-			for (CSVRecord row : ProgressBar.wrap(parser.getRecords(), "Processing persons")) {
+			for (CSVRecord row : parser.getRecords()) {
 
 				String code = row.get("code");
 
@@ -108,14 +117,41 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 					code += "000";
 
 				if (zones.containsKey(code)) {
-
-					addPersons(row, code, (String) zones.get(code).getAttribute("ARS"), (MultiPolygon) zones.get(code).getDefaultGeometry());
+					rows.computeIfAbsent(Integer.parseInt(code.substring(0, code.length() - 3)), k -> new ArrayList<>())
+						.add(new Row(row, code));
 
 					found.add(code);
 				}
 			}
 		}
 
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			List<Future<List<Person>>> results = new ArrayList<>();
+			for (List<Row> group : rows.values()) {
+				results.add(pool.submit(() -> {
+
+					Map<String, Zone> state = new HashMap<>();
+					List<Person> persons = new ArrayList<>();
+
+					for (Row r : group) {
+						SimpleFeature ft = zones.get(r.code());
+						Zone zone = state.computeIfAbsent(r.code(), c -> new Zone(Collections.binarySearch(codes, c), new SplittableRandom(c.hashCode())));
+
+						addPersons(r.row(), r.code(), (String) ft.getAttribute("ARS"), (MultiPolygon) ft.getDefaultGeometry(), zone, persons);
+					}
+
+					return persons;
+				}));
+			}
+
+			for (Future<List<Person>> result : ProgressBar.wrap(results, "Processing persons")) {
+				result.get().forEach(population::addPerson);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
 		for (Map.Entry<String, SimpleFeature> zone : zones.entrySet()) {
 			if (!found.contains(zone.getKey()))
 				log.warn("Zone not found in population statistic: {} ({})", zone.getValue().getAttribute("GEN"), zone.getKey());
@@ -132,9 +168,9 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 	}
 
 	/**
-	 * Add number of persons to the population according to entry.
+	 * Add number of persons to the list according to entry.
 	 */
-	private void addPersons(CSVRecord r, String code, String ars, MultiPolygon geom) {
+	private void addPersons(CSVRecord r, String code, String ars, MultiPolygon geom, Zone zone, List<Person> persons) {
 
 		int n = Integer.parseInt(r.get("n"));
 
@@ -160,7 +196,7 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 
 		for (int i = 0; i < n * sample; i++) {
 
-			Person person = f.createPerson(generateId(population, "bb", rnd));
+			Person person = f.createPerson(generateId("bb", zone.index, zone.persons++));
 
 			int age = ageDist.sample();
 
@@ -171,7 +207,7 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 			// All persons will be employed until employed population is empty.
 			PersonUtils.setEmployed(person, employed.subtract(1 / sample, age));
 
-			Coord coord = CreateBerlinPopulation.sampleHomeCoordinate(geom, OpenBerlinScenario.CRS, facilities, rnd);
+			Coord coord = CreateBerlinPopulation.sampleHomeCoordinate(geom, OpenBerlinScenario.CRS, facilities, zone.rnd);
 
 			person.getAttributes().putAttribute(Attributes.HOME_X, coord.getX());
 			person.getAttributes().putAttribute(Attributes.HOME_Y, coord.getY());
@@ -185,8 +221,26 @@ public class CreateBrandenburgPopulation implements MATSimAppCommand {
 			person.addPlan(plan);
 			person.setSelectedPlan(plan);
 
-			population.addPerson(person);
+			persons.add(person);
+
+		}
+	}
+
+	private record Row(CSVRecord row, String code) {
+	}
+
+	/**
+	 * Generation state of one Gemeinde, which is seeded by its code.
+	 */
+	private static final class Zone {
+
+		private final int index;
+		private final SplittableRandom rnd;
+		private int persons;
 
+		private Zone(int index, SplittableRandom rnd) {
+			this.index = index;
+			this.rnd = rnd;
 		}
 	}
 
@@ -0,0 +1,276 @@
+package org.matsim.prepare.population;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.prepare.facilities.AttributedActivityFacility;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Uniform grid over the facilities of one activity type. Coordinates, ids and cumulative weights are stored in packed arrays sorted by cell,
+ * so that queries don't need to allocate any objects.
+ */
+final class FacilityGrid {
+
+	/**
+	 * Default cell size in meter.
+	 */
+	static final double CELL_SIZE = 1000;
+
+	private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int nx;
+	private final int ny;
+
+	/**
+	 * Start of each cell in the facility arrays, has one additional entry at the end.
+	 */
+	private final int[] cellStart;
+
+	private final double[] x;
+	private final double[] y;
+
+	/**
+	 * Facility ids, i.e. the index in {@link FacilityIndex#facilities}.
+	 */
+	private final int[] ids;
+
+	/**
+	 * Cumulative weights in the same order as the facilities, with a leading 0.
+	 */
+	private final double[] cumWork;
+	private final double[] cumOther;
+
+	/**
+	 * Create grid for given facilities.
+	 *
+	 * @param facilities all facilities
+	 * @param members    index of the facilities of this type
+	 */
+	FacilityGrid(AttributedActivityFacility[] facilities, IntList members, double cellSize) {
+
+		int n = members.size();
+
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < n; i++) {
+			Coord c = facilities[members.getInt(i)].getCoord();
+			x0 = Math.min(x0, c.getX());
+			y0 = Math.min(y0, c.getY());
+			x1 = Math.max(x1, c.getX());
+			y1 = Math.max(y1, c.getY());
+		}
+
+		if (n == 0) {
+			x0 = y0 = x1 = y1 = 0;
+		}
+
+		this.minX = x0;
+		this.minY = y0;
+		this.cellSize = cellSize;
+		this.nx = (int) ((x1 - x0) / cellSize) + 1;
+		this.ny = (int) ((y1 - y0) / cellSize) + 1;
+
+		// Counting sort by cell
+		int[] cells = new int[n];
+		this.cellStart = new int[nx * ny + 1];
+		for (int i = 0; i < n; i++) {
+			Coord c = facilities[members.getInt(i)].getCoord();
+			cells[i] = cell(c.getX(), c.getY());
+			cellStart[cells[i] + 1]++;
+		}
+
+		for (int i = 0; i < nx * ny; i++) {
+			cellStart[i + 1] += cellStart[i];
+		}
+
+		int[] pos = Arrays.copyOf(cellStart, nx * ny);
+
+		this.x = new double[n];
+		this.y = new double[n];
+		this.ids = new int[n];
+		this.cumWork = new double[n + 1];
+		this.cumOther = new double[n + 1];
+
+		for (int i = 0; i < n; i++) {
+			int p = pos[cells[i]]++;
+			AttributedActivityFacility af = facilities[members.getInt(i)];
+			x[p] = af.getCoord().getX();
+			y[p] = af.getCoord().getY();
+			ids[p] = members.getInt(i);
+			cumWork[p + 1] = af.getWorkAttraction();
+			cumOther[p + 1] = af.getOtherAttraction();
+		}
+
+		for (int i = 0; i < n; i++) {
+			cumWork[i + 1] += cumWork[i];
+			cumOther[i + 1] += cumOther[i];
+		}
+	}
+
+	private int cell(double cx, double cy) {
+		int ix = (int) ((cx - minX) / cellSize);
+		int iy = (int) ((cy - minY) / cellSize);
+		return iy * nx + ix;
+	}
+
+	/**
+	 * Number of facilities in this grid.
+	 */
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Collect all facilities with distance in [minDist, maxDist] to the given coordinate.
+	 *
+	 * @param result reusable list, will be cleared
+	 */
+	void query(double cx, double cy, double minDist, double maxDist, IntArrayList result) {
+
+		result.clear();
+
+		double min2 = minDist * minDist;
+		double max2 = maxDist * maxDist;
+
+		int ix0 = Math.max(0, (int) Math.floor((cx - maxDist - minX) / cellSize));
+		int ix1 = Math.min(nx - 1, (int) Math.floor((cx + maxDist - minX) / cellSize));
+		int iy0 = Math.max(0, (int) Math.floor((cy - maxDist - minY) / cellSize));
+		int iy1 = Math.min(ny - 1, (int) Math.floor((cy + maxDist - minY) / cellSize));
+
+		for (int iy = iy0; iy <= iy1; iy++) {
+			for (int ix = ix0; ix <= ix1; ix++) {
+				int c = iy * nx + ix;
+				for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+					double d2 = dist2(cx, cy, x[i], y[i]);
+					if (d2 >= min2 && d2 <= max2)
+						result.add(ids[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sample a facility with distance in [minDist, maxDist] to the given coordinate, weighted by attraction.
+	 * Cells that are fully contained in the annulus are sampled using their cumulative weights without looking at single facilities.
+	 *
+	 * @return facility id or -1 if there is no facility with positive weight.
+	 */
+	int sampleByWeight(double cx, double cy, double minDist, double maxDist, boolean work, SplittableRandom rnd) {
+
+		double[] cum = work ? cumWork : cumOther;
+		Buffer buf = BUFFER.get();
+		buf.clear();
+
+		double min2 = minDist * minDist;
+		double max2 = maxDist * maxDist;
+
+		int ix0 = Math.max(0, (int) Math.floor((cx - maxDist - minX) / cellSize));
+		int ix1 = Math.min(nx - 1, (int) Math.floor((cx + maxDist - minX) / cellSize));
+		int iy0 = Math.max(0, (int) Math.floor((cy - maxDist - minY) / cellSize));
+		int iy1 = Math.min(ny - 1, (int) Math.floor((cy + maxDist - minY) / cellSize));
+
+		for (int iy = iy0; iy <= iy1; iy++) {
+
+			double y0 = minY + iy * cellSize;
+			double dy = Math.max(0, Math.max(y0 - cy, cy - y0 - cellSize));
+			double fy = Math.max(Math.abs(cy - y0), Math.abs(cy - y0 - cellSize));
+
+			for (int ix = ix0; ix <= ix1; ix++) {
+				int c = iy * nx + ix;
+				int start = cellStart[c];
+				int end = cellStart[c + 1];
+				if (start == end)
+					continue;
+
+				double x0 = minX + ix * cellSize;
+				double dx = Math.max(0, Math.max(x0 - cx, cx - x0 - cellSize));
+				double fx = Math.max(Math.abs(cx - x0), Math.abs(cx - x0 - cellSize));
+
+				// Nearest and farthest point of the cell
+				double near = dx * dx + dy * dy;
+				double far = fx * fx + fy * fy;
+
+				if (near > max2 || far < min2)
+					continue;
+
+				if (near >= min2 && far <= max2) {
+					buf.add(start, end, cum[end] - cum[start]);
+				} else {
+					for (int i = start; i < end; i++) {
+						double d2 = dist2(cx, cy, x[i], y[i]);
+						if (d2 >= min2 && d2 <= max2)
+							buf.add(i, i + 1, cum[i + 1] - cum[i]);
+					}
+				}
+			}
+		}
+
+		if (buf.size == 0 || buf.total <= 0)
+			return -1;
+
+		double r = rnd.nextDouble(0, buf.total);
+		int e = Arrays.binarySearch(buf.cum, 0, buf.size, r);
+		// First entry with cumulative weight > r
+		e = e < 0 ? -e - 1 : e + 1;
+		e = Math.min(e, buf.size - 1);
+
+		int from = buf.from[e];
+		int to = buf.to[e];
+
+		if (to - from == 1)
+			return ids[from];
+
+		// Position within the cell
+		double target = cum[from] + r - (e > 0 ? buf.cum[e - 1] : 0);
+		int i = Arrays.binarySearch(cum, from + 1, to + 1, target);
+		i = i < 0 ? -i - 1 : i + 1;
+
+		return ids[Math.max(from, Math.min(i - 1, to - 1))];
+	}
+
+	private static double dist2(double x0, double y0, double x1, double y1) {
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Reusable per thread buffer of sampling candidates. Each entry is a range of facilities with their total weight.
+	 */
+	private static final class Buffer {
+
+		private int[] from = new int[256];
+		private int[] to = new int[256];
+		private double[] cum = new double[256];
+		private int size;
+		private double total;
+
+		void clear() {
+			size = 0;
+			total = 0;
+		}
+
+		void add(int start, int end, double weight) {
+			if (size == from.length) {
+				from = Arrays.copyOf(from, size * 2);
+				to = Arrays.copyOf(to, size * 2);
+				cum = Arrays.copyOf(cum, size * 2);
+			}
+
+			total += weight;
+			from[size] = start;
+			to[size] = end;
+			cum[size] = total;
+			size++;
+		}
+	}
+}
@@ -1,10 +1,9 @@
 package org.matsim.prepare.population;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.index.strtree.STRtree;
-import org.matsim.api.core.v01.Id;
-import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.facilities.FacilitiesUtils;
@@ -15,7 +14,6 @@ import org.matsim.run.OpenBerlinScenario;
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Spatial index for facilities.
@@ -26,33 +24,37 @@ final class FacilityIndex {
 
 	final ActivityFacilities all = FacilitiesUtils.createActivityFacilities();
 
+	/**
+	 * All facilities, the position in this array is used as facility id in the grids.
+	 */
+	final AttributedActivityFacility[] facilities;
+
 	/**
 	 * Maps activity type to spatial index.
 	 */
-	final Map<String, STRtree> index = new HashMap<>();
+	final Map<String, FacilityGrid> index = new HashMap<>();
 
 	FacilityIndex(String facilityPath) {
 
 		new MatsimFacilitiesReader(OpenBerlinScenario.CRS, OpenBerlinScenario.CRS, all)
 			.readFile(facilityPath);
 
-		Set<String> activities = all.getFacilities().values().stream()
-			.flatMap(a -> a.getActivityOptions().keySet().stream())
-			.collect(Collectors.toSet());
-
-		log.info("Found activity types: {}", activities);
+		facilities = all.getFacilities().values().stream()
+			.map(AttributedActivityFacility::new)
+			.toArray(AttributedActivityFacility[]::new);
 
-		for (String act : activities) {
-
-			NavigableMap<Id<ActivityFacility>, ActivityFacility> afs = all.getFacilitiesForActivityType(act);
-			for (ActivityFacility af : afs.values()) {
-				STRtree idx = this.index.computeIfAbsent(act, k -> new STRtree());
-				idx.insert(MGC.coord2Point(af.getCoord()).getEnvelopeInternal(), new AttributedActivityFacility(af));
+		Map<String, IntList> members = new HashMap<>();
+		for (int i = 0; i < facilities.length; i++) {
+			for (String act : facilities[i].getActivityOptions().keySet()) {
+				members.computeIfAbsent(act, k -> new IntArrayList()).add(i);
 			}
 		}
 
-		// Build all trees
-		index.values().forEach(STRtree::build);
+		log.info("Found activity types: {}", members.keySet());
+
+		for (Map.Entry<String, IntList> e : members.entrySet()) {
+			index.put(e.getKey(), new FacilityGrid(facilities, e.getValue(), FacilityGrid.CELL_SIZE));
+		}
 	}
 
 	/**
@@ -85,35 +87,48 @@ final class FacilityIndex {
 	public static ActivityFacility sampleByWeightWithRejection(List<AttributedActivityFacility> candidates, Predicate<ActivityFacility> filter,
 															   Function<AttributedActivityFacility, Double> getter, SplittableRandom rnd) {
 
-		double totalWeight = 0;
 		double[] weights = new double[candidates.size()];
-
 		for (int i = 0; i < candidates.size(); i++) {
-			double w = getter.apply(candidates.get(i));
-			totalWeight += w;
-			weights[i] = totalWeight;
+			weights[i] = getter.apply(candidates.get(i));
+		}
+
+		FenwickSampler sampler = new FenwickSampler(weights);
+
+		int idx;
+		while ((idx = sampler.sample(rnd)) >= 0) {
+			AttributedActivityFacility af = candidates.get(idx);
+			if (filter.test(af))
+				return af;
+
+			sampler.remove(idx);
 		}
 
+		return null;
+	}
+
+	/**
+	 * Samples from facility ids using work or other attraction until one option is not rejected.
+	 *
+	 * @param candidates facility ids as returned by {@link FacilityGrid#query}
+	 * @return null if all options are rejected
+	 */
+	public ActivityFacility sampleByWeightWithRejection(IntList candidates, Predicate<ActivityFacility> filter, boolean work, SplittableRandom rnd) {
+
+		double[] weights = new double[candidates.size()];
 		for (int i = 0; i < candidates.size(); i++) {
-			double r = rnd.nextDouble(0, totalWeight);
-			int idx = Arrays.binarySearch(weights, r);
+			AttributedActivityFacility af = facilities[candidates.getInt(i)];
+			weights[i] = work ? af.getWorkAttraction() : af.getOtherAttraction();
+		}
 
-			if (idx < 0) {
-				idx = -idx - 1;
-			}
+		FenwickSampler sampler = new FenwickSampler(weights);
 
-			AttributedActivityFacility af = candidates.get(idx);
-			if (filter.test(af)) {
+		int idx;
+		while ((idx = sampler.sample(rnd)) >= 0) {
+			AttributedActivityFacility af = facilities[candidates.getInt(idx)];
+			if (filter.test(af))
 				return af;
-			} else {
-				double w = getter.apply(af);
-				totalWeight -= w;
-
-				// Update weights
-				for (int j = idx; j < weights.length; j++) {
-					weights[j] -= w;
-				}
-			}
+
+			sampler.remove(idx);
 		}
 
 		return null;
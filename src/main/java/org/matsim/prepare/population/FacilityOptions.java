@@ -2,14 +2,26 @@ package org.matsim.prepare.population;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.api.referencing.operation.TransformException;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.application.options.ShpOptions;
 import picocli.CommandLine;
 
-import javax.annotation.Nullable;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.function.Supplier;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Options to work with facility shape file.
@@ -24,62 +36,95 @@ public class FacilityOptions {
 	@CommandLine.Option(names = "--facilities-attr", description = "Type of facilities to use", defaultValue = "resident")
 	private String attr;
 
-	@CommandLine.Option(names = "--facilities-iters", description = "Maximum number of points to generate trying to fit into landuse", defaultValue = "2000")
-	private int iters;
+	/**
+	 * Landuse geometries in the query crs.
+	 */
+	private STRtree landuse;
 
 	/**
-	 * Holds the index of geometries.
+	 * Samplers for each zone, created on first use.
 	 */
-	private ShpOptions.Index index;
+	private final Map<Geometry, AreaSampler> samplers = new ConcurrentHashMap<>();
 
 	/**
-	 * Create an index of landuse shapes.
+	 * @deprecated points are sampled directly within the landuse, there are no retries anymore
 	 */
-	@Nullable
-	public synchronized ShpOptions.Index getIndex(String queryCRS) {
+	@Deprecated
+	@CommandLine.Option(names = "--facilities-iters", description = "Not used anymore", hidden = true)
+	void setIters(int iters) {
+		log.warn("Option --facilities-iters is deprecated and has no effect, points are sampled directly within the landuse");
+	}
 
-		if (index != null)
-			return index;
+	/**
+	 * Read all landuse geometries and transform them into the query crs.
+	 */
+	private synchronized STRtree getLanduse(String queryCRS) {
 
+		if (landuse != null)
+			return landuse;
 
 		ShpOptions shp = ShpOptions.ofLayer(facilityPath.toString(), null);
 
-		index = shp.createIndex(queryCRS, attr, ft -> Boolean.TRUE.equals(ft.getAttribute(attr))
-			|| Objects.equals(ft.getAttribute(attr), 1));
+		MathTransform transform;
+		try {
+			String shapeCRS = shp.getShapeCrs();
+			transform = shapeCRS == null || shapeCRS.equals(queryCRS) ? null :
+				CRS.findMathTransform(CRS.decode(shapeCRS, true), CRS.decode(queryCRS, true));
+		} catch (FactoryException e) {
+			throw new IllegalStateException("Could not transform landuse to " + queryCRS, e);
+		}
+
+		STRtree tree = new STRtree();
+		for (SimpleFeature ft : shp.readFeatures()) {
+			if (!Boolean.TRUE.equals(ft.getAttribute(attr)) && !Objects.equals(ft.getAttribute(attr), 1))
+				continue;
+
+			Geometry geom = (Geometry) ft.getDefaultGeometry();
+			try {
+				if (transform != null)
+					geom = JTS.transform(geom, transform);
+			} catch (TransformException e) {
+				throw new IllegalStateException("Could not transform landuse to " + queryCRS, e);
+			}
+
+			tree.insert(geom.getEnvelopeInternal(), geom);
+		}
+
+		tree.build();
+		landuse = tree;
 
-		log.info("Read {} features for {} facilities", index.size(), attr);
+		log.info("Read {} landuse geometries for sampling {} facilities", tree.size(), attr);
 
-		return index;
+		return landuse;
 	}
 
 	/**
-	 * Tries to select a point that lies within one of the geometries of the index.
-	 * Will try at least {@link #iters} times, after which the last point is returned even if not within a geometry.
-	 * When no landuse is configured the first point is returned.
+	 * Sample a point uniformly within the landuse inside a zone. Zones without any landuse are sampled entirely.
+	 * This is equivalent to rejection sampling against the landuse, but needs no retries.
 	 *
-	 * @param queryCRS crs of the generated coordinates
-	 * @param genCoord function to generate a new point
+	 * @param queryCRS crs of the zone and the generated coordinates
 	 */
-	public Coord select(String queryCRS, Supplier<Coord> genCoord) {
-
-		ShpOptions.Index index = getIndex(queryCRS);
-
-		Coord coord;
-		int i = 0;
-		do {
-			coord = genCoord.get();
-			i++;
+	public Coord sample(String queryCRS, Geometry zone, SplittableRandom rnd) {
+		return samplers.computeIfAbsent(zone, z -> createSampler(queryCRS, z)).sample(rnd);
+	}
 
-			if (index != null) {
-				// if the point is in any of the shapes we keep it
-				if (index.contains(coord))
-					break;
-			}
+	@SuppressWarnings("unchecked")
+	private AreaSampler createSampler(String queryCRS, Geometry zone) {
 
-			// regenerate points if there is an index
-		} while (i <= iters && index != null);
+		List<Geometry> parts = new ArrayList<>();
+		for (Geometry g : (List<Geometry>) getLanduse(queryCRS).query(zone.getEnvelopeInternal())) {
+			// Invalid landuse shapes are repaired, which does not change their area
+			Geometry valid = g.isValid() ? g : g.buffer(0);
+			if (valid.intersects(zone))
+				parts.add(valid.intersection(zone));
+		}
 
+		Geometry area = UnaryUnionOp.union(parts);
+		if (area == null || area.getArea() <= 0) {
+			log.warn("Zone without {} landuse, sampling the whole zone", attr);
+			area = zone;
+		}
 
-		return coord;
+		return new AreaSampler(area);
 	}
 }
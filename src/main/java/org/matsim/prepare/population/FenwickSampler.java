@@ -0,0 +1,131 @@
+package org.matsim.prepare.population;
+
+import java.util.SplittableRandom;
+
+/**
+ * Weighted sampler backed by a Fenwick tree, which allows to change or remove weights in O(log n).
+ * Use this for sampling without replacement, e.g. when rejected candidates have to be removed.
+ */
+public final class FenwickSampler implements WeightedSampler {
+
+	/**
+	 * One based Fenwick tree of partial sums.
+	 */
+	private final double[] tree;
+	private final double[] weights;
+	private final int highestBit;
+
+	/**
+	 * Number of entries with positive weight.
+	 */
+	private int remaining;
+
+	public FenwickSampler(double[] weights) {
+
+		int n = weights.length;
+		this.weights = new double[n];
+		this.tree = new double[n + 1];
+		this.highestBit = n == 0 ? 0 : Integer.highestOneBit(n);
+
+		for (int i = 0; i < n; i++) {
+			double w = weights[i];
+			if (w < 0 || Double.isNaN(w))
+				throw new IllegalArgumentException("Weights must not be negative: " + w);
+
+			this.weights[i] = w;
+			this.tree[i + 1] += w;
+			if (w > 0)
+				remaining++;
+
+			// Build in O(n) by pushing each sum to its parent
+			int parent = (i + 1) + Integer.lowestOneBit(i + 1);
+			if (parent <= n)
+				tree[parent] += tree[i + 1];
+		}
+	}
+
+	@Override
+	public int sample(SplittableRandom rnd) {
+
+		if (remaining == 0)
+			return -1;
+
+		double total = getTotal();
+		if (total <= 0)
+			return -1;
+
+		double r = rnd.nextDouble(0, total);
+
+		// Descend the tree to find the first index where the cumulative weight is larger than r
+		int pos = 0;
+		for (int step = highestBit; step > 0; step >>= 1) {
+			int next = pos + step;
+			if (next < tree.length && tree[next] <= r) {
+				pos = next;
+				r -= tree[next];
+			}
+		}
+
+		// Numerical errors may lead past the last entry or onto removed ones
+		int idx = Math.min(pos, weights.length - 1);
+		while (idx > 0 && weights[idx] <= 0)
+			idx--;
+		while (weights[idx] <= 0)
+			idx++;
+
+		return idx;
+	}
+
+	/**
+	 * Change the weight of an entry.
+	 */
+	public void set(int idx, double weight) {
+		if (weight < 0 || Double.isNaN(weight))
+			throw new IllegalArgumentException("Weights must not be negative: " + weight);
+
+		double old = weights[idx];
+		if (old > 0 && weight <= 0)
+			remaining--;
+		else if (old <= 0 && weight > 0)
+			remaining++;
+
+		weights[idx] = weight;
+
+		double delta = weight - old;
+		for (int i = idx + 1; i < tree.length; i += Integer.lowestOneBit(i)) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Remove an entry, so that it will not be sampled anymore.
+	 */
+	public void remove(int idx) {
+		set(idx, 0);
+	}
+
+	/**
+	 * Sum of all current weights.
+	 */
+	public double getTotal() {
+		double sum = 0;
+		for (int i = tree.length - 1; i > 0; i -= Integer.lowestOneBit(i)) {
+			sum += tree[i];
+		}
+		return Math.max(0, sum);
+	}
+
+	/**
+	 * Number of entries with positive weight.
+	 */
+	public int getRemaining() {
+		return remaining;
+	}
+
+	/**
+	 * Number of entries.
+	 */
+	public int size() {
+		return weights.length;
+	}
+}
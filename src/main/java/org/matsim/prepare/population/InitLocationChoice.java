@@ -1,5 +1,6 @@
 package org.matsim.prepare.population;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import me.tongfei.progressbar.ProgressBar;
@@ -7,33 +8,38 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.api.feature.simple.SimpleFeature;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.index.strtree.STRtree;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.TransportMode;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationWriter;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.ShpOptions;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.algorithms.ParallelPersonAlgorithmUtils;
 import org.matsim.core.population.algorithms.PersonAlgorithm;
+import org.matsim.core.population.io.StreamingPopulationReader;
 import org.matsim.core.router.TripStructureUtils;
-import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.prepare.RunOpenBerlinCalibration;
-import org.matsim.prepare.facilities.AttributedActivityFacility;
 import picocli.CommandLine;
 
 import java.math.BigInteger;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -56,6 +62,11 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 	 */
 	private static final double DETOUR_FACTOR_SHORT = 1.3;
 
+	/**
+	 * Relative width of the rings around the target distance, in which eligible links are sampled.
+	 */
+	private static final double[] LINK_TOLERANCE = {0.05, 0.2};
+
 	private static final Logger log = LogManager.getLogger(InitLocationChoice.class);
 
 	@CommandLine.Option(names = "--input", description = "Path to input population.")
@@ -82,6 +93,9 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 	@CommandLine.Option(names = "--seed", description = "Seed used to sample locations", defaultValue = "1")
 	private long seed;
 
+	@CommandLine.Option(names = "--single-pass", description = "Read the population once and generate all choices per person, output is written while reading.")
+	private boolean singlePass;
+
 	@CommandLine.Mixin
 	private ShpOptions shp;
 
@@ -93,12 +107,22 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 
 	private Network network;
 
+	/**
+	 * Index of links that are eligible for activities.
+	 */
+	private LinkIndex links;
+
 	private AtomicLong total = new AtomicLong();
 
 	private AtomicLong warning = new AtomicLong();
 
 	private ProgressBar pb;
 
+	/**
+	 * Reusable buffer for facility queries.
+	 */
+	private final ThreadLocal<IntArrayList> candidates = ThreadLocal.withInitial(IntArrayList::new);
+
 	public static void main(String[] args) {
 		new InitLocationChoice().execute(args);
 	}
@@ -114,7 +138,7 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 		return travelDist * 1000 / detourFactor;
 	}
 
-	private static Coord rndCoord(SplittableRandom rnd, double dist, Coord origin) {
+	static Coord rndCoord(SplittableRandom rnd, double dist, Coord origin) {
 		double angle = rnd.nextDouble() * Math.PI * 2;
 
 		double x = Math.cos(angle) * dist;
@@ -136,6 +160,8 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 		network = NetworkUtils.createNetwork();
 		filter.filter(network, Set.of(TransportMode.car));
 
+		links = new LinkIndex(network, l -> !IGNORED_LINK_TYPES.contains(NetworkUtils.getType(l)), 500);
+
 		facilities = new FacilityIndex(facilityPath.toString());
 
 		zones = new Long2ObjectOpenHashMap<>(shp.readFeatures().stream()
@@ -145,6 +171,11 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 
 		log.info("Using input file: {}", input);
 
+		if (singlePass) {
+			runSinglePass();
+			return 0;
+		}
+
 		List<Population> populations = new ArrayList<>();
 
 		for (int i = 0; i < k; i++) {
@@ -191,29 +222,137 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 		return 0;
 	}
 
+	/**
+	 * Generate all choices while streaming the population. Each choice uses its own seed and commuter quotas,
+	 * the same as one round of the default mode.
+	 */
+	private void runSinglePass() {
+
+		long[] seeds = new long[k];
+		CommuterAssignment[] assignments = new CommuterAssignment[k];
+
+		CommuterAssignment template = new CommuterAssignment(zones, commuterPath, sample);
+		long s = seed;
+		for (int i = 0; i < k; i++) {
+			seeds[i] = s;
+			assignments[i] = i == 0 ? template : new CommuterAssignment(template);
+			// same seed increments as in the default mode
+			s += i;
+		}
+
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		// Persons in progress, in input order
+		Deque<Future<Person>> pending = new ArrayDeque<>();
+
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+
+		// Population attributes, e.g. the CRS, are read before the first person and are written with the header
+		PopulationWriter writer = new PopulationWriter(scenario.getPopulation());
+		boolean[] started = {false};
+
+		pb = new ProgressBar("Performing location choice", -1);
+
+		StreamingPopulationReader reader = new StreamingPopulationReader(scenario);
+		reader.addAlgorithm(person -> {
+			if (!started[0]) {
+				writer.writeStartPlans(output.toString());
+				started[0] = true;
+			}
+
+			pending.add(executor.submit(() -> createChoices(person, seeds, assignments)));
+			if (pending.size() > threads * 256)
+				writer.writePerson(await(pending.poll()));
+		});
+
+		try {
+			reader.readFile(input.toString());
+
+			if (!started[0])
+				writer.writeStartPlans(output.toString());
+
+			while (!pending.isEmpty())
+				writer.writePerson(await(pending.poll()));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		writer.writeEndPlans();
+
+		log.info("Processed {} activities with {} warnings", total.get(), warning.get());
+	}
+
+	/**
+	 * Assign locations to all plans of a person for every choice. Each further choice is assigned to copies of all plans,
+	 * so that commuter quotas are consumed as in the rounds of the default mode, but only the copy of the first plan is kept.
+	 */
+	private Person createChoices(Person person, long[] seeds, CommuterAssignment[] assignments) {
+
+		List<List<Plan>> copies = new ArrayList<>();
+		for (int i = 1; i < seeds.length; i++) {
+			List<Plan> plans = new ArrayList<>();
+			for (Plan plan : person.getPlans()) {
+				Plan copy = PopulationUtils.createPlan();
+				PopulationUtils.copyFromTo(plan, copy);
+				plans.add(copy);
+			}
+			copies.add(plans);
+		}
+
+		assignLocations(person, person.getPlans(), seeds[0], assignments[0]);
+
+		for (int i = 0; i < copies.size(); i++) {
+			List<Plan> plans = copies.get(i);
+			assignLocations(person, plans, seeds[i + 1], assignments[i + 1]);
+			if (!plans.isEmpty())
+				person.addPlan(plans.get(0));
+		}
+
+		pb.step();
+		return person;
+	}
+
+	private static Person await(Future<Person> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during location choice", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error during location choice", e.getCause());
+		}
+	}
+
 	@Override
 	public void run(Person person) {
+		assignLocations(person, person.getPlans(), seed, commuter);
+		pb.step();
+	}
+
+	/**
+	 * Assign locations to the given plans of a person.
+	 */
+	private void assignLocations(Person person, List<? extends Plan> plans, long seed, CommuterAssignment commuter) {
 
 		Coord homeCoord = Attributes.getHomeCoord(person);
 
 		// Reference persons are not assigned locations
-		if (person.getAttributes().getAttribute(Attributes.REF_MODES) != null) {
-			pb.step();
+		if (person.getAttributes().getAttribute(Attributes.REF_MODES) != null)
 			return;
-		}
 
 		// Activities that only occur on one place per person
 		Map<String, ActivityFacility> fixedLocations = new HashMap<>();
 
 		int planNumber = 0;
-		for (Plan plan : person.getPlans()) {
+		for (Plan plan : plans) {
 			List<Activity> acts = TripStructureUtils.getActivities(plan, TripStructureUtils.StageActivityHandling.ExcludeStageActivities);
 
 			// keep track of the current coordinate
 			Coord lastCoord = homeCoord;
 
 			// Person specific rng, increment plan number for each plan
-			SplittableRandom rnd = initRandomNumberGenerator(person, planNumber++);
+			SplittableRandom rnd = initRandomNumberGenerator(person, seed, planNumber++);
 
 			for (Activity act : acts) {
 
@@ -238,35 +377,27 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 
 					if (location == null && type.equals("work")) {
 						// sample work commute
-						location = sampleCommute(rnd, dist, lastCoord, (long) person.getAttributes().getAttribute(Attributes.ARS));
+						location = sampleCommute(rnd, dist, lastCoord, (long) person.getAttributes().getAttribute(Attributes.ARS), commuter);
 					}
 
 					if (location == null && facilities.index.containsKey(type)) {
-						// Needed for lambda
-						final Coord refCoord = lastCoord;
-
-						List<AttributedActivityFacility> query = facilities.index.get(type).query(MGC.coord2Point(lastCoord).buffer(dist * 1.2).getEnvelopeInternal());
+						FacilityGrid grid = facilities.index.get(type);
 
 						// Distance should be within the bounds
-						List<AttributedActivityFacility> res = query.stream().filter(f -> checkDistanceBound(dist, refCoord, f.getCoord(), 1)).toList();
-
-						if (!res.isEmpty()) {
-							location = query.get(FacilityIndex.sampleByWeight(query, AttributedActivityFacility::getOtherAttraction, rnd));
-						}
+						int idx = grid.sampleByWeight(lastCoord.getX(), lastCoord.getY(), lowerBound(dist, 1), upperBound(dist, 1), false, rnd);
 
 						// Try with larger bounds again
-						if (location == null) {
-							res = query.stream().filter(f -> checkDistanceBound(dist, refCoord, f.getCoord(), 1.2)).toList();
-							if (!res.isEmpty()) {
-								location = query.get(FacilityIndex.sampleByWeight(query, AttributedActivityFacility::getOtherAttraction, rnd));
-							}
-						}
+						if (idx == -1)
+							idx = grid.sampleByWeight(lastCoord.getX(), lastCoord.getY(), lowerBound(dist, 1.2), upperBound(dist, 1.2), false, rnd);
+
+						if (idx >= 0)
+							location = facilities.facilities[idx];
 					}
 
 					if (location == null) {
 						// sample only coordinate if nothing else is possible
 						// Activities without facility entry, or where no facility could be found
-						Coord c = sampleLink(rnd, dist, lastCoord);
+						Coord c = sampleLink(links, rnd, dist, lastCoord, candidates.get());
 						act.setCoord(c);
 						lastCoord = c;
 
@@ -291,14 +422,12 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 
 			}
 		}
-
-		pb.step();
 	}
 
 	/**
 	 * Initializes random number generator with person specific seed.
 	 */
-	private SplittableRandom initRandomNumberGenerator(Person person, long planNumber) {
+	private static SplittableRandom initRandomNumberGenerator(Person person, long seed, long planNumber) {
 		BigInteger i = new BigInteger(person.getId().toString().getBytes());
 		return new SplittableRandom(i.longValue() + seed * 1000 + planNumber * 10);
 	}
@@ -306,9 +435,9 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 	/**
 	 * Sample work place by using commute and distance information.
 	 */
-	private ActivityFacility sampleCommute(SplittableRandom rnd, double dist, Coord refCoord, long ars) {
+	private ActivityFacility sampleCommute(SplittableRandom rnd, double dist, Coord refCoord, long ars, CommuterAssignment commuter) {
 
-		STRtree index = facilities.index.get("work");
+		FacilityGrid index = facilities.index.get("work");
 
 		ActivityFacility workPlace = null;
 
@@ -326,42 +455,48 @@ public class InitLocationChoice implements MATSimAppCommand, PersonAlgorithm {
 	}
 
 	/**
-	 * Sample a coordinate for which the associated link is not one of the ignored types.
+	 * Sample the center of an eligible link at about the given distance, in a uniformly drawn direction as {@link #rndCoord} does.
+	 * Links are searched within a narrow ring around the distance first, which is widened if it contains no eligible link.
+	 * Only if there is none, a random coordinate at the exact distance is used.
 	 */
-	private Coord sampleLink(SplittableRandom rnd, double dist, Coord origin) {
-
-		Coord coord = null;
-		for (int i = 0; i < 500; i++) {
-			coord = rndCoord(rnd, dist, origin);
-			Link link = NetworkUtils.getNearestLink(network, coord);
-			if (!IGNORED_LINK_TYPES.contains(NetworkUtils.getType(link)))
-				break;
+	static Coord sampleLink(LinkIndex links, SplittableRandom rnd, double dist, Coord origin, IntArrayList buffer) {
+
+		for (double tolerance : LINK_TOLERANCE) {
+			Coord link = links.sampleEligibleLink(origin.getX(), origin.getY(), dist * (1 - tolerance), dist * (1 + tolerance), rnd, buffer);
+			if (link != null)
+				return new Coord(RunOpenBerlinCalibration.roundNumber(link.getX()), RunOpenBerlinCalibration.roundNumber(link.getY()));
 		}
 
-		return coord;
+		return rndCoord(rnd, dist, origin);
 	}
 
 	/**
 	 * Only samples randomly from the zone, ignoring the distance.
 	 */
-	private ActivityFacility sampleZone(STRtree index, double dist, Coord refCoord, Geometry zone, SplittableRandom rnd) {
+	private ActivityFacility sampleZone(FacilityGrid index, double dist, Coord refCoord, Geometry zone, SplittableRandom rnd) {
 
-		List<AttributedActivityFacility> query = index.query(MGC.coord2Point(refCoord).buffer(dist * 1.2).getEnvelopeInternal());
+		IntArrayList query = candidates.get();
+		index.query(refCoord.getX(), refCoord.getY(), lowerBound(dist, 1), upperBound(dist, 1), query);
 
-		query = query.stream().filter(f -> checkDistanceBound(dist, refCoord, f.getCoord(), 1)).collect(Collectors.toList());
-
-		return FacilityIndex.sampleByWeightWithRejection(query, f -> zone.contains(MGC.coord2Point(f.getCoord())), AttributedActivityFacility::getWorkAttraction, rnd);
+		return facilities.sampleByWeightWithRejection(query, f -> zone.contains(MGC.coord2Point(f.getCoord())), true, rnd);
 	}
 
 	/**
-	 * General logic to filter coordinate within target distance.
+	 * Lower bound of the distance to a target location.
+	 *
+	 * @param factor larger values will relax the bound
 	 */
-	private boolean checkDistanceBound(double target, Coord refCoord, Coord other, double factor) {
-		double lower = target * 0.8 * (2 - factor);
-		double upper = target * 1.15 * factor;
+	private static double lowerBound(double target, double factor) {
+		return target * 0.8 * (2 - factor);
+	}
 
-		double dist = CoordUtils.calcEuclideanDistance(refCoord, other);
-		return dist >= lower && dist <= upper;
+	/**
+	 * Upper bound of the distance to a target location.
+	 *
+	 * @see #lowerBound(double, double)
+	 */
+	private static double upperBound(double target, double factor) {
+		return target * 1.15 * factor;
 	}
 
 }
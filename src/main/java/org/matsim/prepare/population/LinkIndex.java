@@ -0,0 +1,141 @@
+package org.matsim.prepare.population;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Grid index over the centers of all eligible links of a network, to sample links at a given distance from a coordinate.
+ */
+final class LinkIndex {
+
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int nx;
+	private final int ny;
+
+	/**
+	 * Link centers sorted by cell, links of cell c are stored from cellStart[c] to cellStart[c + 1].
+	 */
+	private final int[] cellStart;
+	private final double[] x;
+	private final double[] y;
+
+	LinkIndex(Network network, Predicate<Link> eligible, double cellSize) {
+
+		this.cellSize = cellSize;
+
+		List<Coord> centers = network.getLinks().values().stream().filter(eligible).map(Link::getCoord).toList();
+
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+
+		for (Coord c : centers) {
+			x0 = Math.min(x0, c.getX());
+			y0 = Math.min(y0, c.getY());
+			x1 = Math.max(x1, c.getX());
+			y1 = Math.max(y1, c.getY());
+		}
+
+		if (centers.isEmpty())
+			x0 = y0 = x1 = y1 = 0;
+
+		this.minX = x0;
+		this.minY = y0;
+		this.nx = (int) ((x1 - x0) / cellSize) + 1;
+		this.ny = (int) ((y1 - y0) / cellSize) + 1;
+
+		// Counting sort of link centers by cell
+		int n = centers.size();
+		int[] cells = new int[n];
+		this.cellStart = new int[nx * ny + 1];
+
+		for (int i = 0; i < n; i++) {
+			cells[i] = cell(centers.get(i).getX(), centers.get(i).getY());
+			cellStart[cells[i] + 1]++;
+		}
+
+		for (int i = 0; i < nx * ny; i++) {
+			cellStart[i + 1] += cellStart[i];
+		}
+
+		int[] pos = Arrays.copyOf(cellStart, nx * ny);
+		this.x = new double[n];
+		this.y = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			int p = pos[cells[i]]++;
+			x[p] = centers.get(i).getX();
+			y[p] = centers.get(i).getY();
+		}
+	}
+
+	private int cell(double cx, double cy) {
+		int ix = (int) ((cx - minX) / cellSize);
+		int iy = (int) ((cy - minY) / cellSize);
+		return iy * nx + ix;
+	}
+
+	/**
+	 * Sample the center of an eligible link with distance in [minDist, maxDist] to the given coordinate.
+	 * A direction is drawn uniformly and the link closest to it is chosen, so that dense parts of the network are not preferred.
+	 *
+	 * @param result reusable buffer
+	 * @return center of the link or null if there is none
+	 */
+	Coord sampleEligibleLink(double cx, double cy, double minDist, double maxDist, SplittableRandom rnd, IntArrayList result) {
+
+		result.clear();
+
+		double min2 = minDist * minDist;
+		double max2 = maxDist * maxDist;
+
+		int ix0 = Math.max(0, (int) Math.floor((cx - maxDist - minX) / cellSize));
+		int ix1 = Math.min(nx - 1, (int) Math.floor((cx + maxDist - minX) / cellSize));
+		int iy0 = Math.max(0, (int) Math.floor((cy - maxDist - minY) / cellSize));
+		int iy1 = Math.min(ny - 1, (int) Math.floor((cy + maxDist - minY) / cellSize));
+
+		for (int iy = iy0; iy <= iy1; iy++) {
+			for (int ix = ix0; ix <= ix1; ix++) {
+				int c = iy * nx + ix;
+				for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+					double dx = x[i] - cx;
+					double dy = y[i] - cy;
+					double d2 = dx * dx + dy * dy;
+					if (d2 > 0 && d2 >= min2 && d2 <= max2)
+						result.add(i);
+				}
+			}
+		}
+
+		if (result.isEmpty())
+			return null;
+
+		double angle = rnd.nextDouble() * Math.PI * 2;
+		double ux = Math.cos(angle);
+		double uy = Math.sin(angle);
+
+		// Link with the largest cosine to the direction
+		int best = -1;
+		double bestCos = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < result.size(); k++) {
+			int i = result.getInt(k);
+			double dx = x[i] - cx;
+			double dy = y[i] - cy;
+			double cos = (dx * ux + dy * uy) / Math.sqrt(dx * dx + dy * dy);
+			if (cos > bestCos) {
+				bestCos = cos;
+				best = i;
+			}
+		}
+
+		return new Coord(x[best], y[best]);
+	}
+}
@@ -22,6 +22,7 @@ import org.matsim.application.options.ShpOptions;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.facilities.ActivityFacility;
+import org.matsim.prepare.facilities.AttributedActivityFacility;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -38,7 +39,12 @@ public class PlanBuilder {
 	/**
 	 * Maps zone ids to contained facilities.
 	 */
-	private final Long2ObjectMap<Set<ActivityFacility>> zones = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectMap<List<AttributedActivityFacility>> zones = new Long2ObjectOpenHashMap<>();
+
+	/**
+	 * Cached location candidates for zone and activity type.
+	 */
+	private final Map<ZoneType, Candidates> candidates = new HashMap<>();
 
 	private final ShpOptions.Index zoneIndex;
 
@@ -51,7 +57,6 @@ public class PlanBuilder {
 
 	private final SplittableRandom rnd = new SplittableRandom();
 
-
 	public PlanBuilder(ShpOptions zones, FacilityIndex facilities, Path activityPath) throws IOException {
 		// Collect all zones
 		for (SimpleFeature ft : zones.readFeatures()) {
@@ -61,10 +66,10 @@ public class PlanBuilder {
 
 		zoneIndex = zones.createIndex("id");
 
-		for (ActivityFacility ft : facilities.all.getFacilities().values()) {
+		for (AttributedActivityFacility ft : facilities.facilities) {
 			Long result = zoneIndex.query(ft.getCoord());
 			if (result != null) {
-				this.zones.computeIfAbsent(result, k -> new HashSet<>()).add(ft);
+				this.zones.computeIfAbsent(result, k -> new ArrayList<>()).add(ft);
 			}
 		}
 
@@ -164,7 +169,7 @@ public class PlanBuilder {
 
 		ActLocation home = new ActLocation(null, homeCoord);
 
-		List<List<ActLocation>> possibleLocations = new ArrayList<>();
+		List<Candidates> possibleLocations = new ArrayList<>();
 
 		// Distances between activities in meter
 		DoubleList dists = new DoubleArrayList();
@@ -179,7 +184,7 @@ public class PlanBuilder {
 			dists.add(InitLocationChoice.beelineDist(Double.parseDouble(ref.get("leg_dist"))));
 
 			if (type.equals("home")) {
-				possibleLocations.add(List.of(home));
+				possibleLocations.add(new Candidates(List.of(home), WeightedSampler.uniform(1)));
 				continue;
 			}
 
@@ -189,20 +194,7 @@ public class PlanBuilder {
 				return false;
 			}
 
-			Set<ActivityFacility> facilities = zones.get(id);
-
-			List<ActivityFacility> subSet = facilities.stream().filter(f -> f.getActivityOptions().containsKey(type)).toList();
-
-			if (subSet.isEmpty()) {
-				// If there is no location with the correct type, choose from all possible coordinates
-				possibleLocations.add(
-					facilities.stream().map(f -> new ActLocation(null, f.getCoord())).toList()
-				);
-			} else {
-				possibleLocations.add(
-					subSet.stream().map(f -> new ActLocation(f, f.getCoord())).toList()
-				);
-			}
+			possibleLocations.add(candidates.computeIfAbsent(new ZoneType(id, type), this::createCandidates));
 		}
 
 		List<ActLocation> chosen = sampleLocation(possibleLocations, dists);
@@ -227,18 +219,38 @@ public class PlanBuilder {
 		return true;
 	}
 
+	/**
+	 * Collect the possible locations for an activity type within a zone.
+	 */
+	private Candidates createCandidates(ZoneType key) {
+
+		List<AttributedActivityFacility> facilities = zones.get(key.zone());
+
+		List<AttributedActivityFacility> subSet = facilities.stream().filter(f -> f.getActivityOptions().containsKey(key.type())).toList();
+
+		List<ActLocation> locations;
+		if (subSet.isEmpty()) {
+			// If there is no location with the correct type, choose from all possible coordinates
+			locations = facilities.stream().map(f -> new ActLocation(null, f.getCoord())).toList();
+		} else {
+			locations = subSet.stream().map(f -> new ActLocation(f, f.getCoord())).toList();
+		}
+
+		return new Candidates(locations, WeightedSampler.uniform(locations.size()));
+	}
+
 	/**
 	 * Chooses from a list of possible locations such that difference to the references distances is minimized.
 	 */
-	private List<ActLocation> sampleLocation(List<List<ActLocation>> locations, DoubleList dists) {
+	private List<ActLocation> sampleLocation(List<Candidates> locations, DoubleList dists) {
 
 		double err = Double.POSITIVE_INFINITY;
 		List<ActLocation> best = null;
 
 		for (int k = 0; k < 100; k++) {
 			List<ActLocation> current = new ArrayList<>();
-			for (List<ActLocation> locs : locations) {
-				current.add(locs.get(rnd.nextInt(locs.size())));
+			for (Candidates locs : locations) {
+				current.add(locs.locations().get(locs.sampler().sample(rnd)));
 			}
 
 			double currentErr = 0;
@@ -269,4 +281,10 @@ public class PlanBuilder {
 	private record ActLocation(ActivityFacility facility, Coord coord) {
 	}
 
+	private record ZoneType(long zone, String type) {
+	}
+
+	private record Candidates(List<ActLocation> locations, WeightedSampler sampler) {
+	}
+
 }
@@ -0,0 +1,24 @@
+package org.matsim.prepare.population;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws indices with probability proportional to their weight.
+ */
+public interface WeightedSampler {
+
+	/**
+	 * Sampler that draws all n indices with equal probability.
+	 */
+	static WeightedSampler uniform(int n) {
+		return rnd -> rnd.nextInt(n);
+	}
+
+	/**
+	 * Sample an index.
+	 *
+	 * @return sampled index or -1 if no index has a positive weight.
+	 */
+	int sample(SplittableRandom rnd);
+
+}
@@ -0,0 +1,124 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+""" Converts generated tree ensemble models (m2cgen java code) into the flat .tree format read by TreeEnsemble.java """
+
+import argparse
+import math
+import re
+from os.path import basename, join, splitext
+
+IF = re.compile(r"if \(input\[(\d+)] (<=|<|>=|>) (-?[0-9.eE+-]+)\) {")
+LEAF = re.compile(r"var(\d+) = params\[(\d+)];")
+TREE = re.compile(r"double var(\d+);")
+RETURN = re.compile(r"return (.+);")
+SUM = re.compile(r"^(?:(-?[0-9.eE+-]+) \+ )?\((.+)\)(?: \* (-?[0-9.eE+-]+))?$")
+
+
+def _parse_node(lines, i, out):
+    """ Parse one statement starting at line i, append nodes in pre-order and return the next line index """
+
+    line = lines[i]
+
+    m = LEAF.fullmatch(line)
+    if m:
+        out.append("leaf %s" % m.group(2))
+        return i + 1
+
+    m = IF.fullmatch(line)
+    if not m:
+        raise ValueError("Unexpected line %d: %s" % (i, line))
+
+    feature, op, t = int(m.group(1)), m.group(2), float(m.group(3))
+
+    # Every condition is normalized to "input <= threshold", the first subtree is taken if it holds
+    # x < t is equivalent to x <= nextDown(t) for all non NaN values
+    swap = op in (">", ">=")
+    if op in ("<", ">="):
+        t = math.nextafter(t, -math.inf)
+
+    first, second = [], []
+    i = _parse_node(lines, i + 1, first)
+
+    if lines[i] != "} else {":
+        raise ValueError("Expected else at line %d: %s" % (i, lines[i]))
+
+    i = _parse_node(lines, i + 1, second)
+
+    if lines[i] != "}":
+        raise ValueError("Expected closing bracket at line %d: %s" % (i, lines[i]))
+
+    if swap:
+        first, second = second, first
+
+    out.append("split %d %s" % (feature, repr(t)))
+    out.extend(first)
+    out.extend(second)
+
+    return i + 1
+
+
+def java_to_tree(code, name):
+    """ Convert the score function of generated java code to the tree format """
+
+    start = code.index("public static double score(")
+    lines = [x.strip() for x in code[start:].splitlines()[1:]]
+    lines = [x for x in lines if x]
+
+    out = ["# Generated from %s, do not modify." % name]
+    trees = []
+
+    i = 0
+    while not lines[i].startswith("return"):
+        m = TREE.fullmatch(lines[i])
+        if not m:
+            raise ValueError("Unexpected line %d: %s" % (i, lines[i]))
+
+        nodes = []
+        i = _parse_node(lines, i + 1, nodes)
+        trees.append(nodes)
+
+    expr = RETURN.fullmatch(lines[i]).group(1)
+
+    # The sum may be wrapped with an outer offset and scale
+    m = SUM.fullmatch(expr)
+    offset, scale = 0.0, 1.0
+    if m:
+        offset = float(m.group(1)) if m.group(1) else 0.0
+        scale = float(m.group(3)) if m.group(3) else 1.0
+        expr = m.group(2)
+
+    terms = [x.strip() for x in expr.split("+")]
+    init = 0.0
+    if not terms[0].startswith("var"):
+        init = float(terms.pop(0))
+
+    if terms != ["var%d" % k for k in range(len(trees))]:
+        raise ValueError("Unexpected return expression: " + expr)
+
+    out.append("init %s" % repr(init))
+    out.append("offset %s" % repr(offset))
+    out.append("scale %s" % repr(scale))
+
+    for nodes in trees:
+        out.append("tree")
+        out.extend(nodes)
+
+    return "\n".join(out) + "\n"
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="Convert generated java models to flat tree files")
+    parser.add_argument("files", nargs="+", help="Generated java source files")
+    parser.add_argument("--output", default=".", help="Output directory")
+
+    args = parser.parse_args()
+
+    for f in args.files:
+        name = splitext(basename(f))[0]
+
+        with open(f) as fin:
+            tree = java_to_tree(fin.read(), name)
+
+        with open(join(args.output, name + ".tree"), "w") as fout:
+            fout.write(tree)
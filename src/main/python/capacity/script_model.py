@@ -18,6 +18,7 @@ import optuna
 
 from models import create_regressor, model_to_java, model_to_py
 from features import build_datasets
+from java_to_tree import java_to_tree
 
 #%%
 
@@ -220,6 +221,10 @@ for t in targets:
         code = model_to_java(t, m[0], scaler[t], get(None, t)[0])
         f.write(code)
 
+    # Flat representation used by TreeEnsemble.java, needs to be placed in the resources under the same name as the model class
+    with open(join("gen_code", t.capitalize() + ".tree"), "w") as f:
+        f.write(java_to_tree(code, t.capitalize()))
+
     with open(join("gen_code", t + ".py"), "w") as f:
         code = model_to_py(t, m[0], scaler[t], get(None, t)[0])
         f.write("# -*- coding: utf-8 -*-\n")
@@ -0,0 +1,114 @@
+package org.matsim.prepare.opt;
+
+import jdk.incubator.vector.*;
+
+/**
+ * SIMD implementation of {@link ErrorKernel}. Must only be loaded if the {@code jdk.incubator.vector} module is present.
+ * This class is only compiled with the {@code vector} profile, see {@link ErrorKernel#VECTOR}.
+ */
+final class VectorErrorKernel implements ErrorKernel.Vectorized {
+
+	private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Int species with the same number of lanes as {@link #D}.
+	 */
+	private static final VectorSpecies<Integer> I = D.length() >= 2 ?
+		VectorSpecies.of(int.class, VectorShape.forBitSize(D.vectorBitSize() / 2)) : null;
+
+	private static final double C = ScoreCalculator.C;
+
+	VectorErrorKernel() {
+	}
+
+	@Override
+	public boolean isSupported() {
+		return I != null;
+	}
+
+	@Override
+	public double error(ErrorMetric metric, int[] counts, int[] observed) {
+
+		int n = counts.length;
+		int upper = D.loopBound(n);
+
+		DoubleVector sum = DoubleVector.zero(D);
+
+		int j = 0;
+		for (; j < upper; j += D.length()) {
+			DoubleVector c = toDouble(IntVector.fromArray(I, counts, j));
+			DoubleVector o = toDouble(IntVector.fromArray(I, observed, j));
+			sum = sum.add(term(metric, c, o));
+		}
+
+		double error = sum.reduceLanes(VectorOperators.ADD);
+
+		// Remaining elements
+		if (j < n) {
+			int[] c = new int[D.length()];
+			int[] o = new int[D.length()];
+			System.arraycopy(counts, j, c, 0, n - j);
+			System.arraycopy(observed, j, o, 0, n - j);
+			VectorMask<Double> m = D.indexInRange(0, n - j);
+			error += term(metric, toDouble(IntVector.fromArray(I, c, 0)), toDouble(IntVector.fromArray(I, o, 0)))
+				.reduceLanes(VectorOperators.ADD, m);
+		}
+
+		return error;
+	}
+
+	@Override
+	public double apply(ErrorMetric metric, int[] counts, int[] observed, PlanImpacts impacts, int plan, int sign) {
+
+		int[] idx = impacts.idx;
+		int[] delta = impacts.delta;
+		int from = impacts.offsets[plan];
+		int to = impacts.offsets[plan + 1];
+
+		DoubleVector sum = DoubleVector.zero(D);
+
+		int i = from;
+		for (; i + I.length() <= to; i += I.length()) {
+
+			// Indices within one plan are unique, so gather and scatter do not conflict
+			IntVector d = IntVector.fromArray(I, delta, i);
+			IntVector old = IntVector.fromArray(I, observed, 0, idx, i);
+			IntVector update = sign > 0 ? old.add(d) : old.sub(d);
+			update.intoArray(observed, 0, idx, i);
+
+			DoubleVector c = toDouble(IntVector.fromArray(I, counts, 0, idx, i));
+			sum = sum.add(term(metric, c, toDouble(update)).sub(term(metric, c, toDouble(old))));
+		}
+
+		double diff = sum.reduceLanes(VectorOperators.ADD);
+
+		// Plans are usually short, remaining entries are processed with the scalar kernel
+		for (; i < to; i++) {
+			int j = idx[i];
+			int old = observed[j];
+			int update = observed[j] += sign * delta[i];
+			diff += switch (metric) {
+				case abs_error -> ErrorKernel.absDiff(counts[j], old, update);
+				case log_error -> ErrorKernel.logDiff(counts[j], old, update);
+				case symmetric_percentage_error -> ErrorKernel.spDiff(counts[j], old, update);
+			};
+		}
+
+		return diff;
+	}
+
+	private static DoubleVector toDouble(IntVector v) {
+		return (DoubleVector) v.convertShape(VectorOperators.I2D, D, 0);
+	}
+
+	/**
+	 * Error of each lane.
+	 */
+	private static DoubleVector term(ErrorMetric metric, DoubleVector count, DoubleVector observed) {
+		return switch (metric) {
+			case abs_error -> observed.sub(count).abs();
+			case log_error -> observed.add(C).div(count.add(C)).lanewise(VectorOperators.LOG).abs();
+			case symmetric_percentage_error -> observed.sub(count).div(observed.add(count).add(2 * C)).div(2).abs();
+		};
+	}
+}
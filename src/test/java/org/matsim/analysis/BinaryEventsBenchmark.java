@@ -0,0 +1,114 @@
+package org.matsim.analysis;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.vehicles.Vehicle;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading xml events with replaying the binary copy.
+ * Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BinaryEventsBenchmark {
+
+	/**
+	 * Number of vehicle trips, each with several link events.
+	 */
+	@Param({"100000"})
+	private int trips;
+
+	private Path dir;
+	private Path xml;
+	private Path bin;
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(BinaryEventsBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		dir = Files.createTempDirectory("events");
+		xml = dir.resolve("output_events.xml.gz");
+		bin = dir.resolve("output" + BinaryEvents.SUFFIX);
+
+		EventWriterXML writer = new EventWriterXML(xml.toString());
+		for (int i = 0; i < trips; i++) {
+			Id<Person> person = Id.createPersonId(i % 10_000);
+			Id<Vehicle> vehicle = Id.createVehicleId(i % 10_000);
+			double t = i * 0.5;
+
+			int link = rnd.nextInt(50_000);
+			writer.handleEvent(new PersonDepartureEvent(t, person, Id.createLinkId(link), TransportMode.car, TransportMode.car));
+			writer.handleEvent(new PersonEntersVehicleEvent(t, person, vehicle));
+			writer.handleEvent(new VehicleEntersTrafficEvent(t, person, Id.createLinkId(link), vehicle, TransportMode.car, 1.0));
+
+			for (int j = 0; j < 10; j++) {
+				writer.handleEvent(new LinkLeaveEvent(t + j, vehicle, Id.createLinkId(link)));
+				link = rnd.nextInt(50_000);
+				writer.handleEvent(new LinkEnterEvent(t + j, vehicle, Id.createLinkId(link)));
+			}
+
+			writer.handleEvent(new VehicleLeavesTrafficEvent(t + 10, person, Id.createLinkId(link), vehicle, TransportMode.car, 1.0));
+			writer.handleEvent(new PersonLeavesVehicleEvent(t + 10, person, vehicle));
+			writer.handleEvent(new PersonArrivalEvent(t + 10, person, Id.createLinkId(link), TransportMode.car));
+		}
+		writer.closeFile();
+
+		BinaryEvents.convert(xml.toString(), bin);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(xml);
+		Files.deleteIfExists(bin);
+		Files.deleteIfExists(dir);
+	}
+
+	private static long read(Path path, boolean binary) throws IOException {
+		long[] n = {0};
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler((BasicEventHandler) e -> n[0]++);
+		manager.initProcessing();
+		if (binary)
+			BinaryEvents.replay(path, manager);
+		else
+			EventsUtils.readEvents(manager, path.toString());
+		manager.finishProcessing();
+		return n[0];
+	}
+
+	@Benchmark
+	public long xml() throws IOException {
+		return read(xml, false);
+	}
+
+	@Benchmark
+	public long binary() throws IOException {
+		return read(bin, true);
+	}
+}
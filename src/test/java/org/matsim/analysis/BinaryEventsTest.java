@@ -0,0 +1,85 @@
+package org.matsim.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.GenericEvent;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BinaryEventsTest {
+
+	@TempDir
+	private Path dir;
+
+	private static List<Map<String, String>> collect(Path path, boolean binary) throws IOException {
+		List<Map<String, String>> events = new ArrayList<>();
+
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler((BasicEventHandler) e -> events.add(e.getAttributes()));
+		manager.initProcessing();
+		if (binary)
+			BinaryEvents.replay(path, manager);
+		else
+			EventsUtils.readEvents(manager, path.toString());
+		manager.finishProcessing();
+
+		return events;
+	}
+
+	@Test
+	void roundTrip() throws IOException {
+
+		Path xml = dir.resolve("output_events.xml.gz");
+
+		EventWriterXML writer = new EventWriterXML(xml.toString());
+		for (int i = 0; i < 1000; i++) {
+			writer.handleEvent(new PersonDepartureEvent(i * 0.1, Id.createPersonId(i % 7), Id.createLinkId(i % 13), TransportMode.car, "car"));
+			writer.handleEvent(new LinkEnterEvent(i * 1.5 + 1 / 3.0, Id.createVehicleId(i % 5), Id.createLinkId(i % 11)));
+			writer.handleEvent(new VehicleEntersTrafficEvent(i, Id.createPersonId(i % 7), Id.createLinkId(i % 13), Id.createVehicleId(i % 5), "car", 0.5));
+			writer.handleEvent(new PersonEntersVehicleEvent(i, Id.createPersonId(i % 7), Id.createVehicleId(i % 5)));
+			writer.handleEvent(new LinkLeaveEvent(i + 0.25, Id.createVehicleId(i % 5), Id.createLinkId(i % 11)));
+			writer.handleEvent(new PersonArrivalEvent(i + 0.75, Id.createPersonId(i % 7), Id.createLinkId(i % 13), TransportMode.walk));
+
+			GenericEvent generic = new GenericEvent("custom", i);
+			generic.getAttributes().put("value", "ä " + i);
+			writer.handleEvent(generic);
+		}
+		writer.closeFile();
+
+		Path bin = BinaryEvents.getCachePath(xml.toString());
+		assertThat(bin.getFileName().toString()).isEqualTo("output_events" + BinaryEvents.SUFFIX);
+
+		BinaryEvents.convert(xml.toString(), bin);
+
+		List<Map<String, String>> expected = collect(xml, false);
+		List<Map<String, String>> actual = collect(bin, true);
+
+		assertThat(actual)
+			.hasSize(7000)
+			.isEqualTo(expected);
+
+		List<Class<?>> types = new ArrayList<>();
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler((BasicEventHandler) e -> types.add(e.getClass()));
+		manager.initProcessing();
+		BinaryEvents.replay(bin, manager);
+		manager.finishProcessing();
+
+		assertThat(types.subList(0, 7)).containsExactly(PersonDepartureEvent.class, LinkEnterEvent.class, VehicleEntersTrafficEvent.class,
+			PersonEntersVehicleEvent.class, LinkLeaveEvent.class, PersonArrivalEvent.class, GenericEvent.class);
+		assertThat(types).allMatch(Event.class::isAssignableFrom);
+	}
+}
@@ -0,0 +1,148 @@
+package org.matsim.analysis;
+
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
+import picocli.CommandLine;
+import tech.tablesaw.api.ColumnType;
+import tech.tablesaw.api.Row;
+import tech.tablesaw.api.Table;
+import tech.tablesaw.io.csv.CsvReadOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TravelTimeComparisonTest {
+
+	/**
+	 * Grid with uniform links, so that there are many paths with equal cost and length between two nodes.
+	 */
+	private static Network createNetwork() {
+
+		Network network = NetworkUtils.createNetwork();
+		int n = 6;
+
+		Node[][] nodes = new Node[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(i + "_" + j), new Coord(i * 100, j * 100));
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					addLink(network, nodes[i][j], nodes[i + 1][j]);
+					addLink(network, nodes[i + 1][j], nodes[i][j]);
+				}
+				if (j + 1 < n) {
+					addLink(network, nodes[i][j], nodes[i][j + 1]);
+					addLink(network, nodes[i][j + 1], nodes[i][j]);
+				}
+			}
+		}
+
+		return network;
+	}
+
+	private static void addLink(Network network, Node from, Node to) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(from.getId() + "-" + to.getId()), from, to, 100, 10, 600, 1);
+	}
+
+	private static double dijkstra(Network network, TravelTime tt, Row row) {
+
+		LeastCostPathCalculator router = new DijkstraFactory(false).createPathCalculator(network, new OnlyTimeDependentTravelDisutility(tt), tt);
+
+		Node from = network.getNodes().get(Id.createNodeId(row.getString("from_node")));
+		Node to = network.getNodes().get(Id.createNodeId(row.getString("to_node")));
+
+		LeastCostPathCalculator.Path path = router.calcLeastCostPath(from, to, row.getInt("hour") * 3600, null, null);
+		double dist = path.links.stream().mapToDouble(Link::getLength).sum();
+		return 3.6 * dist / path.travelTime;
+	}
+
+	@Test
+	void sameAsDijkstra(@TempDir Path dir) throws IOException {
+
+		Network network = createNetwork();
+		NetworkUtils.writeNetwork(network, dir.resolve("network.xml").toString());
+
+		// Congestion on a few links in the second hour
+		EventWriterXML writer = new EventWriterXML(dir.resolve("events.xml").toString());
+		int v = 0;
+		for (String link : List.of("2_2-3_2", "3_2-3_3", "1_1-1_2", "4_4-5_4")) {
+			for (int k = 0; k < 3; k++, v++) {
+				writer.handleEvent(new LinkEnterEvent(3600 + k * 60, Id.createVehicleId(v), Id.createLinkId(link)));
+				writer.handleEvent(new LinkLeaveEvent(3900 + k * 60, Id.createVehicleId(v), Id.createLinkId(link)));
+			}
+		}
+		writer.closeFile();
+
+		StringBuilder ref = new StringBuilder("from_node,to_node,hour,min,max,mean,std\n");
+		for (int hour = 0; hour < 2; hour++) {
+			for (String[] od : new String[][]{{"0_0", "5_5"}, {"0_0", "3_4"}, {"0_0", "5_0"}, {"1_2", "4_3"}, {"5_5", "0_0"}, {"2_0", "2_5"}}) {
+				ref.append(od[0]).append(',').append(od[1]).append(',').append(hour).append(",10,30,20,5\n");
+			}
+		}
+
+		Files.writeString(dir.resolve("ref.csv"), ref);
+
+		int code = new CommandLine(new TravelTimeComparison()).execute(
+			"--network", dir.resolve("network.xml").toString(),
+			"--events", dir.resolve("events.xml").toString(),
+			"--input-ref", dir.resolve("ref.csv").toString(),
+			"--output", dir.toString(),
+			"--threads", "2"
+		);
+
+		assertThat(code).isEqualTo(0);
+
+		TravelTimeCalculator calculator = TravelTimeComparison.createTravelTimeCalculator(network);
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(calculator);
+		manager.initProcessing();
+		EventsUtils.readEvents(manager, dir.resolve("events.xml").toString());
+		manager.finishProcessing();
+
+		TravelTime tt = calculator.getLinkTravelTimes();
+		TravelTime fs = new FreeSpeedTravelTime();
+
+		Table result = Table.read().csv(CsvReadOptions.builder(dir.resolve("travel_time_comparison_by_route.csv").toFile())
+			.columnTypesPartial(Map.of("from_node", ColumnType.STRING, "to_node", ColumnType.STRING))
+			.build());
+
+		assertThat(result.rowCount()).isEqualTo(12);
+
+		for (Row row : result) {
+			assertThat(row.getDouble("simulated"))
+				.as("Simulated speed of row %d", row.getRowNumber())
+				.isCloseTo(dijkstra(network, tt, row), Offset.offset(1e-9));
+
+			assertThat(row.getDouble("free_flow"))
+				.as("Free flow speed of row %d", row.getRowNumber())
+				.isCloseTo(dijkstra(network, fs, row), Offset.offset(1e-9));
+		}
+	}
+}
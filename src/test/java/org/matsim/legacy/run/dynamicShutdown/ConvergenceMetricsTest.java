@@ -0,0 +1,111 @@
+package org.matsim.legacy.run.dynamicShutdown;
+
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConvergenceMetricsTest {
+
+    /**
+     * Slope as it was computed before, from the whole history of a metric.
+     */
+    private static double computeLineSlope(Map<Integer, Double> inputMap, DynamicShutdownConfigGroup cfg) {
+
+        int currentIter = Collections.max(inputMap.keySet());
+        int startIteration = currentIter - cfg.getMinimumWindowSize() + 1; // fixed window
+        int startIterationExpanding = (int) ((1.0 - cfg.getExpandingWindowPctRetention()) * currentIter + 1); // expanding window
+
+        if (cfg.getSlopeWindowPolicy() == DynamicShutdownConfigGroup.slopeWindowOption.EXPANDING && startIterationExpanding < startIteration) {
+            startIteration = startIterationExpanding;
+        }
+
+        List<Integer> x = new ArrayList<>();
+        List<Double> y = new ArrayList<>();
+
+        for (Integer it : inputMap.keySet()) {
+            if (it >= startIteration) {
+                x.add(it);
+                y.add(inputMap.get(it));
+            }
+        }
+
+        int n = x.size();
+        double sumX = 0.0;
+        double sumY = 0.0;
+        for (int i = 0; i < n; i++) {
+            sumX += x.get(i);
+            sumY += y.get(i);
+        }
+
+        double xBar = sumX / n;
+        double yBar = sumY / n;
+
+        double xxBar = 0.0;
+        double xyBar = 0.0;
+        for (int i = 0; i < n; i++) {
+            xxBar += (x.get(i) - xBar) * (x.get(i) - xBar);
+            xyBar += (x.get(i) - xBar) * (y.get(i) - yBar);
+        }
+
+        return xyBar / xxBar;
+    }
+
+    @ParameterizedTest
+    @EnumSource(DynamicShutdownConfigGroup.slopeWindowOption.class)
+    void sameAsFullRegression(DynamicShutdownConfigGroup.slopeWindowOption policy) {
+
+        DynamicShutdownConfigGroup cfg = new DynamicShutdownConfigGroup();
+        cfg.setSlopeWindowPolicy(policy);
+        cfg.setMinimumWindowSize(50);
+        cfg.setExpandingWindowPctRetention(0.25);
+        cfg.setIterationsInZoneToConverge(20);
+
+        double threshold = 0.01;
+
+        ConvergenceMetrics metrics = new ConvergenceMetrics(cfg, threshold, List.of("score", "share"));
+        Map<String, Map<Integer, Double>> history = new HashMap<>();
+
+        SplittableRandom rnd = new SplittableRandom(0);
+        Map<String, Integer> inZone = new HashMap<>();
+
+        // Metrics don't need to start at iteration 0
+        for (int it = 5; it < 1500; it++) {
+
+            double score = 120 - 50 * Math.exp(-it / 200.0) + rnd.nextDouble(-1, 1);
+            double share = 0.3 + 0.1 * Math.exp(-it / 100.0) + rnd.nextDouble(-0.01, 0.01);
+
+            metrics.add("score", it, score);
+            metrics.add("share", it, share);
+            history.computeIfAbsent("score", k -> new TreeMap<>()).put(it, score);
+            history.computeIfAbsent("share", k -> new TreeMap<>()).put(it, share);
+
+            if (it < 6)
+                continue;
+
+            boolean converged = metrics.update(it);
+            boolean expected = true;
+
+            for (String metric : metrics.getNames()) {
+                double slope = computeLineSlope(history.get(metric), cfg);
+
+                assertThat(metrics.getSlope(metric))
+                    .as("Slope of %s at iteration %d", metric, it)
+                    .isCloseTo(slope, Offset.offset(1e-9));
+
+                int zone = slope > -threshold && slope < threshold ? inZone.getOrDefault(metric, 0) + 1 : 0;
+                inZone.put(metric, zone);
+
+                assertThat(metrics.getIterationsInZone(metric)).isEqualTo(zone);
+                expected &= zone >= cfg.getIterationsInZoneToConverge();
+            }
+
+            assertThat(converged).isEqualTo(expected);
+        }
+
+        assertThat(metrics.getHistory("score").toMap()).isEqualTo(history.get("score"));
+    }
+}
@@ -0,0 +1,86 @@
+package org.matsim.prepare;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.transformations.IdentityTransformation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AreaIndexTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	private Geometry polygon(double... xy) {
+		Coordinate[] coords = new Coordinate[xy.length / 2 + 1];
+		for (int i = 0; i < xy.length / 2; i++) {
+			coords[i] = new Coordinate(xy[2 * i], xy[2 * i + 1]);
+		}
+		coords[coords.length - 1] = coords[0];
+		return factory.createPolygon(coords);
+	}
+
+	/**
+	 * Points on and near the boundary of the geometry, and random points within its envelope.
+	 */
+	private static List<Coord> points(Geometry geometry, SplittableRandom rnd) {
+
+		List<Coord> points = new ArrayList<>();
+		Coordinate[] coords = geometry.getCoordinates();
+
+		for (int i = 0; i + 1 < coords.length; i++) {
+			Coordinate a = coords[i];
+			Coordinate b = coords[i + 1];
+			for (int k = 0; k <= 16; k++) {
+				double f = k / 16.0;
+				double x = a.x + (b.x - a.x) * f;
+				double y = a.y + (b.y - a.y) * f;
+				points.add(new Coord(x, y));
+				points.add(new Coord(x + 1e-6, y));
+				points.add(new Coord(x - 1e-6, y));
+				points.add(new Coord(x, y + 1e-6));
+				points.add(new Coord(x, y - 1e-6));
+			}
+		}
+
+		var env = geometry.getEnvelopeInternal();
+		for (int i = 0; i < 5000; i++) {
+			points.add(new Coord(rnd.nextDouble(env.getMinX() - 10, env.getMaxX() + 10), rnd.nextDouble(env.getMinY() - 10, env.getMaxY() + 10)));
+		}
+
+		return points;
+	}
+
+	@Test
+	void sameAsGeometry() {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		List<Geometry> geometries = List.of(
+			// Square whose border is aligned with the grid
+			polygon(0, 0, 1600, 0, 1600, 1600, 0, 1600),
+			// Concave polygon with edges along grid lines and diagonals
+			polygon(0, 0, 1000, 0, 1000, 500, 500, 500, 500, 1000, 0, 1000),
+			polygon(13.7, 2.1, 977.3, 55.9, 612.4, 803.2, 401.8, 377.7, 55.5, 921.4),
+			polygon(0, 0, 800, 0, 800, 800, 0, 800).difference(polygon(200, 200, 600, 200, 600, 600, 200, 600))
+		);
+
+		for (Geometry geometry : geometries) {
+			for (int resolution : new int[]{1, 16, 100}) {
+				AreaIndex index = new AreaIndex(geometry, new IdentityTransformation(), resolution);
+
+				for (Coord c : points(geometry, rnd)) {
+					assertThat(index.contains(c))
+						.as("%s with resolution %d at %s", geometry, resolution, c)
+						.isEqualTo(geometry.contains(factory.createPoint(new Coordinate(c.getX(), c.getY()))));
+				}
+			}
+		}
+	}
+}
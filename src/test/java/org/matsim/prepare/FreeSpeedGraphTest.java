@@ -0,0 +1,141 @@
+package org.matsim.prepare;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FreeSpeedGraphTest {
+
+	/**
+	 * Random connected network. Link lengths may be shorter than the euclidean distance.
+	 */
+	private static Network createNetwork(String prefix, int n, SplittableRandom rnd) {
+
+		Network network = NetworkUtils.createNetwork();
+
+		Node[] nodes = new Node[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = NetworkUtils.createAndAddNode(network, Id.createNodeId(prefix + i), new Coord(rnd.nextDouble(0, 10_000), rnd.nextDouble(0, 10_000)));
+		}
+
+		for (int i = 0; i < n; i++) {
+			// Chain to keep the network connected, and random shortcuts
+			if (i + 1 < n)
+				addLinks(network, nodes[i], nodes[i + 1], rnd);
+
+			for (int k = 0; k < 2; k++) {
+				int j = rnd.nextInt(n);
+				if (j != i)
+					addLinks(network, nodes[i], nodes[j], rnd);
+			}
+		}
+
+		return network;
+	}
+
+	private static void addLinks(Network network, Node a, Node b, SplittableRandom rnd) {
+		for (Node[] l : new Node[][]{{a, b}, {b, a}}) {
+			Id<Link> id = Id.createLinkId(l[0].getId() + "-" + l[1].getId());
+			if (network.getLinks().containsKey(id))
+				continue;
+
+			double dist = CoordUtils.calcEuclideanDistance(l[0].getCoord(), l[1].getCoord());
+			NetworkUtils.createAndAddLink(network, id, l[0], l[1], Math.max(1, dist * rnd.nextDouble(0.7, 1.5)), rnd.nextDouble(5, 30), 600, 1);
+		}
+	}
+
+	/**
+	 * Plain Dijkstra over the network, returns the predecessor link of each reached node.
+	 */
+	private static Map<Node, Link> dijkstra(Node from) {
+
+		Map<Node, Double> cost = new HashMap<>();
+		Map<Node, Link> pred = new HashMap<>();
+		Set<Node> settled = new HashSet<>();
+		PriorityQueue<Map.Entry<Node, Double>> queue = new PriorityQueue<>(Map.Entry.comparingByValue());
+
+		cost.put(from, 0.0);
+		queue.add(Map.entry(from, 0.0));
+
+		while (!queue.isEmpty()) {
+			Node v = queue.poll().getKey();
+			if (!settled.add(v))
+				continue;
+
+			for (Link link : v.getOutLinks().values()) {
+				double c = cost.get(v) + link.getLength() / link.getFreespeed();
+				Node w = link.getToNode();
+				if (!settled.contains(w) && c < cost.getOrDefault(w, Double.POSITIVE_INFINITY)) {
+					cost.put(w, c);
+					pred.put(w, link);
+					queue.add(Map.entry(w, c));
+				}
+			}
+		}
+
+		return pred;
+	}
+
+	private static boolean passes(Node from, Node to, Map<Node, Link> pred, BitSet mask) {
+		Node v = to;
+		while (true) {
+			if (mask.get(v.getId().index()))
+				return true;
+			if (v == from)
+				return false;
+			v = pred.get(v).getFromNode();
+		}
+	}
+
+	@Test
+	void sameAsDijkstra() {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		for (int run = 0; run < 5; run++) {
+
+			Network network = createNetwork("r" + run + "_", 300, rnd);
+			FreeSpeedGraph graph = new FreeSpeedGraph(network);
+			FreeSpeedGraph.Search search = graph.createSearch();
+
+			// Area around a random center
+			Coord center = new Coord(rnd.nextDouble(2000, 8000), rnd.nextDouble(2000, 8000));
+			BitSet mask = new BitSet();
+			for (Node node : network.getNodes().values()) {
+				if (CoordUtils.calcEuclideanDistance(center, node.getCoord()) < 1500)
+					mask.set(node.getId().index());
+			}
+
+			List<Node> nodes = new ArrayList<>(network.getNodes().values());
+			BitSet tree = new BitSet();
+
+			for (int i = 0; i < 30; i++) {
+				Node from = nodes.get(rnd.nextInt(nodes.size()));
+				Map<Node, Link> pred = dijkstra(from);
+
+				graph.passesArea(from.getId().index(), mask, search, tree);
+
+				for (Node to : nodes) {
+					boolean expected = passes(from, to, pred, mask);
+
+					assertThat(graph.passesArea(from.getId().index(), to.getId().index(), mask, search))
+						.as("A* from %s to %s", from.getId(), to.getId())
+						.isEqualTo(expected);
+
+					assertThat(tree.get(to.getId().index()))
+						.as("Tree from %s to %s", from.getId(), to.getId())
+						.isEqualTo(expected);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.matsim.prepare;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PathTreeCacheTest {
+
+	private static Network createNetwork(String prefix, int n) {
+
+		Network network = NetworkUtils.createNetwork();
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		Node[][] nodes = new Node[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(prefix + i + "_" + j), new Coord(i * 100, j * 100));
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i + 1 < n) {
+					addLink(network, nodes[i][j], nodes[i + 1][j], rnd);
+					addLink(network, nodes[i + 1][j], nodes[i][j], rnd);
+				}
+				if (j + 1 < n) {
+					addLink(network, nodes[i][j], nodes[i][j + 1], rnd);
+					addLink(network, nodes[i][j + 1], nodes[i][j], rnd);
+				}
+			}
+		}
+
+		return network;
+	}
+
+	private static void addLink(Network network, Node from, Node to, SplittableRandom rnd) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(from.getId() + "-" + to.getId()), from, to, 100, rnd.nextDouble(5, 20), 600, 1);
+	}
+
+	private static BitSet mask(Network network, String... nodes) {
+		BitSet mask = new BitSet();
+		for (String node : nodes) {
+			mask.set(network.getNodes().get(Id.createNodeId(node)).getId().index());
+		}
+		return mask;
+	}
+
+	@Test
+	void roundTrip(@TempDir Path dir) throws Exception {
+
+		Network network = createNetwork("a", 10);
+		FreeSpeedGraph graph = new FreeSpeedGraph(network);
+		BitSet mask = mask(network, "a4_4", "a4_5", "a5_4", "a5_5");
+
+		SplittableRandom rnd = new SplittableRandom(1);
+		Node[] nodes = network.getNodes().values().toArray(new Node[0]);
+		int[] from = new int[500];
+		int[] to = new int[500];
+		for (int i = 0; i < from.length; i++) {
+			from[i] = nodes[rnd.nextInt(nodes.length)].getId().index();
+			to[i] = nodes[rnd.nextInt(nodes.length)].getId().index();
+		}
+
+		Path cache = dir.resolve("trees.bin.gz");
+
+		boolean[] expected = new PathTreeCache(graph, mask).evaluate(from, to, null, 2);
+		boolean[] first = new PathTreeCache(graph, mask).evaluate(from, to, cache, 2);
+
+		assertThat(cache).exists();
+		assertThat(new PathTreeCache(graph, mask).matches(cache)).isTrue();
+
+		// Answered from the cache
+		boolean[] second = new PathTreeCache(new FreeSpeedGraph(network), mask).evaluate(from, to, cache, 2);
+
+		assertThat(first).containsExactly(expected);
+		assertThat(second).containsExactly(expected);
+	}
+
+	@Test
+	void invalidation(@TempDir Path dir) throws Exception {
+
+		// Node indices are global, so all ids are created before the cache
+		Network network = createNetwork("b", 6);
+		Network other = createNetwork("c", 6);
+		BitSet mask = mask(network, "b2_2");
+
+		Path cache = dir.resolve("trees.bin.gz");
+		int origin = network.getNodes().get(Id.createNodeId("b0_0")).getId().index();
+		new PathTreeCache(new FreeSpeedGraph(network), mask).evaluate(new int[]{origin}, new int[]{origin}, cache, 1);
+
+		assertThat(new PathTreeCache(new FreeSpeedGraph(network), mask).matches(cache)).isTrue();
+
+		// Different area
+		assertThat(new PathTreeCache(new FreeSpeedGraph(network), mask(network, "b2_3")).matches(cache)).isFalse();
+
+		// Different cost of one link
+		Link link = network.getLinks().get(Id.createLinkId("b1_1-b1_2"));
+		double speed = link.getFreespeed();
+		link.setFreespeed(speed * 2);
+		assertThat(new PathTreeCache(new FreeSpeedGraph(network), mask).matches(cache)).isFalse();
+		link.setFreespeed(speed);
+
+		// Same structure, but other node ids
+		assertThat(new PathTreeCache(new FreeSpeedGraph(other), mask).matches(cache)).isFalse();
+
+		assertThat(new PathTreeCache(new FreeSpeedGraph(network), mask).matches(cache)).isTrue();
+	}
+}
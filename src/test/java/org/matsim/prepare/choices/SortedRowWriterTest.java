@@ -0,0 +1,61 @@
+package org.matsim.prepare.choices;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SortedRowWriterTest {
+
+	@Test
+	void ordered() throws Exception {
+
+		StringWriter out = new StringWriter();
+		SortedRowWriter writer = new SortedRowWriter(out, CSVFormat.DEFAULT, 100, 4);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int i = 0; i < 100; i++) {
+			int idx = i;
+			executor.submit(() -> {
+				writer.put(idx, idx % 10 == 0 ? null : List.of(idx));
+				return null;
+			});
+		}
+		executor.shutdown();
+
+		writer.close();
+
+		assertThat(out.toString().lines())
+			.containsExactlyElementsOf(IntStream.range(0, 100).filter(i -> i % 10 != 0).mapToObj(String::valueOf).toList());
+	}
+
+	@Test
+	@Timeout(10)
+	void abort() throws Exception {
+
+		SortedRowWriter writer = new SortedRowWriter(new StringWriter(), CSVFormat.DEFAULT, 100, 2);
+
+		// Index 0 is never put, so this producer would block forever
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<?> blocked = executor.submit(() -> {
+			writer.put(5, List.of(5));
+			return null;
+		});
+
+		writer.abort();
+
+		assertThatThrownBy(blocked::get).hasCauseInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(writer::close).isInstanceOf(IllegalStateException.class);
+
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,60 @@
+package org.matsim.prepare.counts;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HourlyVolumeAggregatorTest {
+
+	private static void add(HourlyVolumeAggregator agg, String rows) throws IOException {
+		try (CSVParser parser = CSVParser.parse(rows, CSVFormat.DEFAULT)) {
+			for (CSVRecord row : parser) {
+				agg.add(row);
+			}
+		}
+	}
+
+	private static String allHours(String station, String date, double car) {
+		StringBuilder b = new StringBuilder();
+		for (int h = 0; h < HourlyVolumeAggregator.HOURS; h++) {
+			b.append(station).append(',').append(date).append(',').append(h).append(",x,x,x,")
+				.append(car).append(",50,").append(car / 10).append(",NaN\n");
+		}
+		return b.toString();
+	}
+
+	@Test
+	void meanOfWeekdays() throws IOException {
+
+		HourlyVolumeAggregator agg = new HourlyVolumeAggregator(List.of("a", "b"));
+		HourlyVolumeAggregator other = agg.createEmpty();
+
+		// Tuesday and Wednesday
+		add(agg, allHours("a", "01.03.2022", 100));
+		add(other, allHours("a", "02.03.2022", 200));
+
+		// Monday and unknown station are ignored
+		add(agg, allHours("a", "07.03.2022", 1000));
+		add(agg, allHours("c", "01.03.2022", 1000));
+
+		// Incomplete station
+		add(agg, "b,01.03.2022,5,x,x,x,10,50,1,NaN\n");
+
+		agg.merge(other);
+
+		assertThat(agg.isComplete("a")).isTrue();
+		assertThat(agg.isComplete("b")).isFalse();
+		assertThat(agg.isComplete("c")).isFalse();
+
+		assertThat(agg.getMean("a", 3, HourlyVolumeAggregator.CAR_VOLUME)).isEqualTo(150);
+		assertThat(agg.getMean("a", 3, HourlyVolumeAggregator.FREIGHT_VOLUME)).isEqualTo(15);
+		assertThat(agg.getMean("a", 3, HourlyVolumeAggregator.CAR_SPEED)).isEqualTo(50);
+		assertThat(agg.getMean("a", 3, HourlyVolumeAggregator.FREIGHT_SPEED)).isNaN();
+	}
+}
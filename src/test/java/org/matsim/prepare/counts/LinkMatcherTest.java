@@ -0,0 +1,123 @@
+package org.matsim.prepare.counts;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LinkMatcherTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	private Network network;
+
+	@BeforeEach
+	void setUp() {
+
+		network = NetworkUtils.createNetwork();
+
+		Node n1 = NetworkUtils.createAndAddNode(network, Id.createNodeId("1"), new Coord(0, 0));
+		Node n2 = NetworkUtils.createAndAddNode(network, Id.createNodeId("2"), new Coord(100, 0));
+		Node n3 = NetworkUtils.createAndAddNode(network, Id.createNodeId("3"), new Coord(0, 50));
+		Node n4 = NetworkUtils.createAndAddNode(network, Id.createNodeId("4"), new Coord(100, 60));
+		Node n5 = NetworkUtils.createAndAddNode(network, Id.createNodeId("5"), new Coord(0, 500));
+		Node n6 = NetworkUtils.createAndAddNode(network, Id.createNodeId("6"), new Coord(100, 500));
+
+		// Links b and a have the same distance to the stations, but opposite directions
+		addLink("b", n1, n2, "Hauptstraße");
+		addLink("a", n2, n1, "Nebenweg");
+		addLink("c", n3, n4, "Hauptstraße");
+		addLink("d", n5, n6, "Hauptstraße");
+	}
+
+	private void addLink(String id, Node from, Node to, String name) {
+		Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, 100, 10, 600, 1);
+		link.getAttributes().putAttribute("name", name);
+	}
+
+	private LinkMatcher<Station> createMatcher() {
+		return new LinkMatcher<>(network, null, 100, s -> factory.createPoint(new Coordinate(s.x(), s.y())));
+	}
+
+	private Id<Link> query(LinkMatcher<Station> matcher, Station station) {
+		Link link = matcher.query(station);
+		return link != null ? link.getId() : null;
+	}
+
+	@Test
+	void distanceAndId() {
+
+		LinkMatcher<Station> matcher = createMatcher();
+		Station station = new Station(50, 10, "", "");
+
+		assertThat(query(matcher, station)).isEqualTo(Id.createLinkId("a"));
+
+		matcher.remove(network.getLinks().get(Id.createLinkId("a")));
+		assertThat(query(matcher, station)).isEqualTo(Id.createLinkId("b"));
+
+		matcher.remove(network.getLinks().get(Id.createLinkId("b")));
+		assertThat(query(matcher, station)).isEqualTo(Id.createLinkId("c"));
+
+		// Link d is out of range
+		matcher.remove(network.getLinks().get(Id.createLinkId("c")));
+		assertThat(query(matcher, station)).isNull();
+	}
+
+	@Test
+	void direction() {
+
+		LinkMatcher<Station> matcher = createMatcher();
+		matcher.addDirectionFilter(Station::direction);
+
+		assertThat(query(matcher, new Station(50, 10, "nordost", ""))).isEqualTo(Id.createLinkId("c"));
+		assertThat(query(matcher, new Station(50, 10, "süd", ""))).isEqualTo(Id.createLinkId("a"));
+		assertThat(query(matcher, new Station(50, 10, "südost", ""))).isEqualTo(Id.createLinkId("b"));
+		assertThat(query(matcher, new Station(50, 10, "nordwest", ""))).isNull();
+	}
+
+	@Test
+	void roadName() {
+
+		LinkMatcher<Station> matcher = createMatcher();
+		matcher.addLinkFilter(station -> {
+			Pattern pattern = Pattern.compile(station.road(), Pattern.CASE_INSENSITIVE);
+			return link -> pattern.matcher((String) link.getAttributes().getAttribute("name")).find();
+		});
+
+		assertThat(query(matcher, new Station(50, 10, "", "haupt"))).isEqualTo(Id.createLinkId("b"));
+		assertThat(query(matcher, new Station(50, 10, "", "neben"))).isEqualTo(Id.createLinkId("a"));
+		assertThat(query(matcher, new Station(50, 10, "", "other"))).isNull();
+	}
+
+	@Test
+	void prepared() {
+
+		LinkMatcher<Station> matcher = createMatcher();
+		matcher.addDirectionFilter(Station::direction);
+
+		Station first = new Station(50, 10, "süd", "");
+		Station second = new Station(50, 5, "süd", "");
+
+		matcher.prepare(List.of(first, second));
+
+		// Removed links are respected, even though candidates were computed before
+		assertThat(query(matcher, first)).isEqualTo(Id.createLinkId("a"));
+		matcher.remove(network.getLinks().get(Id.createLinkId("a")));
+
+		assertThat(query(matcher, second)).isEqualTo(Id.createLinkId("b"));
+	}
+
+	private record Station(double x, double y, String direction, String road) {
+	}
+}
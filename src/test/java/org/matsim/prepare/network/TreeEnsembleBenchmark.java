@@ -0,0 +1,75 @@
+package org.matsim.prepare.network;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the generated model code with the flat tree evaluation.
+ * Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeEnsembleBenchmark {
+
+	@Param({"1000", "100000"})
+	private int rows;
+
+	private double[][] data;
+	private double[][] columns;
+	private double[] out;
+	private TreeEnsemble trees;
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(TreeEnsembleBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+
+	@Setup
+	public void setup() {
+		trees = TreeEnsemble.load(BerlinNetworkParams_capacity_priority.class);
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		data = new double[rows][14];
+		columns = new double[14][rows];
+		out = new double[rows];
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < 14; j++) {
+				data[i][j] = rnd.nextBoolean() ? rnd.nextDouble(-3, 3) : rnd.nextInt(0, 12) * 0.5;
+				columns[j][i] = data[i][j];
+			}
+		}
+	}
+
+	@Benchmark
+	public void generated(Blackhole bh) {
+		for (double[] input : data) {
+			bh.consume(BerlinNetworkParams_capacity_priority.score(input, BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS));
+		}
+	}
+
+	@Benchmark
+	public void flat(Blackhole bh) {
+		for (double[] input : data) {
+			bh.consume(trees.score(input, BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS));
+		}
+	}
+
+	@Benchmark
+	public double[] flatBatch() {
+		trees.scoreBatch(columns, BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS, out);
+		return out;
+	}
+
+}
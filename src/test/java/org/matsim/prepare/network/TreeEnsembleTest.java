@@ -0,0 +1,64 @@
+package org.matsim.prepare.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleBiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TreeEnsembleTest {
+
+	private static final int N = 5000;
+
+	/**
+	 * Compare flat trees with the generated code. Half of the features are drawn from multiples of 0.5, so that inputs hit the split thresholds exactly.
+	 */
+	private static void assertSame(Class<?> model, double[] params, ToDoubleBiFunction<double[], double[]> score) {
+
+		TreeEnsemble trees = TreeEnsemble.load(model);
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		double[][] columns = new double[14][N];
+		double[] expected = new double[N];
+		double[] batch = new double[N];
+
+		for (int i = 0; i < N; i++) {
+			double[] input = new double[14];
+			for (int j = 0; j < input.length; j++) {
+				input[j] = rnd.nextBoolean() ? rnd.nextDouble(-3, 3) : rnd.nextInt(0, 12) * 0.5;
+				columns[j][i] = input[j];
+			}
+
+			expected[i] = score.applyAsDouble(input, params);
+
+			assertThat(trees.score(input, params))
+				.isEqualTo(expected[i]);
+		}
+
+		trees.scoreBatch(columns, params, batch);
+
+		assertThat(batch).containsExactly(expected);
+	}
+
+	@Test
+	void capacity() {
+		assertSame(BerlinNetworkParams_capacity_priority.class, BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS,
+			BerlinNetworkParams_capacity_priority::score);
+		assertSame(BerlinNetworkParams_capacity_right_before_left.class, BerlinNetworkParams_capacity_right_before_left.DEFAULT_PARAMS,
+			BerlinNetworkParams_capacity_right_before_left::score);
+		assertSame(BerlinNetworkParams_capacity_traffic_light.class, BerlinNetworkParams_capacity_traffic_light.DEFAULT_PARAMS,
+			BerlinNetworkParams_capacity_traffic_light::score);
+	}
+
+	@Test
+	void speedFactor() {
+		assertSame(BerlinNetworkParams_speedRelative_priority.class, BerlinNetworkParams_speedRelative_priority.DEFAULT_PARAMS,
+			BerlinNetworkParams_speedRelative_priority::score);
+		assertSame(BerlinNetworkParams_speedRelative_right_before_left.class, BerlinNetworkParams_speedRelative_right_before_left.DEFAULT_PARAMS,
+			BerlinNetworkParams_speedRelative_right_before_left::score);
+		assertSame(BerlinNetworkParams_speedRelative_traffic_light.class, BerlinNetworkParams_speedRelative_traffic_light.DEFAULT_PARAMS,
+			BerlinNetworkParams_speedRelative_traffic_light::score);
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and vectorized error kernels.
+ * Run the main method from the test classpath, built with the {@code vector} profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ErrorKernelBenchmark {
+
+	/**
+	 * Number of count stations, each with 24 hours.
+	 */
+	@Param({"500", "5000"})
+	private int stations;
+
+	@Param({"abs_error", "log_error", "symmetric_percentage_error"})
+	private String metricName;
+
+	private ErrorMetric metric;
+
+	private int[] counts;
+	private int[] observed;
+	private PlanImpacts plans;
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(ErrorKernelBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+
+	@Setup
+	public void setup() {
+		if (!ErrorKernel.VECTORIZED)
+			throw new IllegalStateException("Vector kernel not available, build with -Pvector");
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		metric = ErrorMetric.valueOf(metricName);
+
+		counts = new int[stations * 24];
+		observed = new int[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = rnd.nextInt(0, 5000);
+			observed[i] = rnd.nextInt(0, 5000);
+		}
+
+		PlanImpacts.Builder builder = new PlanImpacts.Builder();
+		for (int i = 0; i < 1000; i++) {
+			Int2IntOpenHashMap plan = new Int2IntOpenHashMap();
+			for (int j = 0; j < 32; j++) {
+				plan.put(rnd.nextInt(0, counts.length), 4);
+			}
+			builder.add(plan);
+		}
+		plans = builder.build();
+	}
+
+	@Benchmark
+	public double errorScalar() {
+		return ErrorKernel.errorScalar(metric, counts, observed);
+	}
+
+	@Benchmark
+	public double errorVector() {
+		return ErrorKernel.VECTOR.error(metric, counts, observed);
+	}
+
+	@Benchmark
+	public double switchScalar() {
+		double diff = 0;
+		for (int i = 0; i < plans.size(); i++) {
+			diff += ErrorKernel.applyScalar(metric, counts, observed, plans, i, 1);
+			diff += ErrorKernel.applyScalar(metric, counts, observed, plans, i, -1);
+		}
+		return diff;
+	}
+
+	@Benchmark
+	public double switchVector() {
+		double diff = 0;
+		for (int i = 0; i < plans.size(); i++) {
+			diff += ErrorKernel.VECTOR.apply(metric, counts, observed, plans, i, 1);
+			diff += ErrorKernel.VECTOR.apply(metric, counts, observed, plans, i, -1);
+		}
+		return diff;
+	}
+}
@@ -0,0 +1,91 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ErrorKernelTest {
+
+	private final SplittableRandom rnd = new SplittableRandom(0);
+
+	private int[] random(int n) {
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = rnd.nextInt(0, 5000);
+		}
+		return values;
+	}
+
+	private PlanImpacts createPlans(int n, int size) {
+		PlanImpacts.Builder builder = new PlanImpacts.Builder();
+		for (int i = 0; i < n; i++) {
+			Int2IntOpenHashMap plan = new Int2IntOpenHashMap();
+			int entries = rnd.nextInt(0, 40);
+			for (int j = 0; j < entries; j++) {
+				plan.put(rnd.nextInt(0, size), rnd.nextInt(1, 5));
+			}
+			builder.add(plan);
+		}
+		return builder.build();
+	}
+
+	@Test
+	void incremental() {
+
+		int[] counts = random(24 * 100);
+		int[] observed = random(counts.length);
+		PlanImpacts plans = createPlans(100, counts.length);
+
+		for (ErrorMetric metric : ErrorMetric.values()) {
+
+			int[] obs = observed.clone();
+			double error = ErrorKernel.errorScalar(metric, counts, obs);
+
+			for (int i = 0; i < plans.size(); i++) {
+				error += ErrorKernel.applyScalar(metric, counts, obs, plans, i, i % 2 == 0 ? 1 : -1);
+			}
+
+			assertThat(error)
+				.isCloseTo(ErrorKernel.errorScalar(metric, counts, obs), Offset.offset(1e-6));
+		}
+	}
+
+	@Test
+	void vectorized() {
+
+		assumeTrue(ErrorKernel.VECTORIZED, "Vector module not available");
+
+		// Sizes not divisible by the number of lanes
+		for (int n : new int[]{1, 7, 13, 24 * 1001}) {
+
+			int[] counts = random(n);
+			int[] observed = random(n);
+			PlanImpacts plans = createPlans(200, n);
+
+			for (ErrorMetric metric : ErrorMetric.values()) {
+
+				double expected = ErrorKernel.errorScalar(metric, counts, observed);
+				Offset<Double> tolerance = Offset.offset(ErrorKernel.TOLERANCE * expected);
+
+				assertThat(ErrorKernel.VECTOR.error(metric, counts, observed))
+					.isCloseTo(expected, tolerance);
+
+				int[] scalar = observed.clone();
+				int[] vector = observed.clone();
+
+				for (int i = 0; i < plans.size(); i++) {
+					int sign = i % 2 == 0 ? 1 : -1;
+					assertThat(ErrorKernel.VECTOR.apply(metric, counts, vector, plans, i, sign))
+						.isCloseTo(ErrorKernel.applyScalar(metric, counts, scalar, plans, i, sign), tolerance);
+				}
+
+				assertThat(vector).containsExactly(scalar);
+			}
+		}
+	}
+}
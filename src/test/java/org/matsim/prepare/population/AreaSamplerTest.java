@@ -0,0 +1,43 @@
+package org.matsim.prepare.population;
+
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.geometry.geotools.MGC;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AreaSamplerTest {
+
+	private final GeometryFactory factory = new GeometryFactory();
+
+	@Test
+	void uniform() {
+
+		// L-shaped area, the lower part covers two thirds of it
+		Geometry area = factory.createPolygon(new Coordinate[]{
+			new Coordinate(0, 0), new Coordinate(200, 0), new Coordinate(200, 50),
+			new Coordinate(100, 50), new Coordinate(100, 100), new Coordinate(0, 100), new Coordinate(0, 0)
+		});
+
+		AreaSampler sampler = new AreaSampler(area);
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		int n = 100_000;
+		int lower = 0;
+		for (int i = 0; i < n; i++) {
+			Coord c = sampler.sample(rnd);
+			assertThat(area.covers(MGC.coord2Point(c))).isTrue();
+
+			if (c.getY() < 50)
+				lower++;
+		}
+
+		assertThat(lower / (double) n).isCloseTo(2 / 3.0, Offset.offset(0.01));
+	}
+}
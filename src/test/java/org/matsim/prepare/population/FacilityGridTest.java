@@ -0,0 +1,102 @@
+package org.matsim.prepare.population;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.facilities.ActivityFacilitiesFactory;
+import org.matsim.facilities.ActivityFacilitiesFactoryImpl;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.prepare.facilities.AttributedActivityFacility;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FacilityGridTest {
+
+	private final SplittableRandom rnd = new SplittableRandom(0);
+	private final ActivityFacilitiesFactory factory = new ActivityFacilitiesFactoryImpl();
+
+	private AttributedActivityFacility createFacility(int i, double x, double y, double weight) {
+		ActivityFacility f = factory.createActivityFacility(Id.create(i, ActivityFacility.class), new Coord(x, y));
+		f.getAttributes().putAttribute(Attributes.ATTRACTION_WORK, weight);
+		f.getAttributes().putAttribute(Attributes.ATTRACTION_OTHER, weight);
+		return new AttributedActivityFacility(f);
+	}
+
+	private AttributedActivityFacility[] createFacilities(int n) {
+		AttributedActivityFacility[] facilities = new AttributedActivityFacility[n];
+		for (int i = 0; i < n; i++) {
+			facilities[i] = createFacility(i, rnd.nextDouble(0, 20_000), rnd.nextDouble(0, 20_000), rnd.nextDouble(1, 10));
+		}
+		return facilities;
+	}
+
+	private static IntArrayList all(int n) {
+		IntArrayList list = new IntArrayList();
+		for (int i = 0; i < n; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+
+	@Test
+	void query() {
+
+		AttributedActivityFacility[] facilities = createFacilities(5000);
+		FacilityGrid grid = new FacilityGrid(facilities, all(facilities.length), 1000);
+
+		IntArrayList result = new IntArrayList();
+		Coord center = new Coord(8000, 11000);
+
+		grid.query(center.getX(), center.getY(), 2000, 5000, result);
+
+		long expected = 0;
+		for (AttributedActivityFacility f : facilities) {
+			double d = CoordUtils.calcEuclideanDistance(center, f.getCoord());
+			if (d >= 2000 && d <= 5000)
+				expected++;
+		}
+
+		assertThat(result.size()).isEqualTo(expected);
+		for (int i = 0; i < result.size(); i++) {
+			double d = CoordUtils.calcEuclideanDistance(center, facilities[result.getInt(i)].getCoord());
+			assertThat(d).isBetween(2000.0, 5000.0);
+		}
+	}
+
+	@Test
+	void sampling() {
+
+		AttributedActivityFacility[] facilities = createFacilities(5000);
+		FacilityGrid grid = new FacilityGrid(facilities, all(facilities.length), 1000);
+
+		Coord center = new Coord(10000, 10000);
+
+		// Inner facilities have total weight of 1, outer ones 3
+		AttributedActivityFacility[] weighted = {
+			createFacility(0, 10100, 10000, 1), createFacility(1, 10200, 10000, 3),
+			createFacility(2, 15000, 10000, 100)
+		};
+		FacilityGrid small = new FacilityGrid(weighted, all(weighted.length), 1000);
+
+		int first = 0;
+		for (int i = 0; i < 10_000; i++) {
+
+			int idx = grid.sampleByWeight(center.getX(), center.getY(), 1000, 6000, true, rnd);
+			assertThat(CoordUtils.calcEuclideanDistance(center, facilities[idx].getCoord()))
+				.isBetween(1000.0, 6000.0);
+
+			if (small.sampleByWeight(center.getX(), center.getY(), 0, 500, true, rnd) == 0)
+				first++;
+		}
+
+		assertThat(first / 10000.0).isCloseTo(0.25, Offset.offset(0.02));
+
+		assertThat(small.sampleByWeight(center.getX(), center.getY(), 6000, 8000, false, rnd))
+			.isEqualTo(-1);
+	}
+}
@@ -0,0 +1,316 @@
+package org.matsim.prepare.population;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.assertj.core.data.Offset;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.gis.ShapeFileWriter;
+import org.matsim.facilities.*;
+import org.matsim.run.OpenBerlinScenario;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InitLocationChoiceTest {
+
+	/**
+	 * Grid network with 100m spacing, every fifth horizontal road is a motorway.
+	 */
+	private static Network createNetwork() {
+		double[] coords = new double[61];
+		for (int i = 0; i < coords.length; i++) {
+			coords[i] = i * 100;
+		}
+
+		return createNetwork(coords, coords);
+	}
+
+	/**
+	 * Grid network at the given coordinates, every fifth horizontal road is a motorway.
+	 */
+	private static Network createNetwork(double[] xs, double[] ys) {
+
+		Network network = NetworkUtils.createNetwork();
+
+		Node[][] nodes = new Node[xs.length][ys.length];
+		for (int i = 0; i < xs.length; i++) {
+			for (int j = 0; j < ys.length; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(i + "_" + j), new Coord(xs[i], ys[j]));
+			}
+		}
+
+		for (int i = 0; i < xs.length; i++) {
+			for (int j = 0; j < ys.length; j++) {
+				if (i + 1 < xs.length)
+					addLinks(network, nodes[i][j], nodes[i + 1][j], j % 5 == 0 ? "motorway" : "residential");
+				if (j + 1 < ys.length)
+					addLinks(network, nodes[i][j], nodes[i][j + 1], "residential");
+			}
+		}
+
+		return network;
+	}
+
+	private static void addLinks(Network network, Node from, Node to, String type) {
+		for (Node[] l : new Node[][]{{from, to}, {to, from}}) {
+			double length = CoordUtils.calcEuclideanDistance(l[0].getCoord(), l[1].getCoord());
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId(l[0].getId() + "-" + l[1].getId()), l[0], l[1], length, 10, 600, 1);
+			NetworkUtils.setType(link, type);
+		}
+	}
+
+	private static boolean isEligible(Link link) {
+		return !"motorway".equals(NetworkUtils.getType(link));
+	}
+
+	private static boolean isNearestLinkEligible(Network network, Coord coord) {
+		return isEligible(NetworkUtils.getNearestLink(network, coord));
+	}
+
+	/**
+	 * Rejection sampling of random coordinates, which was used before links were sampled directly.
+	 */
+	private static Coord rejectionSample(Network network, SplittableRandom rnd, double dist, Coord origin) {
+		Coord coord = null;
+		for (int i = 0; i < 500; i++) {
+			coord = InitLocationChoice.rndCoord(rnd, dist, origin);
+			if (isNearestLinkEligible(network, coord))
+				return coord;
+		}
+		return coord;
+	}
+
+	private static double quantile(double[] sorted, double p) {
+		return sorted[(int) (p * (sorted.length - 1))];
+	}
+
+	@Test
+	void sampleLink() {
+
+		Network network = createNetwork();
+		LinkIndex links = new LinkIndex(network, InitLocationChoiceTest::isEligible, 500);
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		IntArrayList buffer = new IntArrayList();
+		Coord origin = new Coord(3000, 3000);
+
+		for (double dist : new double[]{500, 1200, 2500}) {
+
+			int n = 5000;
+			double[] expected = new double[n];
+			double[] actual = new double[n];
+
+			for (int i = 0; i < n; i++) {
+				expected[i] = CoordUtils.calcEuclideanDistance(origin, rejectionSample(network, rnd, dist, origin));
+
+				Coord c = InitLocationChoice.sampleLink(links, rnd, dist, origin, buffer);
+				assertThat(isNearestLinkEligible(network, c)).isTrue();
+
+				actual[i] = CoordUtils.calcEuclideanDistance(origin, c);
+			}
+
+			Arrays.sort(expected);
+			Arrays.sort(actual);
+
+			assertThat(Arrays.stream(actual).average().orElseThrow())
+				.isCloseTo(Arrays.stream(expected).average().orElseThrow(), Offset.offset(dist * 0.02));
+
+			for (double p : new double[]{0.05, 0.5, 0.95}) {
+				assertThat(quantile(actual, p))
+					.isCloseTo(quantile(expected, p), Offset.offset(dist * 0.06));
+			}
+		}
+	}
+
+	@Test
+	void sampleLinkUnevenDensity() {
+
+		// Dense network in the west, sparse in the east
+		DoubleList xs = new DoubleArrayList();
+		for (double x = 0; x < 3000; x += 50) {
+			xs.add(x);
+		}
+		for (double x = 3000; x <= 6000; x += 250) {
+			xs.add(x);
+		}
+
+		double[] ys = new double[61];
+		for (int i = 0; i < ys.length; i++) {
+			ys[i] = i * 100;
+		}
+
+		Network network = createNetwork(xs.toDoubleArray(), ys);
+		LinkIndex links = new LinkIndex(network, InitLocationChoiceTest::isEligible, 500);
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		IntArrayList buffer = new IntArrayList();
+		Coord origin = new Coord(3000, 3000);
+
+		for (double dist : new double[]{800, 2000}) {
+
+			int n = 5000;
+			int[] expected = new int[4];
+			int[] actual = new int[4];
+
+			for (int i = 0; i < n; i++) {
+				expected[quadrant(origin, rejectionSample(network, rnd, dist, origin))]++;
+				actual[quadrant(origin, InitLocationChoice.sampleLink(links, rnd, dist, origin, buffer))]++;
+			}
+
+			// Directions are uniform, even though most links are in the west
+			for (int q = 0; q < 4; q++) {
+				assertThat((double) actual[q] / n)
+					.as("Share of quadrant %d at distance %.0f", q, dist)
+					.isCloseTo((double) expected[q] / n, Offset.offset(0.04));
+			}
+		}
+	}
+
+	/**
+	 * Quadrant of a coordinate relative to the origin, counted from east and north.
+	 */
+	private static int quadrant(Coord origin, Coord c) {
+		return (c.getX() >= origin.getX() ? 0 : 1) + (c.getY() >= origin.getY() ? 0 : 2);
+	}
+
+	@Test
+	void singlePass(@TempDir Path dir) throws IOException {
+
+		SplittableRandom rnd = new SplittableRandom(1);
+
+		NetworkUtils.writeNetwork(createNetwork(), dir.resolve("network.xml").toString());
+
+		ActivityFacilities facilities = FacilitiesUtils.createActivityFacilities();
+		ActivityFacilitiesFactory ff = facilities.getFactory();
+		for (int i = 0; i < 500; i++) {
+			ActivityFacility f = ff.createActivityFacility(Id.create(i, ActivityFacility.class), new Coord(rnd.nextInt(0, 6000), rnd.nextInt(0, 6000)));
+			f.addActivityOption(ff.createActivityOption("work"));
+			f.addActivityOption(ff.createActivityOption("other"));
+			f.getAttributes().putAttribute(Attributes.ATTRACTION_WORK, rnd.nextDouble(1, 10));
+			f.getAttributes().putAttribute(Attributes.ATTRACTION_OTHER, rnd.nextDouble(1, 10));
+			facilities.addActivityFacility(f);
+		}
+
+		new FacilitiesWriter(facilities).write(dir.resolve("facilities.xml").toString());
+
+		// Two zones, split at x = 3000
+		SimpleFeatureTypeBuilder type = new SimpleFeatureTypeBuilder();
+		type.setName("zones");
+		type.add("the_geom", Polygon.class);
+		type.add("ARS", String.class);
+
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type.buildFeatureType());
+		GeometryFactory gf = new GeometryFactory();
+		List<SimpleFeature> zones = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			zones.add(builder.buildFeature(null, new Object[]{gf.toGeometry(new Envelope(i * 3000, (i + 1) * 3000, 0, 6000)), String.valueOf(i + 1)}));
+		}
+
+		ShapeFileWriter.writeGeometries(zones, dir.resolve("zones.shp").toString());
+
+		// Quotas are large enough to never run out, so that the order of assignments does not matter
+		Files.writeString(dir.resolve("commuter.csv"), "from,to,n\n1,1,100000\n1,2,100000\n2,1,100000\n2,2,100000\n");
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		PopulationFactory pf = population.getFactory();
+		population.getAttributes().putAttribute("coordinateReferenceSystem", OpenBerlinScenario.CRS);
+
+		for (int i = 0; i < 60; i++) {
+			Person person = pf.createPerson(Id.createPersonId(i));
+			Coord home = new Coord(rnd.nextInt(0, 6000), rnd.nextInt(0, 6000));
+
+			person.getAttributes().putAttribute(Attributes.HOME_X, home.getX());
+			person.getAttributes().putAttribute(Attributes.HOME_Y, home.getY());
+			person.getAttributes().putAttribute(Attributes.ARS, home.getX() < 3000 ? 1L : 2L);
+
+			// Some persons have several plans, all of them are assigned in every round of the default mode
+			for (int j = 0; j < (i % 3 == 0 ? 2 : 1); j++) {
+				Plan plan = pf.createPlan();
+				plan.addActivity(pf.createActivityFromCoord("home", home));
+				for (String act : List.of("work", "other", "other")) {
+					plan.addLeg(pf.createLeg("car"));
+					Activity a = pf.createActivityFromLinkId(act, Id.createLinkId("unassigned"));
+					a.getAttributes().putAttribute("orig_dist", rnd.nextDouble(0.5, 4));
+					plan.addActivity(a);
+				}
+				plan.addLeg(pf.createLeg("car"));
+				plan.addActivity(pf.createActivityFromCoord("home", home));
+				person.addPlan(plan);
+			}
+
+			population.addPerson(person);
+		}
+
+		PopulationUtils.writePopulation(population, dir.resolve("input.xml").toString());
+
+		Population[] result = new Population[2];
+		for (int i = 0; i < 2; i++) {
+			Path out = dir.resolve("output" + i + ".xml");
+			List<String> args = new ArrayList<>(List.of(
+				"--input", dir.resolve("input.xml").toString(),
+				"--output", out.toString(),
+				"--k", "3",
+				"--commuter", dir.resolve("commuter.csv").toString(),
+				"--facilities", dir.resolve("facilities.xml").toString(),
+				"--network", dir.resolve("network.xml").toString(),
+				"--shp", dir.resolve("zones.shp").toString()
+			));
+
+			if (i == 1)
+				args.add("--single-pass");
+
+			assertThat(new CommandLine(new InitLocationChoice()).execute(args.toArray(String[]::new))).isEqualTo(0);
+			result[i] = PopulationUtils.readPopulation(out.toString());
+		}
+
+		assertThat(result[1].getAttributes().getAttribute("coordinateReferenceSystem"))
+			.isEqualTo(OpenBerlinScenario.CRS);
+
+		assertThat(result[1].getPersons().keySet()).containsExactlyElementsOf(result[0].getPersons().keySet());
+
+		for (Person expected : result[0].getPersons().values()) {
+			Person actual = result[1].getPersons().get(expected.getId());
+			assertThat(actual.getPlans()).hasSameSizeAs(expected.getPlans());
+
+			for (int i = 0; i < expected.getPlans().size(); i++) {
+				assertThat(locations(actual.getPlans().get(i)))
+					.as("Plan %d of person %s", i, expected.getId())
+					.containsExactlyElementsOf(locations(expected.getPlans().get(i)));
+			}
+		}
+	}
+
+	private static List<String> locations(Plan plan) {
+		return plan.getPlanElements().stream()
+			.filter(Activity.class::isInstance)
+			.map(Activity.class::cast)
+			.map(a -> a.getFacilityId() != null ? a.getFacilityId().toString() : String.valueOf(a.getCoord()))
+			.toList();
+	}
+}
@@ -0,0 +1,135 @@
+package org.matsim.prepare.population;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the weighted samplers with cumulative weight arrays, as used before in {@link FacilityIndex}.
+ * Candidate counts cover the range of facilities returned by distance queries in the Berlin facilities,
+ * attraction weights are heavily skewed, which is approximated by a log-normal distribution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeightedSamplerBenchmark {
+
+	@Param({"100", "1000", "10000", "50000"})
+	private int candidates;
+
+	/**
+	 * Share of candidates that is rejected during rejection sampling.
+	 */
+	@Param({"0.5", "0.95"})
+	private double rejected;
+
+	private double[] weights;
+	private boolean[] reject;
+	private SplittableRandom rnd;
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(WeightedSamplerBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+
+	@Setup
+	public void setup() {
+		rnd = new SplittableRandom(0);
+		weights = new double[candidates];
+		reject = new boolean[candidates];
+		for (int i = 0; i < candidates; i++) {
+			weights[i] = Math.exp(rnd.nextGaussian() * 1.5);
+			reject[i] = rnd.nextDouble() < rejected;
+		}
+	}
+
+	/**
+	 * Rejection sampling with cumulative weights, which are updated linearly on each rejection.
+	 */
+	@Benchmark
+	public int cumulativeRejection() {
+
+		double totalWeight = 0;
+		double[] cum = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			totalWeight += weights[i];
+			cum[i] = totalWeight;
+		}
+
+		for (int i = 0; i < weights.length; i++) {
+			int idx = Arrays.binarySearch(cum, rnd.nextDouble(0, totalWeight));
+			if (idx < 0)
+				idx = -idx - 1;
+
+			if (!reject[idx])
+				return idx;
+
+			totalWeight -= weights[idx];
+			for (int j = idx; j < cum.length; j++) {
+				cum[j] -= weights[idx];
+			}
+		}
+
+		return -1;
+	}
+
+	@Benchmark
+	public int fenwickRejection() {
+
+		FenwickSampler sampler = new FenwickSampler(weights);
+
+		int idx;
+		while ((idx = sampler.sample(rnd)) >= 0) {
+			if (!reject[idx])
+				return idx;
+
+			sampler.remove(idx);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Draw as many samples as there are candidates, building cumulative weights once.
+	 */
+	@Benchmark
+	public int cumulativeRepeated() {
+
+		double totalWeight = 0;
+		double[] cum = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			totalWeight += weights[i];
+			cum[i] = totalWeight;
+		}
+
+		int sum = 0;
+		for (int i = 0; i < weights.length; i++) {
+			int idx = Arrays.binarySearch(cum, rnd.nextDouble(0, totalWeight));
+			sum += idx < 0 ? -idx - 1 : idx;
+		}
+
+		return sum;
+	}
+
+	@Benchmark
+	public int aliasRepeated() {
+
+		AliasSampler sampler = new AliasSampler(weights);
+
+		int sum = 0;
+		for (int i = 0; i < weights.length; i++) {
+			sum += sampler.sample(rnd);
+		}
+
+		return sum;
+	}
+}
@@ -0,0 +1,84 @@
+package org.matsim.prepare.population;
+
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WeightedSamplerTest {
+
+	private static final double[] WEIGHTS = {1, 0, 200, 300, 500};
+
+	private static double[] frequencies(WeightedSampler sampler, int n, SplittableRandom rnd) {
+		double[] freq = new double[n];
+		for (int i = 0; i < 100_000; i++) {
+			freq[sampler.sample(rnd)] += 1 / 100_000.0;
+		}
+		return freq;
+	}
+
+	@Test
+	void alias() {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		double[] freq = frequencies(new AliasSampler(WEIGHTS), WEIGHTS.length, rnd);
+
+		for (int i = 0; i < WEIGHTS.length; i++) {
+			assertThat(freq[i]).isCloseTo(WEIGHTS[i] / 1001, Offset.offset(0.005));
+		}
+	}
+
+	@Test
+	void fenwick() {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		FenwickSampler sampler = new FenwickSampler(WEIGHTS);
+
+		assertThat(sampler.getTotal()).isEqualTo(1001);
+		assertThat(sampler.getRemaining()).isEqualTo(4);
+
+		double[] freq = frequencies(sampler, WEIGHTS.length, rnd);
+		for (int i = 0; i < WEIGHTS.length; i++) {
+			assertThat(freq[i]).isCloseTo(WEIGHTS[i] / 1001, Offset.offset(0.005));
+		}
+
+		sampler.remove(3);
+		sampler.set(0, 300);
+
+		freq = frequencies(sampler, WEIGHTS.length, rnd);
+		assertThat(freq[0]).isCloseTo(0.3, Offset.offset(0.005));
+		assertThat(freq[3]).isEqualTo(0);
+
+		sampler.remove(0);
+		sampler.remove(2);
+		sampler.remove(4);
+
+		assertThat(sampler.sample(rnd)).isEqualTo(-1);
+	}
+
+	@Test
+	void withoutReplacement() {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		double[] weights = new double[1000];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = rnd.nextDouble(0, 10);
+		}
+
+		FenwickSampler sampler = new FenwickSampler(weights);
+		boolean[] seen = new boolean[weights.length];
+
+		int idx;
+		int n = 0;
+		while ((idx = sampler.sample(rnd)) >= 0) {
+			assertThat(seen[idx]).isFalse();
+			seen[idx] = true;
+			sampler.remove(idx);
+			n++;
+		}
+
+		assertThat(n).isEqualTo(weights.length);
+	}
+}